@@ -0,0 +1,41 @@
+package benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import graph.KnownGraph;
+import history.History;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class KnownGraphBenchmark {
+    @Param({ "1000", "10000" })
+    private int transactions;
+
+    @Param({ "20" })
+    private int sessions;
+
+    @Param({ "1000" })
+    private int keys;
+
+    private History<Long, Long> history;
+
+    @Setup
+    public void setup() {
+        history = Synthetic.history(sessions, transactions, 8, keys, 0.5, 1);
+    }
+
+    @Benchmark
+    public KnownGraph<Long, Long> knownGraph() {
+        return new KnownGraph<>(history);
+    }
+}
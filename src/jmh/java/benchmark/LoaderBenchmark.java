@@ -0,0 +1,96 @@
+package benchmark;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import history.History;
+import history.loaders.CobraHistoryLoader;
+import history.loaders.DBCopHistoryLoader;
+import history.loaders.ElleHistoryLoader;
+import history.loaders.TextHistoryLoader;
+import lombok.SneakyThrows;
+
+/*
+ * Load the same synthetic history written in each format
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class LoaderBenchmark {
+    @Param({ "1000", "10000" })
+    private int transactions;
+
+    @Param({ "20" })
+    private int sessions;
+
+    @Param({ "1000" })
+    private int keys;
+
+    private Path dir;
+    private Path cobraPath;
+    private Path dbcopPath;
+    private Path textPath;
+    private Path ellePath;
+
+    @Setup
+    @SneakyThrows
+    public void setup() {
+        var history = Synthetic.history(sessions, transactions, 8, keys, 0.5, 1);
+        dir = Files.createTempDirectory("polysi-jmh");
+
+        cobraPath = Files.createDirectory(dir.resolve("cobra"));
+        var cobra = new CobraHistoryLoader(cobraPath);
+        cobra.dumpHistory(cobra.convertFrom(history));
+
+        dbcopPath = dir.resolve("history.bincode");
+        var dbcop = new DBCopHistoryLoader(dbcopPath);
+        dbcop.dumpHistory(dbcop.convertFrom(history));
+
+        textPath = dir.resolve("history.txt");
+        var text = new TextHistoryLoader(textPath);
+        text.dumpHistory(text.convertFrom(history));
+
+        ellePath = dir.resolve("history.edn");
+        Synthetic.writeElle(history, ellePath);
+    }
+
+    @TearDown
+    @SneakyThrows
+    public void tearDown() {
+        try (var files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public History<?, ?> cobra() {
+        return new CobraHistoryLoader(cobraPath).loadHistory();
+    }
+
+    @Benchmark
+    public History<?, ?> dbcop() {
+        return new DBCopHistoryLoader(dbcopPath).loadHistory();
+    }
+
+    @Benchmark
+    public History<?, ?> text() {
+        return new TextHistoryLoader(textPath).loadHistory();
+    }
+
+    @Benchmark
+    public History<?, ?> elle() {
+        return new ElleHistoryLoader(ellePath).loadHistory();
+    }
+}
@@ -0,0 +1,67 @@
+package benchmark;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import graph.MatrixGraph;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class MatrixGraphBenchmark {
+    @Param({ "1000", "4000" })
+    private int nodes;
+
+    @Param({ "0.001", "0.01" })
+    private double density;
+
+    @Param({ "AUTO" })
+    private MatrixGraph.Storage storage;
+
+    private MatrixGraph<Integer> graph;
+    private MatrixGraph<Integer> other;
+    private MatrixGraph<Integer> dag;
+
+    @Setup
+    public void setup() {
+        MatrixGraph.setStorage(storage);
+        graph = new MatrixGraph<>(Synthetic.graph(nodes, density, false, 1));
+        other = new MatrixGraph<>(Synthetic.graph(nodes, density, false, 2), graph.getNodeMap());
+        dag = new MatrixGraph<>(Synthetic.graph(nodes, density, true, 3));
+    }
+
+    @Benchmark
+    public MatrixGraph<Integer> reachability() {
+        return dag.reachability();
+    }
+
+    @Benchmark
+    public MatrixGraph<Integer> reachabilityCyclic() {
+        return graph.reachability();
+    }
+
+    @Benchmark
+    public MatrixGraph<Integer> composition() {
+        return graph.composition(other);
+    }
+
+    @Benchmark
+    public MatrixGraph<Integer> union() {
+        return graph.union(other);
+    }
+
+    @Benchmark
+    public Optional<List<Integer>> topologicalSort() {
+        return dag.topologicalSort();
+    }
+}
@@ -0,0 +1,127 @@
+package benchmark;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import com.google.common.graph.Graph;
+import com.google.common.graph.GraphBuilder;
+
+import history.Event.EventType;
+import history.History;
+import history.Transaction;
+import lombok.SneakyThrows;
+
+/**
+ * Seeded synthetic inputs for benchmarks.
+ */
+public class Synthetic {
+    /*
+     * A random directed graph. If acyclic is true, edges only go from smaller
+     * to larger nodes.
+     */
+    public static Graph<Integer> graph(int nodes, double density, boolean acyclic, long seed) {
+        var random = new Random(seed);
+        var graph = GraphBuilder.directed().<Integer>build();
+        for (int i = 0; i < nodes; i++) {
+            graph.addNode(i);
+        }
+
+        var edges = (long) (density * nodes * nodes);
+        for (long i = 0; i < edges; i++) {
+            var u = random.nextInt(nodes);
+            var v = random.nextInt(nodes);
+            if (u == v) {
+                continue;
+            }
+            if (acyclic) {
+                graph.putEdge(Math.min(u, v), Math.max(u, v));
+            } else {
+                graph.putEdge(u, v);
+            }
+        }
+
+        return graph;
+    }
+
+    /*
+     * A serializable history. Transactions are run one at a time in random
+     * sessions, so every read sees the latest write. Transaction ids follow the
+     * order of execution.
+     *
+     * Keys are 1..keys. Transaction 0 in session 0 writes 0 to every key, other
+     * writes have unique values.
+     */
+    public static History<Long, Long> history(int sessions, int transactions, int opsPerTransaction, int keys,
+            double readRatio, long seed) {
+        var random = new Random(seed);
+        var history = new History<Long, Long>();
+        var current = new long[keys + 1];
+
+        var init = history.addTransaction(history.addSession(0), 0);
+        for (long k = 1; k <= keys; k++) {
+            history.addEvent(init, EventType.WRITE, k, 0L);
+        }
+        for (long s = 1; s <= sessions; s++) {
+            history.addSession(s);
+        }
+
+        long value = 1;
+        for (long t = 1; t <= transactions; t++) {
+            var txn = history.addTransaction(history.getSession(1 + random.nextInt(sessions)), t);
+            for (int i = 0; i < opsPerTransaction; i++) {
+                var key = 1 + random.nextInt(keys);
+                if (random.nextDouble() < readRatio) {
+                    history.addEvent(txn, EventType.READ, (long) key, current[key]);
+                } else {
+                    current[key] = value;
+                    history.addEvent(txn, EventType.WRITE, (long) key, value++);
+                }
+            }
+        }
+
+        return history;
+    }
+
+    /*
+     * Write a history from history() as an Elle list-append history. Values
+     * appended to a key are replayed in transaction order to build the lists
+     * returned by reads.
+     */
+    @SneakyThrows
+    public static void writeElle(History<Long, Long> history, Path path) {
+        var lists = new HashMap<Long, List<Long>>();
+        var txns = new ArrayList<>(history.getTransactions());
+        txns.sort(Comparator.comparing(Transaction::getId));
+
+        try (var out = new BufferedWriter(new FileWriter(path.toFile()))) {
+            var index = 0;
+            for (var txn : txns) {
+                if (txn.getId() == 0) {
+                    continue;
+                }
+
+                var value = new StringBuilder();
+                for (var ev : txn.getEvents()) {
+                    var list = lists.computeIfAbsent(ev.getKey(), k -> new ArrayList<>());
+                    if (ev.getType() == EventType.WRITE) {
+                        list.add(ev.getValue());
+                        value.append(String.format("[:append %d %d] ", ev.getKey(), ev.getValue()));
+                    } else if (list.isEmpty()) {
+                        value.append(String.format("[:r %d nil] ", ev.getKey()));
+                    } else {
+                        value.append(String.format("[:r %d %s] ", ev.getKey(), list.toString().replace(",", "")));
+                    }
+                }
+
+                out.write(String.format("{:type :ok, :f :txn, :value [%s], :process %d, :index %d}\n",
+                        value.toString().trim(), txn.getSession().getId(), index++));
+            }
+        }
+    }
+}
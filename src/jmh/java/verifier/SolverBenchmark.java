@@ -0,0 +1,59 @@
+package verifier;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import benchmark.Synthetic;
+import graph.KnownGraph;
+import history.History;
+
+/*
+ * Building and solving constraints with each solver. Without pruning, the
+ * solvers get all constraints generated from the history.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SolverBenchmark {
+    @Param({ "MONOSAT", "MONOSAT_PAIRS", "JAVA" })
+    private SIVerifier.SolverType solver;
+
+    @Param({ "500", "2000" })
+    private int transactions;
+
+    @Param({ "true", "false" })
+    private boolean pruning;
+
+    @Param({ "20" })
+    private int sessions;
+
+    @Param({ "1000" })
+    private int keys;
+
+    private History<Long, Long> history;
+    private KnownGraph<Long, Long> knownGraph;
+    private ConstraintStore<Long, Long> constraints;
+
+    @Setup
+    public void setup() {
+        history = Synthetic.history(sessions, transactions, 8, keys, 0.5, 1);
+        knownGraph = new KnownGraph<>(history);
+        constraints = SIVerifier.generateConstraintsCoalesce(history, knownGraph);
+        if (pruning) {
+            Pruning.pruneConstraints(knownGraph, constraints, history);
+        }
+    }
+
+    @Benchmark
+    public boolean solve() {
+        return SIVerifier.createSolver(solver, history, knownGraph, constraints).solve();
+    }
+}
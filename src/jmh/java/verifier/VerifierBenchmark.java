@@ -0,0 +1,62 @@
+package verifier;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import benchmark.Synthetic;
+import graph.KnownGraph;
+import graph.MatrixGraph;
+import history.History;
+import history.Transaction;
+
+/*
+ * Benchmarks of package-private parts of the verifier
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class VerifierBenchmark {
+    @Param({ "1000", "10000" })
+    private int transactions;
+
+    @Param({ "20" })
+    private int sessions;
+
+    @Param({ "1000" })
+    private int keys;
+
+    private History<Long, Long> history;
+    private KnownGraph<Long, Long> knownGraph;
+    private MatrixGraph<Transaction<Long, Long>> graphAUnionC;
+    private Map<Transaction<Long, Long>, Integer> orderInSession;
+
+    @Setup
+    public void setup() {
+        history = Synthetic.history(sessions, transactions, 8, keys, 0.5, 1);
+        knownGraph = new KnownGraph<>(history);
+
+        var graphA = new MatrixGraph<>(knownGraph.getKnownGraphA().asGraph());
+        var graphB = new MatrixGraph<>(knownGraph.getKnownGraphB().asGraph(), graphA.getNodeMap());
+        graphAUnionC = graphA.union(graphA.composition(graphB));
+        orderInSession = Utils.getOrderInSession(history);
+    }
+
+    @Benchmark
+    public MatrixGraph<Transaction<Long, Long>> reduceEdges() {
+        return Utils.reduceEdges(graphAUnionC, orderInSession);
+    }
+
+    @Benchmark
+    public ConstraintStore<Long, Long> generateConstraintsCoalesce() {
+        return SIVerifier.generateConstraintsCoalesce(history, knownGraph);
+    }
+}
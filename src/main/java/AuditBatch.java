@@ -0,0 +1,285 @@
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import lombok.SneakyThrows;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Mixin;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.Parameters;
+import util.Profiler;
+import verifier.SIVerifier;
+
+/*
+ * Verify all histories under a directory in one JVM.
+ *
+ * Each history is verified in its own thread, so it has its own profiler.
+ * The verifier options are set before the first history and apply to all of
+ * them. A history that runs out of time is reported as TIMEOUT, and its
+ * thread is interrupted. It stops at the start of its next stage, while
+ * waiting for MonoSAT, or in the Java solver; a MonoSAT solve is limited to
+ * --timeout seconds, since it cannot be interrupted. A history keeps its slot
+ * of --jobs until it stops, so no more than --jobs histories are verified at
+ * any time.
+ *
+ * MonoSAT solvers are created and run by one history at a time, the other
+ * stages of the histories run in parallel.
+ */
+@Command(name = "audit-batch", mixinStandardHelpOptions = true, description = "Verify all histories under a directory")
+class AuditBatch implements Callable<Integer> {
+    enum Format {
+        JSONL, CSV
+    }
+
+    private static final List<String> CSV_STAGES = List.of("ENTIRE_EXPERIMENT", "ONESHOT_CONS", "SI_PRUNE",
+            "SI_SOLVER_GEN", "SI_SOLVER_SOLVE");
+
+    @Mixin
+    private VerifierOptions options;
+
+    @Option(names = { "-j", "--jobs" }, description = "number of histories verified at the same time")
+    private final Integer jobs = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+
+    @Option(names = { "--timeout" }, description = "time limit of each history in seconds, 0 for no limit. "
+            + "Each MonoSAT solve is limited to it too")
+    private final Long timeout = 0L;
+
+    @Option(names = { "--glob" }, description = "glob of history files relative to the root, by default "
+            + "history.bincode for DBCOP, *.txt for TEXT, *.edn for ELLE and *.psi for NATIVE. "
+            + "COBRA histories are directories with T*.log files")
+    private String glob;
+
+    @Option(names = { "--format" }, description = "summary format: ${COMPLETION-CANDIDATES}")
+    private final Format format = Format.JSONL;
+
+    @Option(names = { "-o", "--output" }, description = "summary file, standard output by default")
+    private final Path output = null;
+
+    @Option(names = { "--log-dir" }, description = "directory to write the output of each history to. "
+            + "It is discarded by default")
+    private final Path logDir = null;
+
+    @Parameters(description = "root directory")
+    private Path root;
+
+    // not inherited, since pool threads are shared by the jobs
+    private final ThreadLocal<PrintStream> jobOutput = new ThreadLocal<>();
+
+    private PrintWriter summary;
+
+    @Override
+    @SneakyThrows
+    public Integer call() {
+        options.apply();
+        SIVerifier.setDotOutput(false);
+        SIVerifier.setSolverTimeLimit((int) Math.min(timeout, Integer.MAX_VALUE));
+
+        var histories = findHistories();
+        System.err.printf("Found %d histories\n", histories.size());
+
+        // output of job threads goes to their logs, and other threads,
+        // including those running the parallel stages of jobs, to stderr.
+        // Only the summary goes to stdout, so that it can be parsed.
+        var stdout = System.out;
+        var stderr = System.err;
+        System.setErr(Utils.redirectByThread(jobOutput, stderr));
+        System.setOut(Utils.redirectByThread(jobOutput, stderr));
+
+        summary = new PrintWriter(output == null ? stdout : Files.newOutputStream(output), true);
+        if (format == Format.CSV) {
+            summary.printf("path,result,%s,peak_heap_bytes,error\n", String.join(",", CSV_STAGES));
+        }
+
+        var timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            var t = new Thread(r, "audit-batch-timer");
+            t.setDaemon(true);
+            return t;
+        });
+        var slots = new Semaphore(jobs);
+        var done = new CountDownLatch(histories.size());
+        var failed = new AtomicBoolean();
+        try {
+            for (var path : histories) {
+                slots.acquire();
+                var job = new Job(path, slots, done, failed);
+                var thread = new Thread(() -> job.run(timer), "audit-" + root.relativize(path));
+                thread.setDaemon(true);
+                job.thread = thread;
+                thread.start();
+            }
+            done.await();
+        } finally {
+            timer.shutdownNow();
+            System.setOut(stdout);
+            System.setErr(stderr);
+            summary.flush();
+            if (output != null) {
+                summary.close();
+            }
+        }
+
+        return failed.get() ? -1 : 0;
+    }
+
+    private class Job {
+        private final Path path;
+        private final Semaphore slots;
+        private final CountDownLatch done;
+        private final AtomicBoolean failed;
+        private final AtomicBoolean reported = new AtomicBoolean();
+        private Thread thread;
+        private volatile Profiler profiler;
+
+        Job(Path path, Semaphore slots, CountDownLatch done, AtomicBoolean failed) {
+            this.path = path;
+            this.slots = slots;
+            this.done = done;
+            this.failed = failed;
+        }
+
+        void run(ScheduledExecutorService timer) {
+            profiler = Profiler.getInstance();
+            var timeoutTask = timeout > 0 ? timer.schedule(this::timeout, timeout, TimeUnit.SECONDS) : null;
+            try (var log = openLog()) {
+                jobOutput.set(log);
+                var pass = options.audit(path, profiler);
+                report(pass ? "ACCEPT" : "REJECT", null);
+            } catch (Throwable e) {
+                report("ERROR", e.toString());
+            } finally {
+                if (timeoutTask != null) {
+                    timeoutTask.cancel(false);
+                }
+                jobOutput.remove();
+                Profiler.removeInstance();
+                slots.release();
+            }
+        }
+
+        private void timeout() {
+            if (report("TIMEOUT", String.format("exceeded %ds", timeout))) {
+                thread.interrupt();
+            }
+        }
+
+        /*
+         * Write the summary of this history, unless it is already written
+         *
+         * @return true if it is written
+         */
+        private boolean report(String result, String error) {
+            if (!reported.compareAndSet(false, true)) {
+                return false;
+            }
+
+            if (!result.equals("ACCEPT")) {
+                failed.set(true);
+            }
+            writeSummary(path, result, error, profiler);
+            done.countDown();
+            return true;
+        }
+
+        @SneakyThrows
+        private PrintStream openLog() {
+            if (logDir == null) {
+                return new PrintStream(OutputStream.nullOutputStream());
+            }
+
+            var file = logDir.resolve(root.relativize(path) + ".log");
+            Files.createDirectories(file.getParent());
+            return new PrintStream(new BufferedOutputStream(new FileOutputStream(file.toFile())), true);
+        }
+    }
+
+    private void writeSummary(Path path, String result, String error, Profiler profiler) {
+        var stage = profiler.getStage("ENTIRE_EXPERIMENT");
+        var peakHeap = stage == null ? 0 : stage.getPeakHeapBytes();
+
+        String line;
+        if (format == Format.CSV) {
+            var times = CSV_STAGES.stream().map(s -> String.valueOf(profiler.getTime(s)))
+                    .collect(Collectors.joining(","));
+            line = String.format("%s,%s,%s,%d,%s", csvString(path.toString()), result, times, peakHeap,
+                    error == null ? "" : csvString(error));
+        } else {
+            line = String.format("{\"path\": %s, \"result\": \"%s\", \"error\": %s, %s, \"peakHeapBytes\": %d}",
+                    Utils.jsonString(path.toString()), result, Utils.jsonString(error), Utils.profileJson(profiler),
+                    peakHeap);
+        }
+
+        synchronized (summary) {
+            summary.println(line);
+        }
+    }
+
+    /*
+     * History files, or directories for COBRA, sorted by path
+     */
+    @SneakyThrows
+    private List<Path> findHistories() {
+        if (options.type == HistoryType.COBRA && glob == null) {
+            try (var paths = Files.walk(root)) {
+                return paths.filter(Files::isDirectory).filter(AuditBatch::hasCobraLogs).sorted()
+                        .collect(Collectors.toList());
+            }
+        }
+
+        var pattern = glob;
+        if (pattern == null) {
+            switch (options.type) {
+            case DBCOP:
+                pattern = "history.bincode";
+                break;
+            case TEXT:
+                pattern = "*.txt";
+                break;
+            case ELLE:
+                pattern = "*.edn";
+                break;
+            default:
+                pattern = "*.psi";
+                break;
+            }
+        }
+
+        // patterns without a directory match file names at any depth
+        var matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+        var byName = !pattern.contains("/");
+        try (var paths = Files.walk(root)) {
+            return paths.filter(p -> !p.equals(root))
+                    .filter(p -> matcher.matches(byName ? p.getFileName() : root.relativize(p)))
+                    .filter(p -> options.type == HistoryType.COBRA ? Files.isDirectory(p) : Files.isRegularFile(p))
+                    .sorted().collect(Collectors.toList());
+        }
+    }
+
+    @SneakyThrows
+    private static boolean hasCobraLogs(Path dir) {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.anyMatch(f -> {
+                var name = f.getFileName().toString();
+                return name.startsWith("T") && name.endsWith(".log") && Files.isRegularFile(f);
+            });
+        }
+    }
+
+    private static String csvString(String s) {
+        return "\"" + s.replace("\"", "\"\"").replace('\n', ' ') + "\"";
+    }
+}
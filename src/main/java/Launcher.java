@@ -1,11 +1,130 @@
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.jar.JarFile;
+
 import com.jdotsoft.jarloader.JarClassLoader;
 
 import lombok.SneakyThrows;
 
+/*
+ * Starts Main so that MonoSAT's native library can be found.
+ *
+ * If the library is on java.library.path, as with tools/polysi, Main runs from
+ * the application class path, which lets class data sharing work. Otherwise
+ * the library is extracted from the jar once to a cache directory named by its
+ * checksum, and the jar is loaded by a class loader that finds it there. If
+ * the cache cannot be written, or with -Dpolysi.launcher=jarloader,
+ * JarClassLoader is used, which extracts the library on every launch.
+ */
 public class Launcher {
+    private static final String LIBRARY = "monosat";
+
     @SneakyThrows
     public static void main(String[] args) {
-        var loader = new JarClassLoader();
-        loader.invokeMain("Main", args);
+        var jar = jarPath();
+        if (jar == null || isOnLibraryPath()) {
+            Main.main(args);
+            return;
+        }
+
+        var library = "jarloader".equals(System.getProperty("polysi.launcher")) ? null : extractLibrary(jar);
+        if (library == null) {
+            var loader = new JarClassLoader();
+            loader.invokeMain("Main", args);
+            return;
+        }
+
+        var loader = new URLClassLoader(new URL[] { jar.toUri().toURL() }, ClassLoader.getPlatformClassLoader()) {
+            @Override
+            protected String findLibrary(String name) {
+                return name.equals(LIBRARY) ? library.toString() : super.findLibrary(name);
+            }
+        };
+        Thread.currentThread().setContextClassLoader(loader);
+        try {
+            loader.loadClass("Main").getMethod("main", String[].class).invoke(null, (Object) args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /*
+     * @return the jar this class is loaded from, or null if it is not in a jar
+     */
+    @SneakyThrows
+    private static Path jarPath() {
+        var source = Launcher.class.getProtectionDomain().getCodeSource();
+        if (source == null) {
+            return null;
+        }
+
+        var path = Path.of(source.getLocation().toURI());
+        return Files.isRegularFile(path) ? path : null;
+    }
+
+    private static boolean isOnLibraryPath() {
+        var name = System.mapLibraryName(LIBRARY);
+        for (var dir : System.getProperty("java.library.path", "").split(File.pathSeparator)) {
+            if (!dir.isEmpty() && Files.isRegularFile(Path.of(dir, name))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Path cacheDirectory() {
+        var dir = System.getProperty("polysi.cache");
+        if (dir != null) {
+            return Path.of(dir);
+        }
+
+        var xdgCache = System.getenv("XDG_CACHE_HOME");
+        return xdgCache != null && !xdgCache.isEmpty() ? Path.of(xdgCache, "polysi")
+                : Path.of(System.getProperty("user.home"), ".cache", "polysi");
+    }
+
+    /*
+     * Extract the library unless it is already in the cache. The directory is
+     * named by the CRC-32 and size of the library recorded in the jar, so jars
+     * with the same library share it, and reading them costs nothing.
+     *
+     * @return the library, or null if it cannot be cached
+     */
+    private static Path extractLibrary(Path jar) {
+        var name = System.mapLibraryName(LIBRARY);
+        try (var jarFile = new JarFile(jar.toFile())) {
+            var entry = jarFile.getJarEntry(name);
+            if (entry == null || entry.getCrc() < 0 || entry.getSize() < 0) {
+                return null;
+            }
+
+            var dir = cacheDirectory().resolve(String.format("%s-%08x-%d", LIBRARY, entry.getCrc(), entry.getSize()));
+            var library = dir.resolve(name);
+            if (Files.isRegularFile(library) && Files.size(library) == entry.getSize()) {
+                return library;
+            }
+
+            // other launches may extract it at the same time, so it is renamed
+            // into place
+            Files.createDirectories(dir);
+            var tmp = Files.createTempFile(dir, name, ".tmp");
+            try {
+                try (var in = jarFile.getInputStream(entry)) {
+                    Files.copy(in, tmp, StandardCopyOption.REPLACE_EXISTING);
+                }
+                Files.move(tmp, library, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+            return library;
+        } catch (IOException e) {
+            return null;
+        }
     }
 }
@@ -1,9 +1,14 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.concurrent.Callable;
 import java.util.stream.Collectors;
 
+import graph.MatrixGraph;
+import history.CompactHistory;
 import history.Event;
 import history.Event.EventType;
 import history.History;
@@ -11,24 +16,31 @@ import history.HistoryLoader;
 import history.HistoryParser;
 import history.HistoryTransformer;
 import history.Transaction;
+import history.generators.HistoryGenerator;
 import history.loaders.CobraHistoryLoader;
 import history.loaders.DBCopHistoryLoader;
 import history.loaders.ElleHistoryLoader;
+import history.loaders.NativeHistoryLoader;
 import history.loaders.TextHistoryLoader;
 import history.transformers.Identity;
 import history.transformers.SnapshotIsolationToSerializable;
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
 import lombok.SneakyThrows;
 import picocli.CommandLine;
 import picocli.CommandLine.Command;
+import picocli.CommandLine.Mixin;
 import picocli.CommandLine.Option;
 import picocli.CommandLine.Parameters;
 import util.Profiler;
 import util.UnimplementedError;
+import verifier.ArtifactCache;
+import verifier.InternalConsistency;
 import verifier.Pruning;
 import verifier.SIVerifier;
 
 @Command(name = "verifier", mixinStandardHelpOptions = true, version = "verifier 0.0.1", subcommands = { Audit.class,
-        Convert.class, Stat.class, Dump.class })
+        AuditBatch.class, Serve.class, Convert.class, Stat.class, Dump.class, Generate.class })
 public class Main implements Callable<Integer> {
     @SneakyThrows
     public static void main(String[] args) {
@@ -44,20 +56,105 @@ public class Main implements Callable<Integer> {
     }
 }
 
-@Command(name = "audit", mixinStandardHelpOptions = true, description = "Verify a history")
-class Audit implements Callable<Integer> {
+/*
+ * Options shared by audit and audit-batch
+ */
+class VerifierOptions {
     @Option(names = { "-t", "--type" }, description = "history type: ${COMPLETION-CANDIDATES}")
-    private final HistoryType type = HistoryType.COBRA;
+    final HistoryType type = HistoryType.COBRA;
 
     @Option(names = { "--no-pruning" }, description = "disable pruning")
-    private final Boolean noPruning = false;
+    final Boolean noPruning = false;
 
     @Option(names = { "--no-coalescing" }, description = "disable coalescing")
-    private final Boolean noCoalescing = false;
+    final Boolean noCoalescing = false;
+
+    @Option(names = { "--fail-fast" }, description = "stop internal consistency checking at the first violation")
+    final Boolean failFast = false;
+
+    @Option(names = { "--solver" }, description = "solver of constraints: ${COMPLETION-CANDIDATES}. "
+            + "MONOSAT_PAIRS gives MonoSAT one literal per edge between two transactions. JAVA does not need MonoSAT")
+    private final SIVerifier.SolverType solver = SIVerifier.SolverType.MONOSAT;
+
+    @Option(names = { "--components" }, description = "solve each strongly connected component of the constraints "
+            + "with its own solver, in parallel with the JAVA solver. With MONOSAT and MONOSAT_PAIRS, "
+            + "components are solved one after another, since running MonoSAT in parallel is not supported")
+    private final Boolean components = false;
+
+    @Option(names = { "--compact-history" }, description = "store the history in primitive arrays to reduce memory usage")
+    private final Boolean compactHistory = false;
+
+    @Option(names = { "--threads" }, description = "number of threads used to compute reachability, prune constraints and solve components")
+    private final Integer threads = Runtime.getRuntime().availableProcessors();
+
+    @Option(names = { "--matrix-storage" }, description = "row storage of reachability matrices: ${COMPLETION-CANDIDATES}")
+    private final MatrixGraph.Storage matrixStorage = MatrixGraph.Storage.AUTO;
+
+    @Option(names = { "--cache-dir" }, description = "directory to cache known graphs and pruned constraints in")
+    private final Path cacheDir = null;
+
+    @Option(names = { "--cache-size" }, description = "maximum size of the cache directory in MB")
+    private final Long cacheSize = 4096L;
+
+    private ArtifactCache cache;
+
+    /*
+     * Set the static flags of the verifier. They must not change while
+     * histories are being verified.
+     */
+    void apply() {
+        Pruning.setEnablePruning(!noPruning);
+        SIVerifier.setCoalesceConstraints(!noCoalescing);
+        InternalConsistency.setStopOnFirstViolation(failFast);
+        SIVerifier.setSolverType(solver);
+        SIVerifier.setSplitComponents(components);
+        CompactHistory.setEnabled(compactHistory);
+        MatrixGraph.setParallelism(threads);
+        MatrixGraph.setStorage(matrixStorage);
+
+        if (cacheDir != null) {
+            cache = new ArtifactCache(cacheDir, cacheSize * 1024 * 1024);
+        }
+    }
+
+    /*
+     * Verify a history, with its time recorded as ENTIRE_EXPERIMENT
+     */
+    boolean audit(Path path, Profiler profiler) {
+        profiler.startTick("ENTIRE_EXPERIMENT");
+        var pass = createVerifier(type, path).audit();
+        profiler.endTick("ENTIRE_EXPERIMENT");
+
+        return pass;
+    }
+
+    /*
+     * Load a history into a verifier using the cache
+     */
+    SIVerifier<?, ?> createVerifier(HistoryType type, Path path) {
+        var verifier = new SIVerifier<>(Utils.getLoader(type, path));
+        if (cache != null) {
+            verifier.setArtifactCache(cache);
+            verifier.setInputDigest(ArtifactCache.digest(type.name(), path));
+        }
+        return verifier;
+    }
+}
+
+@Command(name = "audit", mixinStandardHelpOptions = true, description = "Verify a history")
+class Audit implements Callable<Integer> {
+    @Mixin
+    private VerifierOptions options;
 
     @Option(names = { "--dot-output" }, description = "print conflicts in dot format")
     private final Boolean dotOutput = false;
 
+    @Option(names = { "--report-json" }, description = "write time, memory and sizes of each stage to a JSON file")
+    private final Path reportJson = null;
+
+    @Option(names = { "--jfr" }, description = "record the audit with Java Flight Recorder's low overhead settings to a file")
+    private final Path jfrOutput = null;
+
     @Parameters(description = "history path")
     private Path path;
 
@@ -65,23 +162,29 @@ class Audit implements Callable<Integer> {
 
     @Override
     public Integer call() {
-        var loader = Utils.getLoader(type, path);
-
-        Pruning.setEnablePruning(!noPruning);
-        SIVerifier.setCoalesceConstraints(!noCoalescing);
+        options.apply();
         SIVerifier.setDotOutput(dotOutput);
 
-        profiler.startTick("ENTIRE_EXPERIMENT");
-        var pass = true;
-        var verifier = new SIVerifier<>(loader);
-        pass = verifier.audit();
-        profiler.endTick("ENTIRE_EXPERIMENT");
+        // the recording is written even if the audit fails
+        var recording = jfrOutput == null ? null : Utils.startRecording(jfrOutput);
+        boolean pass;
+        try {
+            pass = options.audit(path, profiler);
+        } finally {
+            if (recording != null) {
+                Utils.stopRecording(recording);
+            }
+        }
 
         for (var p : profiler.getDurations()) {
             System.err.printf("%s: %dms\n", p.getKey(), p.getValue());
         }
         System.err.printf("Max memory: %s\n", Utils.formatMemory(profiler.getMaxMemory()));
 
+        if (reportJson != null) {
+            Utils.writeReport(reportJson, pass, profiler);
+        }
+
         if (pass) {
             System.err.println("[[[[ ACCEPT ]]]]");
             return 0;
@@ -230,6 +333,62 @@ class Dump implements Callable<Integer> {
 
 }
 
+@Command(name = "generate", mixinStandardHelpOptions = true, description = "Generate a synthetic history")
+class Generate implements Callable<Integer> {
+    @Option(names = { "-t", "--type" }, description = "output history type: ${COMPLETION-CANDIDATES}")
+    private final HistoryType type = HistoryType.DBCOP;
+
+    @Option(names = { "--sessions" }, description = "number of sessions")
+    private final Integer sessions = 10;
+
+    @Option(names = { "--txns" }, description = "number of transactions per session")
+    private final Integer transactions = 100;
+
+    @Option(names = { "--ops" }, description = "number of operations per transaction")
+    private final Integer ops = 8;
+
+    @Option(names = { "--keys" }, description = "number of keys")
+    private final Integer keys = 1000;
+
+    @Option(names = { "--read-ratio" }, description = "probability of an operation being a read")
+    private final Double readRatio = 0.5;
+
+    @Option(names = { "--distribution" }, description = "key distribution: ${COMPLETION-CANDIDATES}")
+    private final HistoryGenerator.KeyDistribution distribution = HistoryGenerator.KeyDistribution.UNIFORM;
+
+    @Option(names = { "--anomaly" }, description = "anomaly to inject: ${COMPLETION-CANDIDATES}. WRITE_SKEW is allowed by SI")
+    private final HistoryGenerator.Anomaly anomaly = null;
+
+    @Option(names = { "--anomalies" }, description = "number of anomalies to inject")
+    private final Integer anomalies = 1;
+
+    @Option(names = { "--seed" }, description = "random seed")
+    private final Long seed = 0L;
+
+    @Parameters(description = "output history path")
+    private Path path;
+
+    @Override
+    @SneakyThrows
+    public Integer call() {
+        var out = Utils.getLoader(type, path);
+        if (!(out instanceof HistoryParser)) {
+            throw new RuntimeException(String.format("Generation not supported for %s", out.getClass().getName()));
+        }
+
+        var generator = new HistoryGenerator(sessions, transactions, ops, keys, readRatio, distribution, anomaly,
+                anomalies, seed);
+        try (var stream = ((HistoryParser<?, ?>) out).openStream()) {
+            var injected = generator.generate(stream);
+            if (anomaly != null && injected < anomalies) {
+                System.err.printf("Only %d anomalies injected\n", injected);
+            }
+        }
+
+        return 0;
+    }
+}
+
 class Utils {
     static HistoryLoader<?, ?> getLoader(HistoryType type, Path path) {
         switch (type) {
@@ -241,6 +400,8 @@ class Utils {
             return new TextHistoryLoader(path);
         case ELLE:
             return new ElleHistoryLoader(path);
+        case NATIVE:
+            return new NativeHistoryLoader(path);
         default:
             throw new UnimplementedError();
         }
@@ -258,6 +419,89 @@ class Utils {
         }
     }
 
+    /*
+     * Start a recording with the "default" settings, which JFR designs for
+     * continuous use in production
+     */
+    @SneakyThrows
+    static Recording startRecording(Path path) {
+        var recording = new Recording(Configuration.getConfiguration("default"));
+        recording.setDestination(path);
+        recording.start();
+        return recording;
+    }
+
+    static void stopRecording(Recording recording) {
+        // the recording is written to its destination when stopped
+        recording.stop();
+        recording.close();
+    }
+
+    @SneakyThrows
+    static void writeReport(Path path, boolean pass, Profiler profiler) {
+        Files.writeString(path, String.format("{\"result\": \"%s\", \"profile\": %s}\n", pass ? "ACCEPT" : "REJECT",
+                profiler.toJson()));
+    }
+
+    /*
+     * A stream that writes to the target of the current thread, or to
+     * fallback if the thread has none
+     */
+    static PrintStream redirectByThread(ThreadLocal<PrintStream> targets, PrintStream fallback) {
+        return new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+                var out = targets.get();
+                (out != null ? out : fallback).write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                var out = targets.get();
+                (out != null ? out : fallback).write(b, off, len);
+            }
+        }, true);
+    }
+
+    /*
+     * Durations in ms and counts of a profiler as JSON members
+     */
+    static String profileJson(Profiler profiler) {
+        var stages = profiler.getDurations().stream().map(p -> String.format("\"%s\": %d", p.getKey(), p.getValue()))
+                .collect(Collectors.joining(", "));
+        var counts = profiler.getCounts().entrySet().stream()
+                .map(e -> String.format("\"%s\": %d", e.getKey(), e.getValue())).collect(Collectors.joining(", "));
+        return String.format("\"stageMs\": {%s}, \"counts\": {%s}", stages, counts);
+    }
+
+    static String jsonString(String s) {
+        if (s == null) {
+            return "null";
+        }
+
+        var sb = new StringBuilder("\"");
+        for (var c : s.toCharArray()) {
+            switch (c) {
+            case '"':
+                sb.append("\\\"");
+                break;
+            case '\\':
+                sb.append("\\\\");
+                break;
+            case '\n':
+                sb.append("\\n");
+                break;
+            default:
+                if (c < 0x20) {
+                    sb.append(String.format("\\u%04x", (int) c));
+                } else {
+                    sb.append(c);
+                }
+            }
+        }
+        return sb.append('"').toString();
+    }
+
     static String formatMemory(Long memoryBytes) {
         double[] scale = { 1, 1024, 1024 * 1024, 1024 * 1024 * 1024 };
         String[] unit = { "B", "KB", "MB", "GB" };
@@ -272,7 +516,7 @@ class Utils {
 }
 
 enum HistoryType {
-    COBRA, DBCOP, TEXT, ELLE
+    COBRA, DBCOP, TEXT, ELLE, NATIVE
 }
 
 enum HistoryTransformation {
@@ -0,0 +1,345 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import history.generators.HistoryGenerator;
+import history.loaders.DBCopHistoryLoader;
+import lombok.Data;
+import lombok.SneakyThrows;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Mixin;
+import picocli.CommandLine.Option;
+import util.Profiler;
+import verifier.InternalConsistency;
+import verifier.Pruning;
+import verifier.SIVerifier;
+
+/*
+ * Verify histories sent over HTTP on the loopback interface, so that many
+ * small histories share one warm JVM.
+ *
+ * POST /audit?type=<type>&path=<path> verifies a history on the local file
+ * system. Without path, the request body is the history. Options
+ * pruning, coalescing and fail-fast (true or false) override those given to
+ * serve, and log=true returns the output of the verifier. Other options are
+ * those given to serve.
+ *
+ * GET /stats returns queue depth and throughput counters.
+ *
+ * Pruning, coalescing and fail-fast are static flags of the verifier, so
+ * requests with different values of them do not run at the same time.
+ * MonoSAT solvers are created and run by one worker at a time. Output of the
+ * threads running parallel stages goes to stderr.
+ */
+@Command(name = "serve", mixinStandardHelpOptions = true, description = "Verify histories sent over HTTP on the loopback interface")
+class Serve implements Callable<Integer> {
+    @Mixin
+    private VerifierOptions options;
+
+    @Option(names = { "-p", "--port" }, description = "port to listen on, 0 for any free port")
+    private final Integer port = 7070;
+
+    @Option(names = { "-j", "--jobs" }, description = "number of histories verified at the same time")
+    private final Integer jobs = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+
+    @Option(names = { "--max-queue" }, description = "number of requests waiting for a worker before new ones are refused")
+    private final Integer maxQueue = 1024;
+
+    @Option(names = { "--no-warmup" }, description = "do not verify a generated history at startup")
+    private final Boolean noWarmup = false;
+
+    // not inherited, since pool threads are shared by the requests
+    private final ThreadLocal<PrintStream> jobOutput = new ThreadLocal<>();
+
+    private ThreadPoolExecutor workers;
+    private long startTime;
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong refused = new AtomicLong();
+    private final AtomicLong busyNanos = new AtomicLong();
+
+    // flags of the running requests
+    private Flags current;
+    private int running;
+    private int switching;
+
+    @Data
+    private static class Flags {
+        private final boolean pruning;
+        private final boolean coalescing;
+        private final boolean failFast;
+    }
+
+    @Data
+    private static class Result {
+        private final int status;
+        private final String body;
+    }
+
+    @Override
+    @SneakyThrows
+    public Integer call() {
+        options.apply();
+        SIVerifier.setDotOutput(false);
+
+        System.setErr(Utils.redirectByThread(jobOutput, System.err));
+        System.setOut(Utils.redirectByThread(jobOutput, System.out));
+
+        workers = new ThreadPoolExecutor(jobs, jobs, 0, TimeUnit.SECONDS, new ArrayBlockingQueue<>(maxQueue), r -> {
+            var t = new Thread(r, "serve-worker");
+            t.setDaemon(true);
+            return t;
+        });
+
+        if (!noWarmup) {
+            warmup();
+            accepted.set(0);
+            rejected.set(0);
+            errors.set(0);
+        }
+
+        var server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.setExecutor(Executors.newCachedThreadPool(r -> {
+            var t = new Thread(r, "serve-http");
+            t.setDaemon(true);
+            return t;
+        }));
+        server.createContext("/audit", this::handleAudit);
+        server.createContext("/stats", this::handleStats);
+        startTime = System.nanoTime();
+        server.start();
+        System.err.printf("Listening on http://%s:%d\n", server.getAddress().getHostString(),
+                server.getAddress().getPort());
+
+        new CountDownLatch(1).await();
+        return 0;
+    }
+
+    /*
+     * Verify a small generated history, which loads MonoSAT and compiles the
+     * hot paths before the first request
+     */
+    @SneakyThrows
+    private void warmup() {
+        var path = Files.createTempFile("polysi-warmup", ".bincode");
+        try {
+            try (var out = new DBCopHistoryLoader(path).openStream()) {
+                new HistoryGenerator(8, 100, 8, 200, 0.5, HistoryGenerator.KeyDistribution.ZIPFIAN,
+                        HistoryGenerator.Anomaly.LOST_UPDATE, 1, 0).generate(out);
+            }
+
+            var begin = System.nanoTime();
+            workers.submit(() -> audit(HistoryType.DBCOP, path, defaultFlags(), false)).get();
+            System.err.printf("Warmed up in %dms\n", (System.nanoTime() - begin) / 1_000_000);
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    private Flags defaultFlags() {
+        return new Flags(!options.noPruning, !options.noCoalescing, options.failFast);
+    }
+
+    private void handleAudit(HttpExchange exchange) throws IOException {
+        Result result;
+        Path upload = null;
+        try {
+            if (!exchange.getRequestMethod().equals("POST")) {
+                result = error(405, "use POST");
+            } else {
+                var params = parseQuery(exchange.getRequestURI().getRawQuery());
+                var type = HistoryType.valueOf(params.getOrDefault("type", options.type.name()).toUpperCase());
+                var defaults = defaultFlags();
+                var flags = new Flags(parseBoolean(params, "pruning", defaults.pruning),
+                        parseBoolean(params, "coalescing", defaults.coalescing),
+                        parseBoolean(params, "fail-fast", defaults.failFast));
+                var log = parseBoolean(params, "log", false);
+
+                Path path;
+                if (params.containsKey("path")) {
+                    path = Path.of(params.get("path"));
+                } else if (type == HistoryType.COBRA) {
+                    throw new IllegalArgumentException("COBRA histories are directories and can only be sent as paths");
+                } else {
+                    upload = Files.createTempFile("polysi-upload", null);
+                    try (var body = exchange.getRequestBody()) {
+                        Files.copy(body, upload, StandardCopyOption.REPLACE_EXISTING);
+                    }
+                    path = upload;
+                }
+
+                var queued = System.nanoTime();
+                var historyPath = path;
+                result = workers.submit(() -> {
+                    var begin = System.nanoTime();
+                    var r = audit(type, historyPath, flags, log);
+                    busyNanos.addAndGet(System.nanoTime() - begin);
+                    return r;
+                }).get();
+                System.err.printf("%s %s in %dms\n", path, result.status,
+                        (System.nanoTime() - queued) / 1_000_000);
+            }
+        } catch (IllegalArgumentException e) {
+            result = error(400, e.getMessage());
+        } catch (RejectedExecutionException e) {
+            refused.incrementAndGet();
+            result = error(503, "queue is full");
+        } catch (InterruptedException | ExecutionException e) {
+            errors.incrementAndGet();
+            result = error(500, e.toString());
+        } finally {
+            exchange.getRequestBody().close();
+        }
+
+        try {
+            respond(exchange, result);
+        } finally {
+            if (upload != null) {
+                Files.deleteIfExists(upload);
+            }
+        }
+    }
+
+    private void handleStats(HttpExchange exchange) throws IOException {
+        var uptime = System.nanoTime() - startTime;
+        var completed = accepted.get() + rejected.get() + errors.get();
+        respond(exchange, new Result(200, String.format(
+                "{\"queued\": %d, \"running\": %d, \"workers\": %d, \"completed\": %d, \"accepted\": %d, "
+                        + "\"rejected\": %d, \"errors\": %d, \"refused\": %d, \"uptimeMs\": %d, "
+                        + "\"completedPerSecond\": %.3f, \"busyMs\": %d}\n",
+                workers.getQueue().size(), workers.getActiveCount(), jobs, completed, accepted.get(), rejected.get(),
+                errors.get(), refused.get(), uptime / 1_000_000, completed / (uptime / 1e9),
+                busyNanos.get() / 1_000_000)));
+    }
+
+    /*
+     * Runs on a worker thread, which has its own profiler
+     */
+    private Result audit(HistoryType type, Path path, Flags flags, boolean log) throws InterruptedException {
+        var profiler = Profiler.getInstance();
+        profiler.clear();
+        var output = new ByteArrayOutputStream();
+        jobOutput.set(log ? new PrintStream(output, true) : new PrintStream(OutputStream.nullOutputStream()));
+
+        enter(flags);
+        try {
+            profiler.startTick("ENTIRE_EXPERIMENT");
+            var verifier = options.createVerifier(type, path);
+            var pass = verifier.audit();
+            profiler.endTick("ENTIRE_EXPERIMENT");
+
+            (pass ? accepted : rejected).incrementAndGet();
+            return new Result(200, String.format("{\"result\": \"%s\", \"conflicts\": %s, %s, \"log\": %s}\n",
+                    pass ? "ACCEPT" : "REJECT", Utils.jsonString(verifier.getConflicts()),
+                    Utils.profileJson(profiler), log ? Utils.jsonString(output.toString()) : "null"));
+        } catch (RuntimeException | Error e) {
+            errors.incrementAndGet();
+            return new Result(500, String.format("{\"result\": \"ERROR\", \"error\": %s, %s, \"log\": %s}\n",
+                    Utils.jsonString(e.toString()), Utils.profileJson(profiler),
+                    log ? Utils.jsonString(output.toString()) : "null"));
+        } finally {
+            exit();
+            jobOutput.remove();
+        }
+    }
+
+    /*
+     * Wait until no request with other flags is running, then set the flags.
+     * Once a request is waiting for other flags, new requests with the current
+     * flags wait too, so it is not starved.
+     */
+    private synchronized void enter(Flags flags) throws InterruptedException {
+        var waited = false;
+        while (running > 0 && (!flags.equals(current) || (switching > 0 && !waited))) {
+            if (!waited && !flags.equals(current)) {
+                switching++;
+                waited = true;
+            }
+            wait();
+        }
+        if (waited) {
+            switching--;
+        }
+
+        if (!flags.equals(current)) {
+            Pruning.setEnablePruning(flags.pruning);
+            SIVerifier.setCoalesceConstraints(flags.coalescing);
+            InternalConsistency.setStopOnFirstViolation(flags.failFast);
+            current = flags;
+        }
+        running++;
+    }
+
+    private synchronized void exit() {
+        if (--running == 0) {
+            notifyAll();
+        }
+    }
+
+    private static Result error(int status, String message) {
+        return new Result(status,
+                String.format("{\"result\": \"ERROR\", \"error\": %s}\n", Utils.jsonString(message)));
+    }
+
+    private static void respond(HttpExchange exchange, Result result) throws IOException {
+        var body = result.body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(result.status, body.length);
+        try (var out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static Map<String, String> parseQuery(String query) {
+        var params = new HashMap<String, String>();
+        if (query == null || query.isEmpty()) {
+            return params;
+        }
+
+        for (var param : query.split("&")) {
+            var i = param.indexOf('=');
+            var key = i < 0 ? param : param.substring(0, i);
+            var value = i < 0 ? "" : param.substring(i + 1);
+            params.put(URLDecoder.decode(key, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return params;
+    }
+
+    private static boolean parseBoolean(Map<String, String> params, String name, boolean defaultValue) {
+        if (!params.containsKey(name)) {
+            return defaultValue;
+        }
+
+        switch (params.get(name)) {
+        case "true":
+            return true;
+        case "false":
+            return false;
+        default:
+            throw new IllegalArgumentException(String.format("%s must be true or false", name));
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package graph;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * A row stored as a plain bit array, one bit per node
+ */
+class DenseRow extends Row {
+    private static final int LONG_BITS = 64;
+
+    private final long[] words;
+
+    DenseRow(int size) {
+        words = new long[(size + LONG_BITS - 1) / LONG_BITS];
+    }
+
+    @Override
+    boolean contains(int j) {
+        return (words[j / LONG_BITS] & (1L << (j % LONG_BITS))) != 0;
+    }
+
+    @Override
+    void add(int j) {
+        words[j / LONG_BITS] |= (1L << (j % LONG_BITS));
+    }
+
+    @Override
+    void remove(int j) {
+        words[j / LONG_BITS] &= ~(1L << (j % LONG_BITS));
+    }
+
+    @Override
+    void or(Row other) {
+        if (other instanceof DenseRow) {
+            var otherWords = ((DenseRow) other).words;
+            for (int k = 0; k < words.length; k++) {
+                words[k] |= otherWords[k];
+            }
+        } else {
+            other.forEach(this::add);
+        }
+    }
+
+    @Override
+    int cardinality() {
+        var n = 0;
+        for (var w : words) {
+            n += Long.bitCount(w);
+        }
+        return n;
+    }
+
+    @Override
+    void forEach(IntConsumer consumer) {
+        for (int k = 0; k < words.length; k++) {
+            for (var w = words[k]; w != 0; w &= w - 1) {
+                consumer.accept(k * LONG_BITS + Long.numberOfTrailingZeros(w));
+            }
+        }
+    }
+
+    @Override
+    IntStream stream() {
+        var builder = IntStream.builder();
+        forEach(builder::add);
+        return builder.build();
+    }
+
+    @Override
+    boolean isDense() {
+        return true;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj instanceof DenseRow) {
+            return Arrays.equals(words, ((DenseRow) obj).words);
+        }
+        return super.equals(obj);
+    }
+
+    @Override
+    public int hashCode() {
+        return super.hashCode();
+    }
+}
@@ -0,0 +1,273 @@
+package graph;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+import util.IntList;
+
+/**
+ * A directed graph on nodes 0..n-1 that keeps a topological order of its
+ * nodes as edges are added, using the algorithm of Pearce and Kelly (A Dynamic
+ * Topological Sort Algorithm for Directed Acyclic Graphs). Adding an edge only
+ * reorders the nodes between its endpoints in the current order.
+ *
+ * Removing edges keeps the order valid. Edges must be removed in the reverse
+ * order they are added, as in backtracking search.
+ */
+public class IncrementalTopologicalOrder {
+    private final IntList[] successors;
+    private final IntList[] predecessors;
+
+    // order[node] is the position of node in the order
+    private final int[] order;
+
+    // state of the searches in addEdge
+    private final int[] visited;
+    private final int[] parent;
+    private int visitMark;
+
+    public IncrementalTopologicalOrder(int nodeCount) {
+        successors = new IntList[nodeCount];
+        predecessors = new IntList[nodeCount];
+        order = new int[nodeCount];
+        visited = new int[nodeCount];
+        parent = new int[nodeCount];
+        for (int i = 0; i < nodeCount; i++) {
+            successors[i] = new IntList();
+            predecessors[i] = new IntList();
+            order[i] = i;
+        }
+    }
+
+    public int nodeCount() {
+        return order.length;
+    }
+
+    public int order(int node) {
+        return order[node];
+    }
+
+    public IntList successors(int node) {
+        return successors[node];
+    }
+
+    /*
+     * Add an edge without updating the order. Call sort() after adding edges
+     * in bulk.
+     */
+    public void addEdgeUnordered(int from, int to) {
+        successors[from].add(to);
+        predecessors[to].add(from);
+    }
+
+    /*
+     * Compute the order from scratch
+     *
+     * @return null, or the nodes [n0, ..., nk] of a cycle n0 -> ... -> nk -> n0
+     * if the graph is not acyclic
+     */
+    public IntList sort() {
+        var n = order.length;
+        var inDegree = new int[n];
+        for (int i = 0; i < n; i++) {
+            inDegree[i] = predecessors[i].size();
+        }
+
+        var queue = new ArrayDeque<Integer>();
+        for (int i = 0; i < n; i++) {
+            if (inDegree[i] == 0) {
+                queue.add(i);
+            }
+        }
+
+        var position = 0;
+        while (!queue.isEmpty()) {
+            int node = queue.poll();
+            order[node] = position++;
+            var succ = successors[node];
+            for (int i = 0; i < succ.size(); i++) {
+                if (--inDegree[succ.get(i)] == 0) {
+                    queue.add(succ.get(i));
+                }
+            }
+        }
+
+        if (position == n) {
+            return null;
+        }
+
+        // every node left has a predecessor left, so walking back from one of
+        // them reaches a cycle
+        var node = 0;
+        while (inDegree[node] == 0) {
+            node++;
+        }
+        newVisitMark();
+        while (visited[node] != visitMark) {
+            visited[node] = visitMark;
+            var pred = predecessors[node];
+            for (int i = 0; i < pred.size(); i++) {
+                if (inDegree[pred.get(i)] > 0) {
+                    parent[node] = pred.get(i);
+                    node = pred.get(i);
+                    break;
+                }
+            }
+        }
+
+        var reversed = new IntList();
+        var start = node;
+        do {
+            reversed.add(node);
+            node = parent[node];
+        } while (node != start);
+        return reverse(reversed);
+    }
+
+    /*
+     * Add an edge and update the order. If the edge closes a cycle, the edge is
+     * still added, and the order is not valid until it is removed.
+     *
+     * @return null, or the nodes [to, ..., from] of a cycle closed by the edge
+     */
+    public IntList addEdge(int from, int to) {
+        addEdgeUnordered(from, to);
+        if (from == to) {
+            var cycle = new IntList();
+            cycle.add(from);
+            return cycle;
+        }
+
+        var lower = order[to];
+        var upper = order[from];
+        if (lower > upper) {
+            return null;
+        }
+
+        // nodes reachable from to, ordered before from
+        newVisitMark();
+        var forward = new IntList();
+        var stack = new IntList();
+        visited[to] = visitMark;
+        parent[to] = -1;
+        stack.add(to);
+        while (!stack.isEmpty()) {
+            var node = pop(stack);
+            forward.add(node);
+            var succ = successors[node];
+            for (int i = 0; i < succ.size(); i++) {
+                var s = succ.get(i);
+                if (s == from) {
+                    parent[s] = node;
+                    return path(to, from);
+                }
+                if (visited[s] != visitMark && order[s] < upper) {
+                    visited[s] = visitMark;
+                    parent[s] = node;
+                    stack.add(s);
+                }
+            }
+        }
+
+        // nodes reaching from, ordered after to
+        var backward = new IntList();
+        visited[from] = visitMark;
+        stack.add(from);
+        while (!stack.isEmpty()) {
+            var node = pop(stack);
+            backward.add(node);
+            var pred = predecessors[node];
+            for (int i = 0; i < pred.size(); i++) {
+                var p = pred.get(i);
+                if (visited[p] != visitMark && order[p] > lower) {
+                    visited[p] = visitMark;
+                    stack.add(p);
+                }
+            }
+        }
+
+        reorder(backward, forward);
+        return null;
+    }
+
+    /*
+     * Remove the last edge added that is not removed yet, which must be
+     * from -> to
+     */
+    public void removeLastEdge(int from, int to) {
+        var succ = successors[from];
+        var pred = predecessors[to];
+        if (succ.isEmpty() || pred.isEmpty() || succ.get(succ.size() - 1) != to
+                || pred.get(pred.size() - 1) != from) {
+            throw new IllegalStateException("edges must be removed in the reverse order they are added");
+        }
+        succ.truncate(succ.size() - 1);
+        pred.truncate(pred.size() - 1);
+    }
+
+    /*
+     * Move the nodes reaching the new edge before those reachable from it,
+     * using the positions they occupy
+     */
+    private void reorder(IntList backward, IntList forward) {
+        var nodes = new int[backward.size() + forward.size()];
+        var b = sortByOrder(backward);
+        var f = sortByOrder(forward);
+        System.arraycopy(b, 0, nodes, 0, b.length);
+        System.arraycopy(f, 0, nodes, b.length, f.length);
+
+        var positions = new int[nodes.length];
+        for (int i = 0; i < nodes.length; i++) {
+            positions[i] = order[nodes[i]];
+        }
+        Arrays.sort(positions);
+
+        for (int i = 0; i < nodes.length; i++) {
+            order[nodes[i]] = positions[i];
+        }
+    }
+
+    private int[] sortByOrder(IntList nodes) {
+        var keys = new long[nodes.size()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = ((long) order[nodes.get(i)] << 32) | nodes.get(i);
+        }
+        Arrays.sort(keys);
+
+        var result = new int[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            result[i] = (int) keys[i];
+        }
+        return result;
+    }
+
+    private IntList path(int begin, int end) {
+        var reversed = new IntList();
+        for (int node = end; node != -1; node = parent[node]) {
+            reversed.add(node);
+        }
+        assert reversed.get(reversed.size() - 1) == begin;
+        return reverse(reversed);
+    }
+
+    private static IntList reverse(IntList nodes) {
+        var reversed = new IntList();
+        for (int i = nodes.size() - 1; i >= 0; i--) {
+            reversed.add(nodes.get(i));
+        }
+        return reversed;
+    }
+
+    private void newVisitMark() {
+        if (++visitMark == Integer.MAX_VALUE) {
+            Arrays.fill(visited, 0);
+            visitMark = 1;
+        }
+    }
+
+    private static int pop(IntList stack) {
+        var node = stack.get(stack.size() - 1);
+        stack.truncate(stack.size() - 1);
+        return node;
+    }
+}
@@ -32,17 +32,19 @@ public class KnownGraph<KeyType, ValueType> {
     private final MutableValueGraph<Transaction<KeyType, ValueType>, Collection<Edge<KeyType>>> knownGraphB = ValueGraphBuilder
             .directed().build();
 
+    /**
+     * Build an empty graph. Transactions and edges are added later.
+     */
+    public KnownGraph() {
+    }
+
     /**
      * Build a graph from a history
      *
      * The built graph contains SO and WR edges
      */
     public KnownGraph(History<KeyType, ValueType> history) {
-        history.getTransactions().forEach(txn -> {
-            knownGraphA.addNode(txn);
-            knownGraphB.addNode(txn);
-            readFrom.addNode(txn);
-        });
+        history.getTransactions().forEach(this::addTransaction);
 
         // add SO edges
         history.getSessions().forEach(session -> {
@@ -75,6 +77,12 @@ public class KnownGraph<KeyType, ValueType> {
         });
     }
 
+    public void addTransaction(Transaction<KeyType, ValueType> txn) {
+        knownGraphA.addNode(txn);
+        knownGraphB.addNode(txn);
+        readFrom.addNode(txn);
+    }
+
     public void putEdge(Transaction<KeyType, ValueType> u,
             Transaction<KeyType, ValueType> v, Edge<KeyType> edge) {
         switch (edge.getType()) {
@@ -1,8 +1,10 @@
 package graph;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.IntConsumer;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
@@ -12,21 +14,43 @@ import com.google.common.collect.Streams;
 import com.google.common.graph.ElementOrder;
 import com.google.common.graph.EndpointPair;
 import com.google.common.graph.Graph;
-import com.google.common.graph.GraphBuilder;
 import com.google.common.graph.MutableGraph;
 
 import org.apache.commons.lang3.tuple.Pair;
-import org.roaringbitmap.RoaringBitmap;
 
 import lombok.Getter;
+import lombok.Setter;
 import util.UnimplementedError;
 
 public class MatrixGraph<T> implements MutableGraph<T> {
+    // number of threads used by reachability()
+    @Getter
+    @Setter
+    private static int parallelism = Runtime.getRuntime().availableProcessors();
+
+    // levels and graphs smaller than this are computed on the calling thread
+    private static final int PARALLEL_LEVEL_SIZE = 64;
+
+    public enum Storage {
+        // RoaringBitmap rows
+        SPARSE,
+        // long[] rows
+        DENSE,
+        // choose by the estimated density of each matrix, and switch rows
+        // that become dense
+        AUTO
+    }
+
+    @Getter
+    @Setter
+    private static Storage storage = Storage.AUTO;
+
+    // in AUTO mode, rows denser than this are stored as long[]
+    private static final double DENSE_THRESHOLD = 0.1;
+
     @Getter
     private final ImmutableBiMap<T, Integer> nodeMap;
-    private final RoaringBitmap adjacency[];
-    // private final long adjacency[][];
-    // private static final int LONG_BITS = 64;
+    private final Row adjacency[];
 
     public MatrixGraph(Graph<T> graph) {
         var topoOrder = topoLogicalSort(graph);
@@ -40,8 +64,7 @@ public class MatrixGraph<T> implements MutableGraph<T> {
             nodeMap = toNodeMap.apply(topoOrder.get());
         }
 
-        adjacency = newMatrix(nodeMap.size());
-        // adjacency = new long[i][(i + LONG_BITS - 1) / LONG_BITS];
+        adjacency = newMatrix(nodeMap.size(), density(graph.edges().size(), nodeMap.size()));
         for (var e : graph.edges()) {
             putEdge(e.source(), e.target());
         }
@@ -50,42 +73,72 @@ public class MatrixGraph<T> implements MutableGraph<T> {
     public MatrixGraph(Graph<T> graph, ImmutableBiMap<T, Integer> nodeMap) {
         this.nodeMap = nodeMap;
 
-        adjacency = newMatrix(nodeMap.size());
+        adjacency = newMatrix(nodeMap.size(), density(graph.edges().size(), nodeMap.size()));
         for (var e : graph.edges()) {
             putEdge(e.source(), e.target());
         }
     }
 
     public static <T> MatrixGraph<T> ofNodes(MatrixGraph<T> graph) {
-        return new MatrixGraph<>(graph.nodeMap);
+        return new MatrixGraph<>(graph.nodeMap, 0);
     }
 
-    private static RoaringBitmap[] newMatrix(int size) {
-        var m = new RoaringBitmap[size];
+    private static boolean useDenseRows(double density) {
+        switch (storage) {
+        case SPARSE:
+            return false;
+        case DENSE:
+            return true;
+        default:
+            return density > DENSE_THRESHOLD;
+        }
+    }
+
+    private static Row newRow(int size, boolean dense) {
+        return dense ? new DenseRow(size) : new SparseRow();
+    }
+
+    private static Row[] newMatrix(int size, double density) {
+        var dense = useDenseRows(density);
+        var m = new Row[size];
         for (int i = 0; i < size; i++) {
-            m[i] = new RoaringBitmap();
+            m[i] = newRow(size, dense);
         }
         return m;
     }
 
-    private MatrixGraph(ImmutableBiMap<T, Integer> nodes) {
+    private static double density(long edges, int nodes) {
+        return nodes == 0 ? 0 : edges / ((double) nodes * nodes);
+    }
+
+    /*
+     * Create an empty matrix whose rows are expected to have the given density
+     */
+    private MatrixGraph(ImmutableBiMap<T, Integer> nodes, double density) {
         nodeMap = nodes;
-        adjacency = newMatrix(nodes.size());
-        // adjacency = new long[nodes.size()][(nodes.size() + LONG_BITS - 1) /
-        // LONG_BITS];
+        adjacency = newMatrix(nodes.size(), density);
     }
 
-    // private MatrixGraph(MatrixGraph<T> graph) {
-    // nodeMap.putAll(graph.nodeMap);
-    // adjacency = newMatrix(graph.adjacency.length);
-    // // adjacency = new long[graph.adjacency.length][];
-    // for (var i = 0; i < adjacency.length; i++) {
-    // adjacency[i] = graph.adjacency[i].clone();
-    // }
-    // }
+    private double density() {
+        return density(nonZeroElements(), adjacency.length);
+    }
+
+    /*
+     * In AUTO mode, switch a sparse row that became dense to long[] storage
+     */
+    private void adjustRow(int i) {
+        var row = adjacency[i];
+        if (storage != Storage.AUTO || row.isDense() || row.cardinality() <= DENSE_THRESHOLD * adjacency.length) {
+            return;
+        }
+
+        var dense = new DenseRow(adjacency.length);
+        dense.or(row);
+        adjacency[i] = dense;
+    }
 
     private MatrixGraph<T> bfsWithNoCycle(List<Integer> topoOrder) {
-        var result = new MatrixGraph<T>(nodeMap);
+        var result = new MatrixGraph<T>(nodeMap, density());
 
         for (var i = topoOrder.size() - 1; i >= 0; i--) {
             var n = topoOrder.get(i);
@@ -94,9 +147,49 @@ public class MatrixGraph<T> implements MutableGraph<T> {
                 assert topoOrder.indexOf(j) > i;
                 result.set(n, j);
                 result.adjacency[n].or(result.adjacency[j]);
-                // for (var k = 0; k < adjacency[0].length; k++) {
-                // result.adjacency[n][k] |= result.adjacency[j][k];
-                // }
+            }
+            result.adjustRow(n);
+        }
+
+        return result;
+    }
+
+    /*
+     * Same as bfsWithNoCycle, but nodes are split into levels by their height,
+     * and the nodes of one level are computed in parallel. A node only depends
+     * on its successors, which are in lower levels.
+     */
+    private MatrixGraph<T> bfsWithNoCycleParallel(List<Integer> topoOrder, ForkJoinPool pool) {
+        var result = new MatrixGraph<T>(nodeMap, density());
+        var height = new int[adjacency.length];
+        var levels = new ArrayList<List<Integer>>();
+
+        for (var i = topoOrder.size() - 1; i >= 0; i--) {
+            var n = topoOrder.get(i);
+            var h = 0;
+            for (var j : successorIds(n).toArray()) {
+                h = Math.max(h, height[j] + 1);
+            }
+
+            height[n] = h;
+            if (h == levels.size()) {
+                levels.add(new ArrayList<>());
+            }
+            levels.get(h).add(n);
+        }
+
+        Consumer<Integer> computeRow = n -> {
+            adjacency[n].forEach(j -> {
+                result.set(n, j);
+                result.adjacency[n].or(result.adjacency[j]);
+            });
+            result.adjustRow(n);
+        };
+        for (var level : levels) {
+            if (level.size() < PARALLEL_LEVEL_SIZE) {
+                level.forEach(computeRow);
+            } else {
+                pool.submit(() -> level.parallelStream().forEach(computeRow)).join();
             }
         }
 
@@ -105,31 +198,48 @@ public class MatrixGraph<T> implements MutableGraph<T> {
 
     private MatrixGraph<T> allNodesBfs() {
         var topoOrder = topoSortId().orElse(null);
-        if (topoOrder != null) {
+        var parallel = parallelism > 1 && adjacency.length >= PARALLEL_LEVEL_SIZE;
+        if (topoOrder != null && !parallel) {
             return bfsWithNoCycle(topoOrder);
         }
 
-        var result = new MatrixGraph<>(this.nodeMap);
-        var graph = toSparseGraph();
-        for (var i = 0; i < adjacency.length; i++) {
-            var q = new ArrayDeque<Integer>();
+        var pool = parallel ? new ForkJoinPool(parallelism) : null;
+        try {
+            if (topoOrder != null) {
+                return bfsWithNoCycleParallel(topoOrder, pool);
+            }
 
-            q.add(i);
-            while (!q.isEmpty()) {
-                var j = q.pop();
+            var result = new MatrixGraph<>(this.nodeMap, density());
+            IntConsumer bfs = i -> {
+                var q = new ArrayDeque<Integer>();
 
-                for (var k : graph.successors(j)) {
-                    if (result.get(i, k)) {
-                        continue;
-                    }
+                q.add(i);
+                while (!q.isEmpty()) {
+                    var j = q.pop();
 
-                    result.set(i, k);
-                    q.push(k);
+                    adjacency[j].forEach(k -> {
+                        if (!result.get(i, k)) {
+                            result.set(i, k);
+                            q.push(k);
+                        }
+                    });
                 }
+                result.adjustRow(i);
+            };
+
+            // each row is computed independently
+            if (pool != null) {
+                pool.submit(() -> IntStream.range(0, adjacency.length).parallel().forEach(bfs)).join();
+            } else {
+                IntStream.range(0, adjacency.length).forEach(bfs);
             }
-        }
 
-        return result;
+            return result;
+        } finally {
+            if (pool != null) {
+                pool.shutdown();
+            }
+        }
     }
 
     public MatrixGraph<T> reachability() {
@@ -141,14 +251,46 @@ public class MatrixGraph<T> implements MutableGraph<T> {
         return result;
     }
 
+    /**
+     * Insert an edge into a reachability matrix returned by reachability(), and
+     * update the rows of the nodes reaching nodeU
+     *
+     * @return true if the edge creates a cycle. In this case the matrix is not
+     *         changed.
+     */
+    public boolean putEdgeInClosure(T nodeU, T nodeV) {
+        int u = nodeMap.get(nodeU);
+        int v = nodeMap.get(nodeV);
+
+        if (get(v, u)) {
+            return true;
+        } else if (get(u, v)) {
+            return false;
+        }
+
+        // v doesn't reach u, so row v is not changed in the loop
+        var row = adjacency[v];
+        for (var i = 0; i < adjacency.length; i++) {
+            if (get(i, u)) {
+                adjacency[i].or(row);
+                adjustRow(i);
+            }
+        }
+
+        return false;
+    }
+
     private MatrixGraph<T> matrixProduct(MatrixGraph<T> other) {
         assert nodeMap.entrySet().equals(other.nodeMap.entrySet());
 
-        var result = new MatrixGraph<>(nodeMap);
+        // each entry is set with probability 1 - (1 - d1 * d2)^n if entries are
+        // independent
+        var estimate = 1 - Math.pow(1 - density() * other.density(), adjacency.length);
+        var result = new MatrixGraph<>(nodeMap, estimate);
         for (var i = 0; i < adjacency.length; i++) {
-            for (var j : adjacency[i]) {
-                result.adjacency[i].or(other.adjacency[j]);
-            }
+            var row = result.adjacency[i];
+            adjacency[i].forEach(j -> row.or(other.adjacency[j]));
+            result.adjustRow(i);
         }
 
         return result;
@@ -161,12 +303,11 @@ public class MatrixGraph<T> implements MutableGraph<T> {
     public MatrixGraph<T> union(MatrixGraph<T> other) {
         assert nodeMap.entrySet().equals(other.nodeMap.entrySet());
 
-        var result = new MatrixGraph<>(nodeMap);
+        var result = new MatrixGraph<>(nodeMap, Math.min(1, density() + other.density()));
         for (var i = 0; i < adjacency.length; i++) {
-            result.adjacency[i] = RoaringBitmap.or(adjacency[i], other.adjacency[i]);
-            // for (var j = 0; j < adjacency[0].length; j++)
-            // result.adjacency[i][j] = adjacency[i][j] | other.adjacency[i][j];
-            // }
+            result.adjacency[i].or(adjacency[i]);
+            result.adjacency[i].or(other.adjacency[i]);
+            result.adjustRow(i);
         }
 
         return result;
@@ -177,9 +318,7 @@ public class MatrixGraph<T> implements MutableGraph<T> {
         var inDegrees = new int[adjacency.length];
 
         for (var i = 0; i < adjacency.length; i++) {
-            for (var j : adjacency[i]) {
-                inDegrees[j]++;
-            }
+            adjacency[i].forEach(j -> inDegrees[j]++);
         }
 
         for (var i = 0; i < adjacency.length; i++) {
@@ -207,21 +346,6 @@ public class MatrixGraph<T> implements MutableGraph<T> {
         return topoSortId().isEmpty();
     }
 
-    private Graph<Integer> toSparseGraph() {
-        MutableGraph<Integer> graph = GraphBuilder.directed().allowsSelfLoops(true).build();
-        for (int i = 0; i < adjacency.length; i++) {
-            graph.addNode(i);
-        }
-
-        for (int i = 0; i < adjacency.length; i++) {
-            for (var j : adjacency[i]) {
-                graph.putEdge(i, j);
-            }
-        }
-
-        return graph;
-    }
-
     @Override
     public String toString() {
         var builder = new StringBuilder();
@@ -263,9 +387,8 @@ public class MatrixGraph<T> implements MutableGraph<T> {
         var map = nodeMap.inverse();
 
         for (int i = 0; i < adjacency.length; i++) {
-            for (var j : adjacency[i]) {
-                result.add(EndpointPair.ordered(map.get(i), map.get(j)));
-            }
+            var source = map.get(i);
+            adjacency[i].forEach(j -> result.add(EndpointPair.ordered(source, map.get(j))));
         }
 
         return result;
@@ -348,17 +471,14 @@ public class MatrixGraph<T> implements MutableGraph<T> {
 
     private boolean get(int i, int j) {
         return adjacency[i].contains(j);
-        // return (adjacency[i][j / LONG_BITS] & (1L << (j % LONG_BITS))) != 0;
     }
 
     private void set(int i, int j) {
         adjacency[i].add(j);
-        // adjacency[i][j / LONG_BITS] |= (1L << (j % LONG_BITS));
     }
 
     private void clear(int i, int j) {
         adjacency[i].remove(j);
-        // adjacency[i][j / LONG_BITS] &= ~(1L << (j % LONG_BITS));
     }
 
     private int inDegree(int n) {
@@ -371,9 +491,7 @@ public class MatrixGraph<T> implements MutableGraph<T> {
     }
 
     private int outDegree(int n) {
-        return adjacency[n].getCardinality();
-        // return
-        // Arrays.stream(adjacency[n]).mapToInt(Long::bitCount).reduce(Integer::sum).orElse(0);
+        return adjacency[n].cardinality();
     }
 
     private IntStream successorIds(int n) {
@@ -0,0 +1,43 @@
+package graph;
+
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * A row of a MatrixGraph, i.e. the set of successors of a node
+ *
+ * Rows with different storage can be mixed; operations between them fall back
+ * to iterating the set bits.
+ */
+abstract class Row {
+    abstract boolean contains(int j);
+
+    abstract void add(int j);
+
+    abstract void remove(int j);
+
+    abstract void or(Row other);
+
+    abstract int cardinality();
+
+    abstract void forEach(IntConsumer consumer);
+
+    abstract IntStream stream();
+
+    abstract boolean isDense();
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof Row)) {
+            return false;
+        }
+
+        var other = (Row) obj;
+        return cardinality() == other.cardinality() && stream().allMatch(other::contains);
+    }
+
+    @Override
+    public int hashCode() {
+        return stream().map(j -> j * 0x9e3779b9).sum();
+    }
+}
@@ -0,0 +1,67 @@
+package graph;
+
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+import org.roaringbitmap.RoaringBitmap;
+
+class SparseRow extends Row {
+    private final RoaringBitmap bitmap = new RoaringBitmap();
+
+    @Override
+    boolean contains(int j) {
+        return bitmap.contains(j);
+    }
+
+    @Override
+    void add(int j) {
+        bitmap.add(j);
+    }
+
+    @Override
+    void remove(int j) {
+        bitmap.remove(j);
+    }
+
+    @Override
+    void or(Row other) {
+        if (other instanceof SparseRow) {
+            bitmap.or(((SparseRow) other).bitmap);
+        } else {
+            other.forEach(bitmap::add);
+        }
+    }
+
+    @Override
+    int cardinality() {
+        return bitmap.getCardinality();
+    }
+
+    @Override
+    void forEach(IntConsumer consumer) {
+        bitmap.forEach((org.roaringbitmap.IntConsumer) consumer::accept);
+    }
+
+    @Override
+    IntStream stream() {
+        return bitmap.stream();
+    }
+
+    @Override
+    boolean isDense() {
+        return false;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj instanceof SparseRow) {
+            return bitmap.equals(((SparseRow) obj).bitmap);
+        }
+        return super.equals(obj);
+    }
+
+    @Override
+    public int hashCode() {
+        return super.hashCode();
+    }
+}
@@ -0,0 +1,314 @@
+package history;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Objects;
+
+import lombok.Getter;
+import lombok.Setter;
+import util.LongIntHashMap;
+
+/**
+ * A history that stores events in primitive arrays.
+ *
+ * Sessions, transactions and keys are given dense int ids, and each event
+ * only takes a transaction id, a type, a key id and a value code encoded by
+ * a {@link ValueCodec}. {@link Event}s are created on demand when the
+ * events of a transaction or the history are accessed, so they don't stay
+ * in the heap.
+ *
+ * Sessions and transactions are still objects, because the verifier uses
+ * them as graph nodes.
+ */
+public class CompactHistory<KeyType, ValueType> extends History<KeyType, ValueType> {
+	// whether loaders should build compact histories
+	@Getter
+	@Setter
+	private static boolean enabled = false;
+
+	private static final byte READ = 0;
+	private static final byte WRITE = 1;
+	private static final int INITIAL_CAPACITY = 16;
+
+	private final ValueCodec<ValueType> valueCodec;
+
+	private final ArrayList<Session<KeyType, ValueType>> sessions = new ArrayList<>();
+	private final LongIntHashMap sessionIds = new LongIntHashMap();
+
+	private final ArrayList<CompactTransaction<KeyType, ValueType>> transactions = new ArrayList<>();
+	private final LongIntHashMap transactionIds = new LongIntHashMap();
+	private int[] transactionFirstEvent = new int[INITIAL_CAPACITY];
+	private int[] transactionEventCount = new int[INITIAL_CAPACITY];
+
+	private final ArrayList<KeyType> keys = new ArrayList<>();
+	private final HashMap<KeyType, Integer> keyIds = new HashMap<>();
+
+	private int eventCount = 0;
+	private int[] eventTransaction = new int[INITIAL_CAPACITY];
+	private byte[] eventType = new byte[INITIAL_CAPACITY];
+	private int[] eventKey = new int[INITIAL_CAPACITY];
+	private long[] eventValue = new long[INITIAL_CAPACITY];
+
+	// (index of a write event) + 1, hashed by key and value. 0 means empty.
+	// Used to reject duplicate writes.
+	private int[] writeTable = new int[INITIAL_CAPACITY];
+	private int writeCount = 0;
+
+	// Events of a transaction are stored contiguously unless a loader
+	// interleaves events of different transactions. In that case they are
+	// regrouped before being read.
+	private volatile boolean grouped = true;
+	private int lastTransaction = -1;
+
+	public CompactHistory(ValueCodec<ValueType> valueCodec) {
+		this.valueCodec = valueCodec;
+	}
+
+	@Override
+	public Collection<Session<KeyType, ValueType>> getSessions() {
+		return Collections.unmodifiableList(sessions);
+	}
+
+	@Override
+	public Collection<Transaction<KeyType, ValueType>> getTransactions() {
+		return Collections.unmodifiableList(transactions);
+	}
+
+	@Override
+	public Collection<Event<KeyType, ValueType>> getEvents() {
+		ensureGrouped();
+		return new AbstractList<>() {
+			@Override
+			public Event<KeyType, ValueType> get(int index) {
+				Objects.checkIndex(index, eventCount);
+				return event(index);
+			}
+
+			@Override
+			public int size() {
+				return eventCount;
+			}
+		};
+	}
+
+	@Override
+	public Session<KeyType, ValueType> getSession(long id) {
+		var i = sessionIds.get(id);
+		return i < 0 ? null : sessions.get(i);
+	}
+
+	@Override
+	public Transaction<KeyType, ValueType> getTransaction(long id) {
+		var i = transactionIds.get(id);
+		return i < 0 ? null : transactions.get(i);
+	}
+
+	@Override
+	public Session<KeyType, ValueType> addSession(long id) {
+		if (sessionIds.containsKey(id)) {
+			throw new InvalidHistoryError();
+		}
+
+		var session = new Session<KeyType, ValueType>(id);
+		sessionIds.put(id, sessions.size());
+		sessions.add(session);
+		return session;
+	}
+
+	@Override
+	public Transaction<KeyType, ValueType> addTransaction(Session<KeyType, ValueType> session, long id) {
+		if (getSession(session.id) != session || transactionIds.containsKey(id)) {
+			throw new InvalidHistoryError();
+		}
+
+		var index = transactions.size();
+		if (index == transactionFirstEvent.length) {
+			transactionFirstEvent = Arrays.copyOf(transactionFirstEvent, index * 2);
+			transactionEventCount = Arrays.copyOf(transactionEventCount, index * 2);
+		}
+
+		var txn = new CompactTransaction<>(id, session, this, index);
+		transactionIds.put(id, index);
+		transactions.add(txn);
+		session.getTransactions().add(txn);
+		return txn;
+	}
+
+	@Override
+	public Event<KeyType, ValueType> addEvent(Transaction<KeyType, ValueType> transaction, Event.EventType type,
+			KeyType key, ValueType value) {
+		if (!(transaction instanceof CompactTransaction)
+				|| ((CompactTransaction<KeyType, ValueType>) transaction).history != this) {
+			throw new InvalidHistoryError();
+		}
+
+		var txn = ((CompactTransaction<KeyType, ValueType>) transaction).index;
+		var keyId = keyIds.computeIfAbsent(key, k -> {
+			keys.add(k);
+			return keys.size() - 1;
+		});
+		var code = valueCodec.encode(value);
+		if (type == Event.EventType.WRITE && findWrite(keyId, code) >= 0) {
+			throw new InvalidHistoryError();
+		}
+
+		if (eventCount == eventType.length) {
+			var capacity = eventCount * 2;
+			eventTransaction = Arrays.copyOf(eventTransaction, capacity);
+			eventType = Arrays.copyOf(eventType, capacity);
+			eventKey = Arrays.copyOf(eventKey, capacity);
+			eventValue = Arrays.copyOf(eventValue, capacity);
+		}
+
+		var i = eventCount++;
+		eventTransaction[i] = txn;
+		eventType[i] = type == Event.EventType.WRITE ? WRITE : READ;
+		eventKey[i] = keyId;
+		eventValue[i] = code;
+
+		if (transactionEventCount[txn] == 0) {
+			transactionFirstEvent[txn] = i;
+		} else if (lastTransaction != txn) {
+			grouped = false;
+		}
+		transactionEventCount[txn]++;
+		lastTransaction = txn;
+
+		if (type == Event.EventType.WRITE) {
+			if (++writeCount * 2 > writeTable.length) {
+				rebuildWriteTable(writeTable.length * 2);
+			} else {
+				insertWrite(i);
+			}
+		}
+
+		return new Event<>(transaction, type, key, value);
+	}
+
+	private List<Event<KeyType, ValueType>> transactionEvents(int txn) {
+		return new AbstractList<>() {
+			@Override
+			public Event<KeyType, ValueType> get(int index) {
+				ensureGrouped();
+				Objects.checkIndex(index, transactionEventCount[txn]);
+				return event(transactionFirstEvent[txn] + index);
+			}
+
+			@Override
+			public int size() {
+				return transactionEventCount[txn];
+			}
+		};
+	}
+
+	private Event<KeyType, ValueType> event(int i) {
+		return new Event<>(transactions.get(eventTransaction[i]),
+				eventType[i] == WRITE ? Event.EventType.WRITE : Event.EventType.READ,
+				keys.get(eventKey[i]), valueCodec.decode(eventValue[i]));
+	}
+
+	private int findWrite(int key, long value) {
+		var mask = writeTable.length - 1;
+		for (int i = writeSlot(key, value, mask);; i = (i + 1) & mask) {
+			var ev = writeTable[i] - 1;
+			if (ev < 0) {
+				return -1;
+			} else if (eventKey[ev] == key && eventValue[ev] == value) {
+				return ev;
+			}
+		}
+	}
+
+	private void insertWrite(int ev) {
+		var mask = writeTable.length - 1;
+		var i = writeSlot(eventKey[ev], eventValue[ev], mask);
+		while (writeTable[i] != 0) {
+			i = (i + 1) & mask;
+		}
+		writeTable[i] = ev + 1;
+	}
+
+	private void rebuildWriteTable(int capacity) {
+		writeTable = new int[capacity];
+		for (int i = 0; i < eventCount; i++) {
+			if (eventType[i] == WRITE) {
+				insertWrite(i);
+			}
+		}
+	}
+
+	private static int writeSlot(int key, long value, int mask) {
+		return (int) LongIntHashMap.mix(value ^ LongIntHashMap.mix(key)) & mask;
+	}
+
+	private void ensureGrouped() {
+		if (grouped) {
+			return;
+		}
+
+		synchronized (this) {
+			if (!grouped) {
+				regroup();
+			}
+		}
+	}
+
+	/*
+	 * Stable counting sort of events by transaction
+	 */
+	private void regroup() {
+		var n = transactions.size();
+		var next = new int[n];
+		var position = 0;
+		for (int t = 0; t < n; t++) {
+			transactionFirstEvent[t] = position;
+			next[t] = position;
+			position += transactionEventCount[t];
+			if (transactionEventCount[t] != 0) {
+				lastTransaction = t;
+			}
+		}
+
+		var capacity = eventType.length;
+		var newTransaction = new int[capacity];
+		var newType = new byte[capacity];
+		var newKey = new int[capacity];
+		var newValue = new long[capacity];
+		for (int i = 0; i < eventCount; i++) {
+			var j = next[eventTransaction[i]]++;
+			newTransaction[j] = eventTransaction[i];
+			newType[j] = eventType[i];
+			newKey[j] = eventKey[i];
+			newValue[j] = eventValue[i];
+		}
+
+		eventTransaction = newTransaction;
+		eventType = newType;
+		eventKey = newKey;
+		eventValue = newValue;
+		rebuildWriteTable(writeTable.length);
+		grouped = true;
+	}
+
+	private static class CompactTransaction<KeyType, ValueType> extends Transaction<KeyType, ValueType> {
+		private final CompactHistory<KeyType, ValueType> history;
+		private final int index;
+
+		CompactTransaction(long id, Session<KeyType, ValueType> session, CompactHistory<KeyType, ValueType> history,
+				int index) {
+			super(id, session);
+			this.history = history;
+			this.index = index;
+		}
+
+		@Override
+		public List<Event<KeyType, ValueType>> getEvents() {
+			return history.transactionEvents(index);
+		}
+	}
+}
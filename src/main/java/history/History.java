@@ -46,7 +46,7 @@ public class History<KeyType, ValueType> {
 	}
 
 	public Collection<Event<KeyType, ValueType>> getEvents() {
-		return transactions.values().stream().flatMap(txn -> txn.events.stream()).collect(Collectors.toList());
+		return transactions.values().stream().flatMap(txn -> txn.getEvents().stream()).collect(Collectors.toList());
 	}
 
 	public Session<KeyType, ValueType> getSession(long id) {
@@ -0,0 +1,25 @@
+package history;
+
+import java.io.Closeable;
+
+/**
+ * Receives a history one transaction at a time, so that large histories can
+ * be written without being kept in memory.
+ *
+ * Keys and values are longs, and each write has a unique value. Every key
+ * initially has value 0, written by INIT_TRANSACTION.
+ */
+public interface HistoryStream extends Closeable {
+	long INIT_TRANSACTION = -1;
+
+	void startTransaction(long session, long id);
+
+	/*
+	 * @param writer the id of the transaction that wrote the value
+	 */
+	void read(long key, long value, long writer);
+
+	void write(long key, long value);
+
+	void commitTransaction();
+}
@@ -0,0 +1,5 @@
+package history;
+
+public interface HistoryStreamDumper {
+	HistoryStream openStream();
+}
@@ -0,0 +1,53 @@
+package history;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Encodes values of a history into longs, so that they can be stored in
+ * primitive arrays by {@link CompactHistory}.
+ *
+ * Two values must have the same code iff. they are equal.
+ */
+public interface ValueCodec<ValueType> {
+	long encode(ValueType value);
+
+	ValueType decode(long code);
+
+	static ValueCodec<Long> ofLong() {
+		return new ValueCodec<>() {
+			@Override
+			public long encode(Long value) {
+				return value;
+			}
+
+			@Override
+			public Long decode(long code) {
+				return code;
+			}
+		};
+	}
+
+	/**
+	 * A codec that assigns consecutive codes to distinct values
+	 */
+	static <ValueType> ValueCodec<ValueType> dictionary() {
+		return new ValueCodec<>() {
+			private final ArrayList<ValueType> values = new ArrayList<>();
+			private final HashMap<ValueType, Long> codes = new HashMap<>();
+
+			@Override
+			public long encode(ValueType value) {
+				return codes.computeIfAbsent(value, v -> {
+					values.add(v);
+					return (long) values.size() - 1;
+				});
+			}
+
+			@Override
+			public ValueType decode(long code) {
+				return values.get((int) code);
+			}
+		};
+	}
+}
@@ -0,0 +1,309 @@
+package history.generators;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import history.HistoryStream;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Generates synthetic histories without a database.
+ *
+ * Transactions are executed one at a time, each in a session chosen at
+ * random, so each read sees the latest write and the history is
+ * serializable. Anomalies are injected at evenly spaced points by running
+ * two or four transactions on the same snapshot in different sessions.
+ *
+ * Keys are 1..keys. Each transaction accesses distinct keys, and each write
+ * has a unique value.
+ */
+@RequiredArgsConstructor
+public class HistoryGenerator {
+	public enum KeyDistribution {
+		UNIFORM, ZIPFIAN, HOTSPOT
+	}
+
+	public enum Anomaly {
+		// two concurrent transactions read and write the same key
+		LOST_UPDATE,
+		// two concurrent transactions read x and y, one writes x and the other
+		// writes y. This is allowed by SI but not by serializability.
+		WRITE_SKEW,
+		// two transactions write x and y, and two readers observe the writes in
+		// different orders
+		LONG_FORK
+	}
+
+	private static final double ZIPFIAN_THETA = 0.99;
+	// HOTSPOT_OPS of the operations access HOTSPOT_KEYS of the keys
+	private static final double HOTSPOT_KEYS = 0.2;
+	private static final double HOTSPOT_OPS = 0.8;
+	private static final int MAX_KEY_RETRIES = 64;
+
+	private final int sessions;
+	private final int transactionsPerSession;
+	private final int opsPerTransaction;
+	private final int keys;
+	private final double readRatio;
+	private final KeyDistribution distribution;
+	// null means no anomalies are injected
+	private final Anomaly anomaly;
+	private final int anomalies;
+	private final long seed;
+
+	private Random random;
+	private double zetan;
+	private double eta;
+
+	// the current value of each key and the transaction that wrote it
+	private long[] values;
+	private long[] writers;
+	private long nextValue;
+	private long nextTransaction;
+
+	// sessions with transactions left are activeSessions[0..activeCount)
+	private int[] activeSessions;
+	private int[] remaining;
+	private int activeCount;
+
+	/**
+	 * Write a generated history to a stream. The stream is not closed.
+	 *
+	 * @return the number of anomalies injected. It is less than requested if
+	 *         there are not enough sessions left at some injection point.
+	 */
+	public int generate(HistoryStream out) {
+		if (sessions <= 0 || transactionsPerSession < 0 || opsPerTransaction <= 0 || keys <= 0 || readRatio < 0
+				|| readRatio > 1) {
+			throw new IllegalArgumentException("invalid generator parameters");
+		}
+
+		random = new Random(seed);
+		values = new long[keys + 1];
+		writers = new long[keys + 1];
+		Arrays.fill(writers, HistoryStream.INIT_TRANSACTION);
+		nextValue = 1;
+		nextTransaction = 1;
+
+		activeSessions = new int[sessions];
+		remaining = new int[sessions];
+		activeCount = transactionsPerSession > 0 ? sessions : 0;
+		for (int i = 0; i < sessions; i++) {
+			activeSessions[i] = i;
+			remaining[i] = transactionsPerSession;
+		}
+
+		if (distribution == KeyDistribution.ZIPFIAN) {
+			zetan = zeta(keys);
+			eta = (1 - Math.pow(2.0 / keys, 1 - ZIPFIAN_THETA)) / (1 - zeta(2) / zetan);
+		}
+
+		var total = (long) sessions * transactionsPerSession;
+		var injectNum = anomaly == null ? 0 : anomalies;
+		var injected = 0;
+		var nextInjection = 1;
+		for (long i = 0; activeCount > 0; i++) {
+			if (nextInjection <= injectNum && i >= total * nextInjection / (injectNum + 1)) {
+				nextInjection++;
+				if (injectAnomaly(out)) {
+					injected++;
+					continue;
+				}
+			}
+
+			var keySet = pickKeys(Math.min(opsPerTransaction, keys));
+			startTransaction(out, takeSession(random.nextInt(activeCount)));
+			for (var key : keySet) {
+				if (random.nextDouble() < readRatio) {
+					read(out, key);
+				} else {
+					write(out, key);
+				}
+			}
+			out.commitTransaction();
+		}
+
+		return injected;
+	}
+
+	private boolean injectAnomaly(HistoryStream out) {
+		var needed = anomaly == Anomaly.LONG_FORK ? 4 : 2;
+		if (activeCount < needed || keys < 2) {
+			return false;
+		}
+
+		var s = new int[needed];
+		for (int i = 0; i < needed; i++) {
+			// sessions taken are moved out of [0, activeCount - i), so they are
+			// distinct
+			var j = random.nextInt(activeCount - i);
+			s[i] = activeSessions[j];
+			swap(j, activeCount - i - 1);
+		}
+		for (int i = 0; i < needed; i++) {
+			takeSession(indexOf(s[i]));
+		}
+
+		var pair = pickKeys(2);
+		var x = pair[0];
+		var y = pair[1];
+		switch (anomaly) {
+		case LOST_UPDATE: {
+			var value = values[x];
+			var writer = writers[x];
+			for (int i = 0; i < 2; i++) {
+				startTransaction(out, s[i]);
+				out.read(x, value, writer);
+				write(out, x);
+				out.commitTransaction();
+			}
+			break;
+		}
+		case WRITE_SKEW: {
+			var valueX = values[x];
+			var writerX = writers[x];
+			var valueY = values[y];
+			var writerY = writers[y];
+			for (int i = 0; i < 2; i++) {
+				startTransaction(out, s[i]);
+				out.read(x, valueX, writerX);
+				out.read(y, valueY, writerY);
+				write(out, i == 0 ? x : y);
+				out.commitTransaction();
+			}
+			break;
+		}
+		case LONG_FORK: {
+			var valueX = values[x];
+			var writerX = writers[x];
+			var valueY = values[y];
+			var writerY = writers[y];
+
+			startTransaction(out, s[0]);
+			write(out, x);
+			out.commitTransaction();
+			startTransaction(out, s[1]);
+			write(out, y);
+			out.commitTransaction();
+
+			startTransaction(out, s[2]);
+			read(out, x);
+			out.read(y, valueY, writerY);
+			out.commitTransaction();
+			startTransaction(out, s[3]);
+			out.read(x, valueX, writerX);
+			read(out, y);
+			out.commitTransaction();
+			break;
+		}
+		}
+
+		return true;
+	}
+
+	private void startTransaction(HistoryStream out, int session) {
+		out.startTransaction(session + 1, nextTransaction++);
+	}
+
+	private void read(HistoryStream out, int key) {
+		out.read(key, values[key], writers[key]);
+	}
+
+	private void write(HistoryStream out, int key) {
+		values[key] = nextValue++;
+		writers[key] = nextTransaction - 1;
+		out.write(key, values[key]);
+	}
+
+	/*
+	 * Use one transaction of activeSessions[i]
+	 *
+	 * @return the session
+	 */
+	private int takeSession(int i) {
+		var session = activeSessions[i];
+		if (--remaining[session] == 0) {
+			swap(i, --activeCount);
+		}
+		return session;
+	}
+
+	private int indexOf(int session) {
+		for (int i = 0; i < activeCount; i++) {
+			if (activeSessions[i] == session) {
+				return i;
+			}
+		}
+		throw new IllegalStateException();
+	}
+
+	private void swap(int i, int j) {
+		var t = activeSessions[i];
+		activeSessions[i] = activeSessions[j];
+		activeSessions[j] = t;
+	}
+
+	private int[] pickKeys(int n) {
+		var result = new int[n];
+		for (int i = 0; i < n; i++) {
+			var key = nextKey();
+			for (int retry = 0; contains(result, i, key); retry++) {
+				key = retry < MAX_KEY_RETRIES ? nextKey() : 1 + random.nextInt(keys);
+			}
+			result[i] = key;
+		}
+		return result;
+	}
+
+	private static boolean contains(int[] keys, int n, int key) {
+		for (int i = 0; i < n; i++) {
+			if (keys[i] == key) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private int nextKey() {
+		switch (distribution) {
+		case UNIFORM:
+			return 1 + random.nextInt(keys);
+		case ZIPFIAN:
+			return 1 + nextZipfian();
+		case HOTSPOT: {
+			var hotKeys = Math.max(1, (int) (keys * HOTSPOT_KEYS));
+			if (hotKeys == keys || random.nextDouble() < HOTSPOT_OPS) {
+				return 1 + random.nextInt(hotKeys);
+			}
+			return 1 + hotKeys + random.nextInt(keys - hotKeys);
+		}
+		default:
+			throw new IllegalStateException();
+		}
+	}
+
+	/*
+	 * The zipfian generator from YCSB (Gray et al., Quickly Generating
+	 * Billion-Record Synthetic Databases). Returns a rank in [0, keys).
+	 */
+	private int nextZipfian() {
+		var u = random.nextDouble();
+		var uz = u * zetan;
+		if (uz < 1) {
+			return 0;
+		} else if (uz < 1 + Math.pow(0.5, ZIPFIAN_THETA)) {
+			return Math.min(1, keys - 1);
+		}
+
+		var rank = (int) (keys * Math.pow(eta * u - eta + 1, 1 / (1 - ZIPFIAN_THETA)));
+		return Math.min(rank, keys - 1);
+	}
+
+	private static double zeta(int n) {
+		var sum = 0.0;
+		for (int i = 1; i <= n; i++) {
+			sum += 1 / Math.pow(i, ZIPFIAN_THETA);
+		}
+		return sum;
+	}
+}
@@ -2,18 +2,24 @@ package history.loaders;
 
 import static history.Event.EventType.*;
 
+import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.function.BiFunction;
 import java.util.stream.Collectors;
 
@@ -23,9 +29,11 @@ import org.apache.commons.lang3.tuple.Pair;
 import history.*;
 import history.History.*;
 import lombok.SneakyThrows;
+import util.LongIntHashMap;
 
 public class CobraHistoryLoader implements HistoryParser<Long, CobraHistoryLoader.CobraValue> {
 	private final File logDir;
+	private final long windowSize;
 
 	public static long INIT_WRITE_ID = 0xbebeebeeL;
 	public static long INIT_TXN_ID = 0xbebeebeeL;
@@ -34,7 +42,13 @@ public class CobraHistoryLoader implements HistoryParser<Long, CobraHistoryLoade
 	public static long GC_WID_FALSE = 0x66666666L;
 
 	public CobraHistoryLoader(Path path) {
+		this(path, MappedInput.WINDOW_SIZE);
+	}
+
+	// windowSize is the size of the memory-mapped windows of each log
+	CobraHistoryLoader(Path path, long windowSize) {
 		logDir = path.toFile();
+		this.windowSize = windowSize;
 
 		if (!logDir.isDirectory()) {
 			throw new Error("path is not a directory");
@@ -57,17 +71,37 @@ public class CobraHistoryLoader implements HistoryParser<Long, CobraHistoryLoade
 		return logs;
 	}
 
+	/*
+	 * Logs are memory-mapped and decoded in parallel, then merged into the
+	 * history in the order of their file names. At most one log per core is
+	 * decoded ahead of the merge, so that decoded logs waiting to be merged
+	 * do not fill the memory.
+	 */
 	@SneakyThrows
 	private History<Long, CobraValue> loadLogs(ArrayList<File> opfiles) {
-		var history = new History<Long, CobraValue>();
+		var history = Utils.<Long, CobraValue>newHistory(new CobraValueCodec());
 		var initWrites = new HashMap<Long, CobraValue>();
 		var sessionId = 0;
 
-		for (File f : opfiles) {
-			try (var in = new DataInputStream(new FileInputStream(f))) {
-				var session = history.addSession(sessionId++);
-				extractLog(in, history, initWrites, session);
+		opfiles.sort(Comparator.comparing(File::getName));
+		var inFlight = Runtime.getRuntime().availableProcessors();
+		var logs = new ArrayList<CompletableFuture<DecodedLog>>();
+		for (int i = 0; i < opfiles.size(); i++) {
+			while (logs.size() < Math.min(opfiles.size(), i + inFlight)) {
+				var f = opfiles.get(logs.size());
+				logs.add(CompletableFuture.supplyAsync(() -> mapLog(f)));
+			}
+
+			DecodedLog log;
+			try {
+				log = logs.get(i).join();
+			} catch (CompletionException e) {
+				throw e.getCause();
 			}
+			logs.set(i, null);
+
+			var session = history.addSession(sessionId++);
+			applyLog(log, history, initWrites, session);
 		}
 
 		var initTxn = history.addTransaction(history.addSession(INIT_TXN_ID), INIT_TXN_ID);
@@ -100,21 +134,94 @@ public class CobraHistoryLoader implements HistoryParser<Long, CobraHistoryLoade
 	@SneakyThrows
 	public void extractLog(DataInputStream in, History<Long, CobraValue> history, Map<Long, CobraValue> initWrites,
 			Session<Long, CobraValue> session) {
-		Transaction<Long, CobraValue> current = null;
+		var log = new DecodedLog();
 		while (true) {
 			// break if end (for file)
-			char op;
+			byte op;
 			try {
-				op = (char) in.readByte();
+				op = in.readByte();
 			} catch (EOFException e) {
 				break;
 			}
 
-			switch (op) {
+			var n = fieldCount(op);
+			log.addOp(op);
+			for (int i = 0; i < n; i++) {
+				log.addField(in.readLong());
+			}
+		}
+
+		applyLog(log, history, initWrites, session);
+	}
+
+	@SneakyThrows
+	private DecodedLog mapLog(File file) {
+		var log = new DecodedLog();
+		try (var channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			var in = new MappedInput(channel, ByteOrder.BIG_ENDIAN, windowSize);
+			while (in.hasRemaining()) {
+				var op = in.readByte();
+				var n = fieldCount(op);
+				log.addOp(op);
+				for (int i = 0; i < n; i++) {
+					log.addField(in.readLong());
+				}
+			}
+		}
+
+		return log;
+	}
+
+	private static int fieldCount(byte op) {
+		switch (op) {
+		case 'S':
+		case 'C':
+			return 1;
+		case 'W':
+			return 3;
+		case 'R':
+			return 4;
+		default:
+			throw new InvalidHistoryError();
+		}
+	}
+
+	/*
+	 * Records of a log. The fields of each record follow those of the previous
+	 * one in fields.
+	 */
+	private static class DecodedLog {
+		private byte[] ops = new byte[1024];
+		private long[] fields = new long[4096];
+		private int opCount = 0;
+		private int fieldCount = 0;
+
+		void addOp(byte op) {
+			if (opCount == ops.length) {
+				ops = Arrays.copyOf(ops, opCount * 2);
+			}
+			ops[opCount++] = op;
+		}
+
+		void addField(long field) {
+			if (fieldCount == fields.length) {
+				fields = Arrays.copyOf(fields, fieldCount * 2);
+			}
+			fields[fieldCount++] = field;
+		}
+	}
+
+	private void applyLog(DecodedLog log, History<Long, CobraValue> history, Map<Long, CobraValue> initWrites,
+			Session<Long, CobraValue> session) {
+		Transaction<Long, CobraValue> current = null;
+		var fields = log.fields;
+		var f = 0;
+		for (int i = 0; i < log.opCount; i++) {
+			switch (log.ops[i]) {
 			case 'S': {
 				// TxnStart
 				assert current == null;
-				var id = in.readLong();
+				var id = fields[f++];
 
 				// NOTE: because of inconsistency of the logs, the node might be created already
 				// There are two possibilities:
@@ -129,7 +236,7 @@ public class CobraHistoryLoader implements HistoryParser<Long, CobraHistoryLoade
 			}
 			case 'C': {
 				// TxnCommit
-				var id = in.readLong();
+				var id = fields[f++];
 				assert current != null && current.getId() == id;
 				current.setStatus(Transaction.TransactionStatus.COMMIT);
 				break;
@@ -137,9 +244,9 @@ public class CobraHistoryLoader implements HistoryParser<Long, CobraHistoryLoade
 			case 'W': {
 				// (write, writeId, key, val): ?B <br>
 				assert current != null;
-				var writeId = in.readLong();
-				var key = in.readLong();
-				var value = in.readLong();
+				var writeId = fields[f++];
+				var key = fields[f++];
+				var value = fields[f++];
 
 				// use writeId as value because cobra guarantees its uniqueness
 				history.addEvent(current, WRITE, key, new CobraValue(writeId, current.getId(), value));
@@ -148,10 +255,10 @@ public class CobraHistoryLoader implements HistoryParser<Long, CobraHistoryLoade
 			case 'R': {
 				// (read, write_TxnId, writeId, key, value) : ?B <br>
 				assert current != null;
-				var writeTxnId = in.readLong();
-				var writeId = in.readLong();
-				var key = in.readLong();
-				var value = in.readLong();
+				var writeTxnId = fields[f++];
+				var writeId = fields[f++];
+				var key = fields[f++];
+				var value = fields[f++];
 
 				// NOTE: if the prev_txnid == INIT_TXNID, then we update it to keyhash as wid
 				// FIXME: separate NULL and INIT?
@@ -221,6 +328,79 @@ public class CobraHistoryLoader implements HistoryParser<Long, CobraHistoryLoade
 		}
 	}
 
+	/*
+	 * Each session is written to its own log. The value of a write is also used
+	 * as its writeId, and reads of initial values read from the init
+	 * transaction.
+	 */
+	@Override
+	public HistoryStream openStream() {
+		if (!logDir.isDirectory()) {
+			throw new Error(String.format("%s is not a directory", logDir));
+		}
+		Arrays.stream(logDir.listFiles()).forEach(f -> f.delete());
+
+		return new HistoryStream() {
+			private final HashMap<Long, DataOutputStream> logs = new HashMap<>();
+			private DataOutputStream out;
+			private long transaction;
+
+			@Override
+			@SneakyThrows
+			public void startTransaction(long session, long id) {
+				out = logs.computeIfAbsent(session, s -> newLog(s));
+				transaction = id;
+				out.writeByte('S');
+				out.writeLong(id);
+			}
+
+			@Override
+			@SneakyThrows
+			public void read(long key, long value, long writer) {
+				out.writeByte('R');
+				if (writer == INIT_TRANSACTION) {
+					out.writeLong(INIT_TXN_ID);
+					out.writeLong(INIT_WRITE_ID);
+				} else {
+					out.writeLong(writer);
+					out.writeLong(value);
+				}
+				out.writeLong(key);
+				out.writeLong(value);
+			}
+
+			@Override
+			@SneakyThrows
+			public void write(long key, long value) {
+				out.writeByte('W');
+				out.writeLong(value);
+				out.writeLong(key);
+				out.writeLong(value);
+			}
+
+			@Override
+			@SneakyThrows
+			public void commitTransaction() {
+				out.writeByte('C');
+				out.writeLong(transaction);
+			}
+
+			@Override
+			@SneakyThrows
+			public void close() {
+				for (var log : logs.values()) {
+					log.close();
+				}
+			}
+
+			@SneakyThrows
+			private DataOutputStream newLog(long session) {
+				return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(
+						logDir.toPath().resolve(String.format("T%d.log", session)).toFile())));
+			}
+		};
+	}
+
 	@Override
 	public <T, U> History<Long, CobraValue> convertFrom(History<T, U> history) {
 		var events = history.getEvents();
@@ -279,4 +459,64 @@ public class CobraHistoryLoader implements HistoryParser<Long, CobraHistoryLoade
 		private final long transactionId;
 		private final long value;
 	}
+
+	/*
+	 * Stores distinct CobraValues in a long array, 3 longs each
+	 */
+	private static class CobraValueCodec implements ValueCodec<CobraValue> {
+		private long[] values = new long[48];
+		private int size = 0;
+		// code + 1, 0 means empty
+		private int[] table = new int[32];
+
+		@Override
+		public long encode(CobraValue value) {
+			var mask = table.length - 1;
+			var i = slot(value.writeId, value.transactionId, value.value, mask);
+			for (; table[i] != 0; i = (i + 1) & mask) {
+				var c = (table[i] - 1) * 3;
+				if (values[c] == value.writeId && values[c + 1] == value.transactionId && values[c + 2] == value.value) {
+					return table[i] - 1;
+				}
+			}
+
+			if (size * 3 == values.length) {
+				values = Arrays.copyOf(values, values.length * 2);
+			}
+			values[size * 3] = value.writeId;
+			values[size * 3 + 1] = value.transactionId;
+			values[size * 3 + 2] = value.value;
+			table[i] = ++size;
+
+			if (size * 2 > table.length) {
+				rehash(table.length * 2);
+			}
+			return size - 1;
+		}
+
+		@Override
+		public CobraValue decode(long code) {
+			var c = (int) code * 3;
+			return new CobraValue(values[c], values[c + 1], values[c + 2]);
+		}
+
+		private void rehash(int capacity) {
+			table = new int[capacity];
+			var mask = capacity - 1;
+			for (int code = 0; code < size; code++) {
+				var i = slot(values[code * 3], values[code * 3 + 1], values[code * 3 + 2], mask);
+				while (table[i] != 0) {
+					i = (i + 1) & mask;
+				}
+				table[i] = code + 1;
+			}
+		}
+
+		private static int slot(long writeId, long transactionId, long value, int mask) {
+			var h = LongIntHashMap.mix(writeId);
+			h = LongIntHashMap.mix(h ^ transactionId);
+			h = LongIntHashMap.mix(h ^ value);
+			return (int) h & mask;
+		}
+	}
 }
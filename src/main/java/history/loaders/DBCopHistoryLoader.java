@@ -3,25 +3,31 @@ package history.loaders;
 import static history.Event.EventType.READ;
 import static history.Event.EventType.WRITE;
 
-import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
-import com.google.common.io.LittleEndianDataInputStream;
 import com.google.common.io.LittleEndianDataOutputStream;
 
 import lombok.RequiredArgsConstructor;
@@ -32,6 +38,8 @@ import org.apache.commons.lang3.tuple.Triple;
 
 import history.*;
 import history.History.*;
+import util.IntList;
+import util.LongList;
 
 @SuppressWarnings("UnstableApiUsage")
 public class DBCopHistoryLoader implements HistoryParser<Long, Long> {
@@ -47,8 +55,8 @@ public class DBCopHistoryLoader implements HistoryParser<Long, Long> {
 	@Override
 	@SneakyThrows
 	public History<Long, Long> loadHistory() {
-		try (var in = new LittleEndianDataInputStream(new BufferedInputStream(new FileInputStream(logFile)))) {
-			return (new InternalLoader(in)).load();
+		try (var channel = FileChannel.open(logFile.toPath(), StandardOpenOption.READ)) {
+			return (new InternalLoader(channel)).load();
 		}
 	}
 
@@ -60,17 +68,43 @@ public class DBCopHistoryLoader implements HistoryParser<Long, Long> {
 		}
 	}
 
+	@Override
+	public HistoryStream openStream() {
+		return new StreamDumper(logFile);
+	}
+
+	/*
+	 * Sessions and transactions are length-prefixed, so a first pass records the
+	 * offset of each session. Sessions are then decoded in parallel and added to
+	 * the history in order, so that session and transaction ids are the same as
+	 * reading the file sequentially.
+	 */
 	@RequiredArgsConstructor
 	private static class InternalLoader {
-		private final History<Long, Long> history = new History<>();
+		// write, key, value, success
+		private static final int EVENT_SIZE = 1 + Long.BYTES * 2 + 1;
+
+		private final History<Long, Long> history = Utils.newHistory(ValueCodec.ofLong());
 		private final Set<Long> keys = new HashSet<>();
 		private long sessionId = 1;
 		private long transactionId = 1;
-		private final LittleEndianDataInputStream in;
+		private final FileChannel channel;
 
 		@SneakyThrows
 		History<Long, Long> load() {
-			parseHistory();
+			var sessions = Arrays.stream(indexSessions())
+					.mapToObj(offset -> CompletableFuture.supplyAsync(() -> parseSession(offset)))
+					.collect(Collectors.toCollection(ArrayList::new));
+			for (int i = 0; i < sessions.size(); i++) {
+				DecodedSession session;
+				try {
+					session = sessions.get(i).join();
+				} catch (CompletionException e) {
+					throw e.getCause();
+				}
+				sessions.set(i, null);
+				addSession(session);
+			}
 
 			var init = history.addTransaction(history.addSession(0), 0);
 			for (var k : keys) {
@@ -80,63 +114,98 @@ public class DBCopHistoryLoader implements HistoryParser<Long, Long> {
 			return history;
 		}
 
-		@SneakyThrows
-		private void parseHistory() {
+		private long[] indexSessions() {
+			var in = new MappedInput(channel, ByteOrder.LITTLE_ENDIAN);
 			var id = in.readLong();
 			var nodeNum = in.readLong();
 			var variableNum = in.readLong();
 			var transactionNum = in.readLong();
 			var eventNum = in.readLong();
-			var info = parseString();
-			var start = parseString();
-			var end = parseString();
+			for (int i = 0; i < 3; i++) {
+				// info, start, end
+				in.skip(in.readLong());
+			}
 
 			var length = in.readLong();
-			for (long i = 0; i < length; i++) {
-				parseSession();
+			var offsets = new long[Math.toIntExact(length)];
+			for (int i = 0; i < length; i++) {
+				offsets[i] = in.position();
+				var txnNum = in.readLong();
+				for (long j = 0; j < txnNum; j++) {
+					in.skip(in.readLong() * EVENT_SIZE + 1);
+				}
 			}
-		}
 
-		@SneakyThrows
-		private String parseString() {
-			var size = in.readLong();
-			assert size <= Integer.MAX_VALUE;
-			return new String(in.readNBytes((int) size), StandardCharsets.UTF_8);
+			return offsets;
 		}
 
-		@SneakyThrows
-		void parseSession() {
-			var length = in.readLong();
-			var session = history.addSession(sessionId++);
-			for (long i = 0; i < length; i++) {
-				parseTransaction(session);
-			}
-		}
+		private DecodedSession parseSession(long offset) {
+			var in = new MappedInput(channel, ByteOrder.LITTLE_ENDIAN);
+			var session = new DecodedSession();
+			in.position(offset);
 
-		@SneakyThrows
-		void parseTransaction(Session<Long, Long> session) {
 			var length = in.readLong();
-			var events = new ArrayList<Triple<Event.EventType, Long, Long>>();
 			for (long i = 0; i < length; i++) {
-				var write = in.readBoolean();
-				var key = in.readLong();
-				var value = in.readLong();
-				var success = in.readBoolean();
+				var begin = session.keys.size();
+				var eventNum = in.readLong();
+				for (long j = 0; j < eventNum; j++) {
+					var write = in.readByte() != 0;
+					var key = in.readLong();
+					var value = in.readLong();
+					var success = in.readByte() != 0;
+
+					if (success) {
+						session.allKeys.add(key);
+						session.writes.set(session.keys.size(), write);
+						session.keys.add(key);
+						session.values.add(value);
+					}
+				}
 
+				var success = in.readByte() != 0;
 				if (success) {
-					keys.add(key);
-					events.add(Triple.of(write ? WRITE : READ, key, value));
+					session.transactionEnds.add(session.keys.size());
+				} else {
+					session.keys.truncate(begin);
+					session.values.truncate(begin);
 				}
 			}
 
-			var success = in.readBoolean();
-			if (success) {
+			return session;
+		}
+
+		private void addSession(DecodedSession decoded) {
+			var session = history.addSession(sessionId++);
+			var begin = 0;
+			for (int i = 0; i < decoded.transactionEnds.size(); i++) {
 				var txn = history.addTransaction(session, transactionId++);
-				events.forEach(t -> history.addEvent(txn, t.getLeft(), t.getMiddle(), t.getRight()));
+				var end = decoded.transactionEnds.get(i);
+				for (int j = begin; j < end; j++) {
+					history.addEvent(txn, decoded.writes.get(j) ? WRITE : READ, decoded.keys.get(j),
+							decoded.values.get(j));
+				}
+				begin = end;
 			}
+
+			keys.addAll(decoded.allKeys);
 		}
 	}
 
+	/*
+	 * Committed transactions of a session. Events of transaction i are
+	 * [transactionEnds[i - 1], transactionEnds[i]).
+	 */
+	private static class DecodedSession {
+		private final IntList transactionEnds = new IntList();
+		private final BitSet writes = new BitSet();
+		private final LongList keys = new LongList();
+		private final LongList values = new LongList();
+		// keys of successful events, including those in aborted transactions, in
+		// file order, so that the initial writes are in the same order as reading
+		// the file sequentially
+		private final Set<Long> allKeys = new LinkedHashSet<>();
+	}
+
 	@RequiredArgsConstructor
 	private static class InternalDumper {
 		private final History<Long, Long> history;
@@ -181,12 +250,111 @@ public class DBCopHistoryLoader implements HistoryParser<Long, Long> {
 			out.writeBoolean(true); // success
 		}
 
-		@SneakyThrows
 		void dumpString(String str) {
-			var bytes = str.getBytes(StandardCharsets.UTF_8);
-			out.writeLong(bytes.length);
-			out.write(bytes);
+			DBCopHistoryLoader.dumpString(out, str);
+		}
+	}
+
+	/*
+	 * Sessions are written in one piece in a DBCop history, so the transactions
+	 * of each session are spooled to a temporary file next to the history. The
+	 * header and the sessions are written on close.
+	 */
+	private static class StreamDumper implements HistoryStream {
+		private final File logFile;
+		private final HashMap<Long, Spool> sessions = new HashMap<>();
+		private final Set<Long> keys = new HashSet<>();
+		private long transactionNum = 0;
+		private long eventNum = 0;
+
+		private Spool current;
+		private final ArrayList<Triple<Boolean, Long, Long>> events = new ArrayList<>();
+
+		StreamDumper(File logFile) {
+			this.logFile = logFile.getAbsoluteFile();
+		}
+
+		@RequiredArgsConstructor
+		private static class Spool {
+			private final File file;
+			private final LittleEndianDataOutputStream out;
+			private long transactions = 0;
+		}
+
+		@Override
+		public void startTransaction(long session, long id) {
+			current = sessions.computeIfAbsent(session, s -> newSpool());
+			events.clear();
 		}
+
+		@Override
+		public void read(long key, long value, long writer) {
+			events.add(Triple.of(false, key, value));
+		}
+
+		@Override
+		public void write(long key, long value) {
+			events.add(Triple.of(true, key, value));
+		}
+
+		@Override
+		@SneakyThrows
+		public void commitTransaction() {
+			var out = current.out;
+			out.writeLong(events.size());
+			for (var ev : events) {
+				out.writeBoolean(ev.getLeft());
+				out.writeLong(ev.getMiddle());
+				out.writeLong(ev.getRight());
+				out.writeBoolean(true); // success
+				keys.add(ev.getMiddle());
+			}
+			out.writeBoolean(true); // success
+
+			current.transactions++;
+			transactionNum++;
+			eventNum += events.size();
+		}
+
+		@Override
+		@SneakyThrows
+		public void close() {
+			try (var out = new LittleEndianDataOutputStream(
+					new BufferedOutputStream(new FileOutputStream(logFile)))) {
+				out.writeLong(0); // id
+				out.writeLong(sessions.size()); // nodeNum
+				out.writeLong(keys.size()); // variableNum
+				out.writeLong(transactionNum); // transactionNum
+				out.writeLong(eventNum); // eventNum
+				dumpString(out, "generated by SIVerifier"); // info
+				var d = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssXXX").format(new Date());
+				dumpString(out, d); // start
+				dumpString(out, d); // end
+
+				out.writeLong(sessions.size());
+				for (var spool : sessions.values()) {
+					spool.out.close();
+					out.writeLong(spool.transactions);
+					Files.copy(spool.file.toPath(), out);
+				}
+			} finally {
+				sessions.values().forEach(spool -> spool.file.delete());
+			}
+		}
+
+		@SneakyThrows
+		private Spool newSpool() {
+			var file = File.createTempFile("session", ".spool", logFile.getParentFile());
+			return new Spool(file,
+					new LittleEndianDataOutputStream(new BufferedOutputStream(new FileOutputStream(file))));
+		}
+	}
+
+	@SneakyThrows
+	private static void dumpString(LittleEndianDataOutputStream out, String str) {
+		var bytes = str.getBytes(StandardCharsets.UTF_8);
+		out.writeLong(bytes.length);
+		out.write(bytes);
 	}
 
 	@Override
@@ -1,249 +1,475 @@
 package history.loaders;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
-import java.nio.CharBuffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Map;
-import java.util.function.BiFunction;
-import java.util.function.Function;
-import java.util.regex.Pattern;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
-import org.apache.commons.lang3.tuple.Triple;
+import com.google.common.primitives.Ints;
 
 import history.History;
 import history.HistoryLoader;
+import history.ValueCodec;
 import history.Event.EventType;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
-import lombok.RequiredArgsConstructor;
 import lombok.SneakyThrows;
+import util.IntList;
 
-import static java.util.Map.entry;
-
-@AllArgsConstructor
 public class ElleHistoryLoader implements HistoryLoader<Integer, ElleHistoryLoader.ElleValue> {
     private final Path historyPath;
+    private final long minChunkSize;
+
+    public ElleHistoryLoader(Path historyPath) {
+        this(historyPath, MappedInput.MIN_CHUNK_SIZE);
+    }
 
+    // smaller chunks let tests split small files
+    ElleHistoryLoader(Path historyPath, long minChunkSize) {
+        this.historyPath = historyPath;
+        this.minChunkSize = minChunkSize;
+    }
+
+    /*
+     * Chunks are memory-mapped and parsed in parallel, then added to the
+     * history in file order. Transaction ids are the indices of :ok
+     * transactions in the file.
+     */
     @Override
     @SneakyThrows
     public History<Integer, ElleHistoryLoader.ElleValue> loadHistory() {
-        try (var in = new BufferedReader(new FileReader(historyPath.toFile()))) {
-            return parseFile(in);
-        }
-    }
+        try (var channel = FileChannel.open(historyPath, StandardOpenOption.READ)) {
+            var bounds = MappedInput.splitLines(channel, minChunkSize);
+            var chunks = IntStream.range(0, bounds.length - 1)
+                    .mapToObj(i -> CompletableFuture.supplyAsync(() -> parseChunk(channel, bounds[i], bounds[i + 1])))
+                    .collect(Collectors.toCollection(ArrayList::new));
+
+            var history = Utils.<Integer, ElleHistoryLoader.ElleValue>newHistory(ValueCodec.dictionary());
+            var keys = new LinkedHashSet<Integer>();
+            var txnId = 0L;
+            for (int i = 0; i < chunks.size(); i++) {
+                DecodedChunk chunk;
+                try {
+                    chunk = chunks.get(i).join();
+                } catch (CompletionException e) {
+                    throw e.getCause();
+                }
+                chunks.set(i, null);
 
-    private History<Integer, ElleHistoryLoader.ElleValue> parseFile(BufferedReader reader) {
-        var history = new History<Integer, ElleHistoryLoader.ElleValue>();
-        reader.lines().forEachOrdered(line -> parseLine(history, CharBuffer.wrap(line)));
+                txnId = addChunk(history, chunk, txnId, keys);
+            }
 
-        var initSession = history.addSession(-1);
-        var initTxn = history.addTransaction(initSession, -1);
-        history.getEvents().stream().map(e -> e.getKey()).distinct()
-                .forEach(k -> history.addEvent(initTxn, EventType.WRITE, k, new ElleValue(null, null)));
+            var initSession = history.addSession(-1);
+            var initTxn = history.addTransaction(initSession, -1);
+            keys.forEach(k -> history.addEvent(initTxn, EventType.WRITE, k, new ElleValue(null, null)));
 
-        return history;
+            return history;
+        }
     }
 
-    private void parseLine(History<Integer, ElleHistoryLoader.ElleValue> history, CharBuffer line) {
-        assertEq(line.charAt(0), '{');
-        advance(line, 1);
-
-        var keyRegex = Pattern.compile(":\\w+");
-        ArrayList<Triple<EventType, Integer, ElleValue>> txnValue = null;
-        Integer txnProcess = null;
-        while (line.charAt(0) != '}') {
-            var result = keyRegex.matcher(line.duplicate());
-
-            if (!result.lookingAt()) {
-                throw new RuntimeException(String.format("No match in \"%s\"", line));
-            }
-            skipCommaAndSpace(advance(line, result.group().length()));
+    @SneakyThrows
+    private static DecodedChunk parseChunk(FileChannel channel, long begin, long end) {
+        var buf = channel.map(FileChannel.MapMode.READ_ONLY, begin, end - begin);
+        return new ChunkParser(buf, begin).parse();
+    }
 
-            switch (result.group()) {
-            case ":type":
-                if (parseType(line) != LogType.OK) {
-                    return;
-                }
-                break;
-            case ":f":
-                parseF(line);
-                break;
-            case ":value":
-                txnValue = parseValue(line);
-                break;
-            case ":time":
-                parseLong(line);
-                break;
-            case ":process":
-                txnProcess = parseInt(line);
-                break;
-            case ":index":
-                parseInt(line);
-                break;
-            default:
-                throw new RuntimeException(String.format("Unknown key \"%s\"", result.group()));
+    private static long addChunk(History<Integer, ElleValue> history, DecodedChunk chunk, long txnId,
+            LinkedHashSet<Integer> keys) {
+        // lists read are views of this array
+        var lists = chunk.lists.toArray();
+        var begin = 0;
+        for (int i = 0; i < chunk.processes.size(); i++) {
+            var process = chunk.processes.get(i);
+            var session = history.getSession(process);
+            if (session == null) {
+                session = history.addSession(process);
             }
 
-            skipCommaAndSpace(line);
-        }
+            var txn = history.addTransaction(session, txnId++);
+            var end = chunk.transactionEnds.get(i);
+            for (int j = begin; j < end; j++) {
+                var key = chunk.keys.get(j);
+                var value = chunk.values.get(j);
+                keys.add(key);
 
-        if (txnProcess == null || txnValue == null) {
-            throw new RuntimeException(String.format("Missing :process or :value in \"%s\"", line.clear()));
-        }
+                if (!chunk.reads.get(j)) {
+                    history.addEvent(txn, EventType.WRITE, key, new ElleValue(value, null));
+                    continue;
+                }
 
-        var session = history.getSession(txnProcess);
-        if (session == null) {
-            session = history.addSession(txnProcess);
+                var length = lists[value];
+                history.addEvent(txn, EventType.READ, key, new ElleValue(length == 0 ? null : lists[value + length],
+                        Ints.asList(lists).subList(value + 1, value + 1 + length)));
+            }
+            begin = end;
         }
 
-        var txnId = history.getTransactions().size();
-        var txn = history.addTransaction(session, txnId);
+        return txnId;
+    }
 
-        txnValue.forEach(v -> history.addEvent(txn, v.getLeft(), v.getMiddle(), v.getRight()));
+    /*
+     * :ok transactions of a chunk. Events of transaction i are
+     * [transactionEnds[i - 1], transactionEnds[i]).
+     *
+     * For an append, values[e] is the appended value. For a read, values[e] is
+     * the offset in lists of the length of the list read, which is followed by
+     * its elements.
+     */
+    private static class DecodedChunk {
+        private final IntList processes = new IntList();
+        private final IntList transactionEnds = new IntList();
+        private final BitSet reads = new BitSet();
+        private final IntList keys = new IntList();
+        private final IntList values = new IntList();
+        private final IntList lists = new IntList();
     }
 
-    private LogType parseType(CharBuffer s) {
-        var typeMap = Map.ofEntries(
-            entry(":invoke", LogType.INVOKE),
-            entry(":ok", LogType.OK),
-            entry(":fail", LogType.FAIL),
-            entry(":info", LogType.INFO)
-        );
-
-        for (var e : typeMap.entrySet()) {
-            if (startsWith(s, e.getKey())) {
-                advance(s, e.getKey().length());
-                return e.getValue();
+    /*
+     * Parses operation maps like
+     *
+     * {:type :ok, :f :txn, :value [[:r 1 [2 3]] [:append 1 4]], :process 0, :index 1}
+     *
+     * one per line. Only :ok transactions are kept: :invoke only has the
+     * operations requested, :fail transactions did not take effect, and it is
+     * unknown whether :info ones did. Keys other than :type, :f, :value and
+     * :process are skipped, as are the values of operations not kept. A tagged
+     * value, like #inst "..." in an :error, is skipped with its tag, and #_
+     * discards the value after it wherever it appears.
+     */
+    private static class ChunkParser {
+        private static final byte[] TYPE = bytes(":type");
+        private static final byte[] F = bytes(":f");
+        private static final byte[] VALUE = bytes(":value");
+        private static final byte[] PROCESS = bytes(":process");
+        private static final byte[] OK = bytes(":ok");
+        private static final byte[] INVOKE = bytes(":invoke");
+        private static final byte[] FAIL = bytes(":fail");
+        private static final byte[] INFO = bytes(":info");
+        private static final byte[] TXN = bytes(":txn");
+        private static final byte[] READ = bytes(":r");
+        private static final byte[] APPEND = bytes(":append");
+        private static final byte[] NIL = bytes("nil");
+
+        private final ByteBuffer buf;
+        private final long offset;
+        private final int limit;
+        private final DecodedChunk chunk = new DecodedChunk();
+        private int pos = 0;
+
+        ChunkParser(ByteBuffer buf, long offset) {
+            this.buf = buf;
+            this.offset = offset;
+            this.limit = buf.limit();
+        }
+
+        DecodedChunk parse() {
+            while (skipWhitespace() != -1) {
+                parseOperation();
             }
+            return chunk;
         }
 
-        throw new RuntimeException(String.format("Unknown :type in \"%s\"", s));
-    }
+        private void parseOperation() {
+            var begin = pos;
+            expect('{');
+
+            LogType type = null;
+            var isTxn = false;
+            var process = 0;
+            var hasProcess = false;
+            // position of :value if it is not parsed yet
+            var valuePos = -1;
+            var hasValue = false;
+            while (skipWhitespace() != '}') {
+                if (consume(TYPE)) {
+                    skipWhitespace();
+                    type = parseType();
+                } else if (consume(F)) {
+                    skipWhitespace();
+                    isTxn = consume(TXN);
+                    if (!isTxn) {
+                        skipValue();
+                    }
+                } else if (consume(VALUE)) {
+                    skipWhitespace();
+                    hasValue = true;
+                    if (type == LogType.OK && isTxn) {
+                        parseTxnValue();
+                    } else {
+                        valuePos = pos;
+                        skipValue();
+                    }
+                } else if (consume(PROCESS)) {
+                    skipWhitespace();
+                    hasProcess = isNumber();
+                    if (hasProcess) {
+                        process = parseInt();
+                    } else {
+                        skipValue();
+                    }
+                } else {
+                    skipValue();
+                    skipWhitespace();
+                    skipValue();
+                }
+            }
+            pos++;
+
+            if (type == null) {
+                throw error(begin, "Missing :type");
+            } else if (type != LogType.OK) {
+                return;
+            } else if (!isTxn || !hasValue || !hasProcess) {
+                throw error(begin, "Missing :f :txn, :value or :process");
+            }
 
-    private void parseF(CharBuffer s) {
-        if (!startsWith(s, ":txn")) {
-            throw new RuntimeException(String.format("Unknown :f in \"%s\"", s));
+            if (valuePos != -1) {
+                var end = pos;
+                pos = valuePos;
+                parseTxnValue();
+                pos = end;
+            }
+            chunk.processes.add(process);
+            chunk.transactionEnds.add(chunk.keys.size());
         }
 
-        advance(s, ":txn".length());
-    }
-
-    private ArrayList<Triple<EventType, Integer, ElleValue>> parseValue(CharBuffer s) {
-        assertEq(s.charAt(0), '[');
-        advance(s, 1);
+        private LogType parseType() {
+            if (consume(OK)) {
+                return LogType.OK;
+            } else if (consume(INVOKE)) {
+                return LogType.INVOKE;
+            } else if (consume(FAIL)) {
+                return LogType.FAIL;
+            } else if (consume(INFO)) {
+                return LogType.INFO;
+            }
+            throw error(pos, "Unknown :type");
+        }
 
-        var events = new ArrayList<Triple<EventType, Integer, ElleValue>>();
-        while (true) {
-            skipCommaAndSpace(s);
-            if (s.charAt(0) == ']') {
-                advance(s, 1);
-                break;
+        private void parseTxnValue() {
+            expect('[');
+            while (skipWhitespace() != ']') {
+                parseEvent();
             }
-            events.add(parseEvent(s));
+            pos++;
         }
 
-        return events;
-    }
+        private void parseEvent() {
+            expect('[');
+            skipWhitespace();
+
+            if (consume(READ)) {
+                skipWhitespace();
+                var key = parseInt();
+                skipWhitespace();
+                chunk.reads.set(chunk.keys.size());
+                chunk.keys.add(key);
+                chunk.values.add(chunk.lists.size());
+                parseList();
+            } else if (consume(APPEND)) {
+                skipWhitespace();
+                var key = parseInt();
+                skipWhitespace();
+                chunk.keys.add(key);
+                chunk.values.add(parseInt());
+            } else {
+                throw error(pos, "Unknown event");
+            }
 
-    private Triple<EventType, Integer, ElleValue> parseEvent(CharBuffer s) {
-        assertEq(s.charAt(0), '[');
-        advance(s, 1);
-
-        Triple<EventType, Integer, ElleValue> result;
-        if (startsWith(s, ":r ")) {
-            advance(s, ":r ".length());
-            var key = parseInt(s);
-            skipCommaAndSpace(s);
-            var list = parseList(s);
-            result = Triple.of(EventType.READ, key,
-                    new ElleValue(list.isEmpty() ? null : list.get(list.size() - 1), list));
-        } else if (startsWith(s, ":append ")) {
-            advance(s, ":append ".length());
-            var key = parseInt(s);
-            skipCommaAndSpace(s);
-            var value = parseInt(s);
-            result = Triple.of(EventType.WRITE, key, new ElleValue(value, null));
-        } else {
-            throw new RuntimeException(String.format("Unknown event in \"%s\"", s));
+            if (skipWhitespace() != ']') {
+                throw error(pos, "Expected ]");
+            }
+            pos++;
         }
 
-        assertEq(s.charAt(0), ']');
-        advance(s, 1);
-        return result;
-    }
+        private void parseList() {
+            var lengthIndex = chunk.lists.size();
+            chunk.lists.add(0);
+            if (consume(NIL)) {
+                return;
+            }
 
-    private <T> T parseIntegerType(CharBuffer s, BiFunction<CharSequence, Integer, T> parser) {
-        int i = 0;
-        while (Character.isDigit(s.charAt(i))) {
-            i++;
+            expect('[');
+            while (skipWhitespace() != ']') {
+                chunk.lists.add(parseInt());
+            }
+            pos++;
+            chunk.lists.set(lengthIndex, chunk.lists.size() - lengthIndex - 1);
         }
 
-        var result = parser.apply(s, i);
-        advance(s, i);
-        return result;
-    }
+        private boolean isNumber() {
+            var c = peek();
+            return c == '-' || (c >= '0' && c <= '9');
+        }
 
-    private Integer parseInt(CharBuffer s) {
-        return parseIntegerType(s, (cs, i) -> Integer.parseInt(cs, 0, i, 10));
-    }
+        private int parseInt() {
+            var begin = pos;
+            var negative = peek() == '-';
+            if (negative) {
+                pos++;
+            }
 
-    private Long parseLong(CharBuffer s) {
-        return parseIntegerType(s, (cs, i) -> Long.parseLong(cs, 0, i, 10));
-    }
+            long value = 0;
+            while (pos < limit) {
+                var c = buf.get(pos);
+                if (c < '0' || c > '9') {
+                    break;
+                }
+                value = value * 10 + (c - '0');
+                if (value > (long) Integer.MAX_VALUE + 1) {
+                    throw error(begin, "Integer out of range");
+                }
+                pos++;
+            }
 
-    private List<Integer> parseList(CharBuffer s) {
-        if (startsWith(s, "nil")) {
-            advance(s, "nil".length());
-            return List.of();
+            if (pos == begin + (negative ? 1 : 0)) {
+                throw error(begin, "Expected an integer");
+            }
+            value = negative ? -value : value;
+            if (value > Integer.MAX_VALUE) {
+                throw error(begin, "Integer out of range");
+            }
+            return (int) value;
         }
 
-        assertEq(s.charAt(0), '[');
-        advance(s, 1);
-
-        var list = new ArrayList<Integer>();
-        while (true) {
-            skipCommaAndSpace(s);
-            if (s.charAt(0) == ']') {
-                advance(s, 1);
+        // skip an EDN value of any type
+        private void skipValue() {
+            var begin = pos;
+            var c = peek();
+            switch (c) {
+            case '#':
+                pos++;
+                switch (peek()) {
+                case '{':
+                case '"':
+                    // sets and regexes
+                    skipValue();
+                    break;
+                case '#':
+                    // ##Inf, ##NaN
+                    pos++;
+                    skipValue();
+                    break;
+                default:
+                    // a tag, like #inst or #object, and the value tagged
+                    skipValue();
+                    skipWhitespace();
+                    skipValue();
+                }
+                break;
+            case '[':
+            case '(':
+            case '{': {
+                var close = c == '[' ? ']' : c == '(' ? ')' : '}';
+                pos++;
+                while (skipWhitespace() != close) {
+                    skipValue();
+                }
+                pos++;
+                break;
+            }
+            case '"':
+                pos++;
+                while (peek() != '"') {
+                    pos += peek() == '\\' ? 2 : 1;
+                }
+                pos++;
                 break;
+            default:
+                while (pos < limit && !isDelimiter(buf.get(pos))) {
+                    pos++;
+                }
+                if (pos == begin) {
+                    throw error(begin, "Unexpected character");
+                }
             }
-            list.add(parseInt(s));
         }
 
-        return list;
-    }
+        // skip whitespace, commas and values discarded by #_, and return the
+        // next byte, or -1 at the end
+        private int skipWhitespace() {
+            while (pos < limit) {
+                var c = buf.get(pos);
+                if (isWhitespace(c)) {
+                    pos++;
+                } else if (c == '#' && pos + 1 < limit && buf.get(pos + 1) == '_') {
+                    pos += 2;
+                    skipWhitespace();
+                    skipValue();
+                } else {
+                    break;
+                }
+            }
+            return pos < limit ? buf.get(pos) : -1;
+        }
+
+        private boolean consume(byte[] token) {
+            if (pos + token.length > limit) {
+                return false;
+            }
+            for (int i = 0; i < token.length; i++) {
+                if (buf.get(pos + i) != token[i]) {
+                    return false;
+                }
+            }
+            if (pos + token.length < limit && !isDelimiter(buf.get(pos + token.length))) {
+                return false;
+            }
 
-    private void assertEq(char a, char b) {
-        if (a != b) {
-            throw new AssertionError();
+            pos += token.length;
+            return true;
         }
-    }
 
-    private CharBuffer skipCommaAndSpace(CharBuffer s) {
-        int i = 0;
-        while (s.charAt(i) == ',' || s.charAt(i) == ' ') {
-            i++;
+        private void expect(char c) {
+            if (peek() != c) {
+                throw error(pos, String.format("Expected %c", c));
+            }
+            pos++;
         }
 
-        return advance(s, i);
-    }
+        private byte peek() {
+            if (pos >= limit) {
+                throw error(pos, "Unexpected end of file");
+            }
+            return buf.get(pos);
+        }
 
-    private CharBuffer advance(CharBuffer s, int length) {
-        return s.position(s.position() + length);
-    }
+        private static boolean isWhitespace(byte c) {
+            return c == ' ' || c == ',' || c == '\n' || c == '\r' || c == '\t';
+        }
 
-    private boolean startsWith(CharSequence a, CharSequence b) {
-        for (int i = 0; i < b.length(); i++) {
-            if (a.charAt(i) != b.charAt(i)) {
-                return false;
+        private static boolean isDelimiter(byte c) {
+            switch (c) {
+            case '[':
+            case ']':
+            case '(':
+            case ')':
+            case '{':
+            case '}':
+            case '"':
+                return true;
+            default:
+                return isWhitespace(c);
             }
         }
 
-        return true;
+        private RuntimeException error(int at, String message) {
+            return new RuntimeException(String.format("%s at offset %d", message, offset + at));
+        }
+
+        private static byte[] bytes(String s) {
+            return s.getBytes(StandardCharsets.US_ASCII);
+        }
     }
 
     /**
@@ -0,0 +1,126 @@
+package history.loaders;
+
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import history.InvalidHistoryError;
+import lombok.SneakyThrows;
+
+/*
+ * Reads a file through memory-mapped windows, so that files larger than 2GB
+ * can be read. A value crossing a window is read from the next window.
+ *
+ * Each thread should use its own instance. Reading past the end of the file
+ * throws InvalidHistoryError.
+ */
+class MappedInput {
+	static final long WINDOW_SIZE = 1L << 30;
+
+	// default minimum size of the chunks text files are split into. Chunks are
+	// at most MAX_CHUNK_SIZE bytes plus a line
+	static final long MIN_CHUNK_SIZE = 1L << 20;
+	private static final long MAX_CHUNK_SIZE = 1L << 28;
+
+	private final FileChannel channel;
+	private final ByteOrder order;
+	private final long size;
+	private final long windowSize;
+
+	private MappedByteBuffer window;
+	private long windowStart = 0;
+	private long position = 0;
+
+	MappedInput(FileChannel channel, ByteOrder order) {
+		this(channel, order, WINDOW_SIZE);
+	}
+
+	// small windows make values cross windows in small files
+	@SneakyThrows
+	MappedInput(FileChannel channel, ByteOrder order, long windowSize) {
+		this.channel = channel;
+		this.order = order;
+		this.size = channel.size();
+		this.windowSize = windowSize;
+	}
+
+	long size() {
+		return size;
+	}
+
+	long position() {
+		return position;
+	}
+
+	void position(long position) {
+		this.position = position;
+	}
+
+	boolean hasRemaining() {
+		return position < size;
+	}
+
+	void skip(long n) {
+		position += n;
+	}
+
+	byte readByte() {
+		ensure(1);
+		return window.get((int) (position++ - windowStart));
+	}
+
+	int readInt() {
+		ensure(Integer.BYTES);
+		var value = window.getInt((int) (position - windowStart));
+		position += Integer.BYTES;
+		return value;
+	}
+
+	long readLong() {
+		ensure(Long.BYTES);
+		var value = window.getLong((int) (position - windowStart));
+		position += Long.BYTES;
+		return value;
+	}
+
+	@SneakyThrows
+	private void ensure(int n) {
+		if (position < 0 || position + n > size) {
+			throw new InvalidHistoryError();
+		}
+
+		if (window == null || position < windowStart || position + n > windowStart + window.capacity()) {
+			windowStart = position;
+			window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(windowSize, size - position));
+			window.order(order);
+		}
+	}
+
+	/*
+	 * Split a text file into chunks for parsing in parallel. Every chunk except
+	 * the first starts after a newline.
+	 *
+	 * @return the chunk boundaries, from 0 to the size of the file
+	 */
+	static long[] splitLines(FileChannel channel, long minChunkSize) {
+		var in = new MappedInput(channel, ByteOrder.BIG_ENDIAN);
+		var size = in.size();
+		var n = (int) Math.max(1, Math.max(
+				Math.min(size / minChunkSize, Runtime.getRuntime().availableProcessors() * 4L),
+				(size + MAX_CHUNK_SIZE - 1) / MAX_CHUNK_SIZE));
+
+		var bounds = new long[n + 1];
+		bounds[n] = size;
+		for (int i = 1; i < n; i++) {
+			in.position(Math.max(size * i / n, bounds[i - 1]));
+			while (in.hasRemaining()) {
+				if (in.readByte() == '\n') {
+					break;
+				}
+			}
+			bounds[i] = in.position();
+		}
+
+		return bounds;
+	}
+}
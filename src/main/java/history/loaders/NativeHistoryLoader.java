@@ -0,0 +1,498 @@
+package history.loaders;
+
+import static history.Event.EventType.READ;
+import static history.Event.EventType.WRITE;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutput;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import com.google.common.io.CountingOutputStream;
+import com.google.common.io.LittleEndianDataOutputStream;
+
+import org.apache.commons.lang3.tuple.Pair;
+
+import history.Event;
+import history.History;
+import history.HistoryParser;
+import history.HistoryStream;
+import history.InvalidHistoryError;
+import history.ValueCodec;
+import lombok.SneakyThrows;
+import util.IntList;
+import util.LongIntHashMap;
+import util.LongList;
+import util.LongObjectHashMap;
+
+/**
+ * PolySI's own binary history format.
+ *
+ * The file has a header, sections, and a section table at the end. All
+ * fixed-size numbers are little-endian.
+ *
+ * header: int magic ("PSIH"), int version, long offset of the section table
+ *
+ * section table: long number of sessions, transactions and events, followed by
+ * long offset and length of the key dictionary, the value dictionary, and each
+ * session section
+ *
+ * Inside sections, numbers are varints, and signed ones are zigzag-encoded. A
+ * dictionary has its size and the distinct keys or values, delta-encoded. A
+ * session section has the session id, the number of transactions, then the
+ * columns:
+ *
+ * - transaction ids, delta-encoded
+ *
+ * - number of events in each transaction
+ *
+ * - event types, one bit per event, set for writes
+ *
+ * - event keys, as indices into the key dictionary
+ *
+ * - event values, as indices into the value dictionary, delta-encoded
+ *
+ * Sections are independent, so they are mapped and decoded in parallel.
+ */
+public class NativeHistoryLoader implements HistoryParser<Long, Long> {
+	private static final int MAGIC = 0x48495350;
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = Integer.BYTES * 2 + Long.BYTES;
+
+	// the initial transaction added by openStream(), in a session of its own
+	private static final long INIT_SESSION_ID = HistoryStream.INIT_TRANSACTION;
+	private static final long INIT_VALUE = 0;
+
+	private final File file;
+
+	public NativeHistoryLoader(Path path) {
+		file = path.toFile();
+	}
+
+	/*
+	 * Long keys and values are kept as they are, so that transactions printed
+	 * can be matched with the original history. Other types are mapped to ids.
+	 */
+	@Override
+	public <T, U> History<Long, Long> convertFrom(History<T, U> history) {
+		var events = history.getEvents();
+		var keys = toLong(events.stream().map(Event::getKey).collect(Collectors.toList()));
+		var values = toLong(events.stream().map(Event::getValue).collect(Collectors.toList()));
+
+		return Utils.convertHistory(history, ev -> Pair.of(keys.apply(ev.getKey()), values.apply(ev.getValue())),
+				ev -> true);
+	}
+
+	private static <T> Function<T, Long> toLong(Collection<T> objects) {
+		if (objects.stream().allMatch(o -> o instanceof Long)) {
+			return o -> (Long) o;
+		}
+
+		var ids = Utils.getIdMap(objects.stream(), 1);
+		return ids::get;
+	}
+
+	@Override
+	@SneakyThrows
+	public History<Long, Long> loadHistory() {
+		try (var channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			var in = new MappedInput(channel, ByteOrder.LITTLE_ENDIAN);
+			if (in.size() < HEADER_SIZE || in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new InvalidHistoryError();
+			}
+
+			in.position(in.readLong());
+			var sessionCount = in.readLong();
+			// each session has an offset and a length in the table
+			if (sessionCount < 0 || sessionCount > in.size() / (Long.BYTES * 2)) {
+				throw new InvalidHistoryError();
+			}
+			var sessionNum = (int) sessionCount;
+			var transactionNum = in.readLong();
+			var eventNum = in.readLong();
+
+			var keysOffset = in.readLong();
+			var keysLength = in.readLong();
+			var valuesOffset = in.readLong();
+			var valuesLength = in.readLong();
+			var keys = CompletableFuture.supplyAsync(() -> decodeDictionary(channel, keysOffset, keysLength));
+			var values = CompletableFuture.supplyAsync(() -> decodeDictionary(channel, valuesOffset, valuesLength));
+
+			var sessions = new ArrayList<CompletableFuture<DecodedSession>>(sessionNum);
+			for (int i = 0; i < sessionNum; i++) {
+				var offset = in.readLong();
+				var length = in.readLong();
+				sessions.add(CompletableFuture.supplyAsync(() -> decodeSession(channel, offset, length)));
+			}
+
+			var history = Utils.<Long, Long>newHistory(ValueCodec.ofLong());
+			var keyDict = join(keys);
+			var valueDict = join(values);
+			for (int i = 0; i < sessionNum; i++) {
+				var decoded = join(sessions.get(i));
+				sessions.set(i, null);
+
+				var session = history.addSession(decoded.id);
+				var e = 0;
+				transactionNum -= decoded.transactionIds.length;
+				eventNum -= decoded.keys.length;
+				for (int j = 0; j < decoded.transactionIds.length; j++) {
+					var txn = history.addTransaction(session, decoded.transactionIds[j]);
+					for (int end = e + decoded.eventNums[j]; e < end; e++) {
+						var key = decoded.keys[e];
+						var value = decoded.values[e];
+						if (key >= keyDict.length || value >= valueDict.length) {
+							throw new InvalidHistoryError();
+						}
+						history.addEvent(txn, decoded.writes.get(e) ? WRITE : READ, keyDict[key], valueDict[value]);
+					}
+				}
+			}
+
+			if (transactionNum != 0 || eventNum != 0) {
+				throw new InvalidHistoryError();
+			}
+
+			return history;
+		}
+	}
+
+	@SneakyThrows
+	private static <T> T join(CompletableFuture<T> future) {
+		try {
+			return future.join();
+		} catch (CompletionException e) {
+			throw e.getCause();
+		}
+	}
+
+	@SneakyThrows
+	private static ByteBuffer mapSection(FileChannel channel, long offset, long length) {
+		if (offset < HEADER_SIZE || length < 0 || length > Integer.MAX_VALUE || offset > channel.size() - length) {
+			throw new InvalidHistoryError();
+		}
+		return channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+	}
+
+	private static long[] decodeDictionary(FileChannel channel, long offset, long length) {
+		var buf = mapSection(channel, offset, length);
+		var dict = new long[readCount(buf)];
+		var prev = 0L;
+		for (int i = 0; i < dict.length; i++) {
+			prev += readSigned(buf);
+			dict[i] = prev;
+		}
+
+		return dict;
+	}
+
+	private static DecodedSession decodeSession(FileChannel channel, long offset, long length) {
+		var buf = mapSection(channel, offset, length);
+		var session = new DecodedSession();
+		session.id = readSigned(buf);
+
+		var txnNum = readCount(buf);
+		session.transactionIds = new long[txnNum];
+		var prev = 0L;
+		for (int i = 0; i < txnNum; i++) {
+			prev += readSigned(buf);
+			session.transactionIds[i] = prev;
+		}
+
+		session.eventNums = new int[txnNum];
+		var eventCount = 0L;
+		for (int i = 0; i < txnNum; i++) {
+			session.eventNums[i] = readCount(buf);
+			eventCount += session.eventNums[i];
+		}
+		if (eventCount > buf.remaining()) {
+			throw new InvalidHistoryError();
+		}
+		var eventNum = (int) eventCount;
+
+		var typeBytes = (eventNum + 7) / 8;
+		if (typeBytes > buf.remaining()) {
+			throw new InvalidHistoryError();
+		}
+		session.writes = BitSet.valueOf(buf.slice().limit(typeBytes));
+		buf.position(buf.position() + typeBytes);
+
+		session.keys = new int[eventNum];
+		for (int i = 0; i < eventNum; i++) {
+			session.keys[i] = readIndex(readVarLong(buf));
+		}
+
+		session.values = new int[eventNum];
+		prev = 0;
+		for (int i = 0; i < eventNum; i++) {
+			prev += readSigned(buf);
+			session.values[i] = readIndex(prev);
+		}
+
+		return session;
+	}
+
+	private static class DecodedSession {
+		private long id;
+		private long[] transactionIds;
+		private int[] eventNums;
+		private BitSet writes;
+		private int[] keys;
+		private int[] values;
+	}
+
+	@Override
+	@SneakyThrows
+	public void dumpHistory(History<Long, Long> history) {
+		try (var out = new Writer()) {
+			for (var session : history.getSessions()) {
+				out.addSession(session.getId());
+				for (var txn : session.getTransactions()) {
+					out.startTransaction(session.getId(), txn.getId());
+					for (var ev : txn.getEvents()) {
+						if (ev.getType() == READ) {
+							out.read(ev.getKey(), ev.getValue(), HistoryStream.INIT_TRANSACTION);
+						} else {
+							out.write(ev.getKey(), ev.getValue());
+						}
+					}
+					out.commitTransaction();
+				}
+			}
+		}
+	}
+
+	/*
+	 * Transactions are kept in memory until the stream is closed, then an
+	 * initial transaction writing INIT_VALUE to every key is added.
+	 */
+	@Override
+	public HistoryStream openStream() {
+		return new Writer() {
+			@Override
+			public void close() {
+				var keyNum = keys.size();
+				startTransaction(INIT_SESSION_ID, HistoryStream.INIT_TRANSACTION);
+				for (int i = 0; i < keyNum; i++) {
+					write(keys.get(i), INIT_VALUE);
+				}
+				commitTransaction();
+				super.close();
+			}
+		};
+	}
+
+	/*
+	 * A count of items that take at least one byte each in the rest of the
+	 * section
+	 */
+	private static int readCount(ByteBuffer buf) {
+		var count = readVarLong(buf);
+		if (count < 0 || count > buf.remaining()) {
+			throw new InvalidHistoryError();
+		}
+		return (int) count;
+	}
+
+	// an index into a dictionary, checked against its size when it is used
+	private static int readIndex(long index) {
+		if (index < 0 || index > Integer.MAX_VALUE) {
+			throw new InvalidHistoryError();
+		}
+		return (int) index;
+	}
+
+	private static long readVarLong(ByteBuffer buf) {
+		var value = 0L;
+		for (int shift = 0; shift < Long.SIZE; shift += 7) {
+			if (!buf.hasRemaining()) {
+				throw new InvalidHistoryError();
+			}
+			var b = buf.get();
+			value |= (long) (b & 0x7f) << shift;
+			if (b >= 0) {
+				return value;
+			}
+		}
+		throw new InvalidHistoryError();
+	}
+
+	private static long readSigned(ByteBuffer buf) {
+		var value = readVarLong(buf);
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	@SneakyThrows
+	private static void writeVarLong(DataOutput out, long value) {
+		while ((value & ~0x7fL) != 0) {
+			out.writeByte((int) (value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+
+	private static void writeSigned(DataOutput out, long value) {
+		writeVarLong(out, (value << 1) ^ (value >> 63));
+	}
+
+	private static class SessionColumns {
+		private final long id;
+		private final LongList transactionIds = new LongList();
+		private final IntList transactionEnds = new IntList();
+		private final BitSet writes = new BitSet();
+		private final IntList keys = new IntList();
+		private final IntList values = new IntList();
+
+		SessionColumns(long id) {
+			this.id = id;
+		}
+	}
+
+	private class Writer implements HistoryStream {
+		private final ArrayList<SessionColumns> sessions = new ArrayList<>();
+		private final LongObjectHashMap<SessionColumns> sessionMap = new LongObjectHashMap<>();
+		protected final LongList keys = new LongList();
+		private final LongIntHashMap keyIds = new LongIntHashMap();
+		private final LongList values = new LongList();
+		private final LongIntHashMap valueIds = new LongIntHashMap();
+		private SessionColumns current;
+
+		SessionColumns addSession(long id) {
+			return sessionMap.computeIfAbsent(id, i -> {
+				var session = new SessionColumns(i);
+				sessions.add(session);
+				return session;
+			});
+		}
+
+		@Override
+		public void startTransaction(long session, long id) {
+			current = addSession(session);
+			current.transactionIds.add(id);
+		}
+
+		@Override
+		public void read(long key, long value, long writer) {
+			addEvent(false, key, value);
+		}
+
+		@Override
+		public void write(long key, long value) {
+			addEvent(true, key, value);
+		}
+
+		private void addEvent(boolean write, long key, long value) {
+			current.writes.set(current.keys.size(), write);
+			current.keys.add(intern(keys, keyIds, key));
+			current.values.add(intern(values, valueIds, value));
+		}
+
+		private int intern(LongList dict, LongIntHashMap ids, long value) {
+			var id = ids.get(value);
+			if (id == -1) {
+				id = dict.size();
+				ids.put(value, id);
+				dict.add(value);
+			}
+			return id;
+		}
+
+		@Override
+		public void commitTransaction() {
+			current.transactionEnds.add(current.keys.size());
+			current = null;
+		}
+
+		@Override
+		@SneakyThrows
+		public void close() {
+			try (var channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+					StandardOpenOption.TRUNCATE_EXISTING)) {
+				var counter = new CountingOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+				var out = new LittleEndianDataOutputStream(counter);
+				out.write(new byte[HEADER_SIZE]);
+
+				var table = new LongList();
+				writeDictionary(out, counter, table, keys);
+				writeDictionary(out, counter, table, values);
+				var transactionNum = 0L;
+				var eventNum = 0L;
+				for (var session : sessions) {
+					var begin = counter.getCount();
+					writeSession(out, session);
+					table.add(begin);
+					table.add(counter.getCount() - begin);
+					transactionNum += session.transactionIds.size();
+					eventNum += session.keys.size();
+				}
+
+				var tableOffset = counter.getCount();
+				out.writeLong(sessions.size());
+				out.writeLong(transactionNum);
+				out.writeLong(eventNum);
+				for (int i = 0; i < table.size(); i++) {
+					out.writeLong(table.get(i));
+				}
+				out.flush();
+
+				var header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+				header.putInt(MAGIC).putInt(VERSION).putLong(tableOffset).flip();
+				channel.write(header, 0);
+			}
+		}
+
+		private void writeDictionary(DataOutput out, CountingOutputStream counter, LongList table, LongList dict) {
+			var begin = counter.getCount();
+			writeVarLong(out, dict.size());
+			var prev = 0L;
+			for (int i = 0; i < dict.size(); i++) {
+				writeSigned(out, dict.get(i) - prev);
+				prev = dict.get(i);
+			}
+			table.add(begin);
+			table.add(counter.getCount() - begin);
+		}
+
+		@SneakyThrows
+		private void writeSession(DataOutput out, SessionColumns session) {
+			writeSigned(out, session.id);
+
+			var txnNum = session.transactionIds.size();
+			writeVarLong(out, txnNum);
+			var prev = 0L;
+			for (int i = 0; i < txnNum; i++) {
+				writeSigned(out, session.transactionIds.get(i) - prev);
+				prev = session.transactionIds.get(i);
+			}
+			var begin = 0;
+			for (int i = 0; i < txnNum; i++) {
+				writeVarLong(out, session.transactionEnds.get(i) - begin);
+				begin = session.transactionEnds.get(i);
+			}
+
+			var eventNum = session.keys.size();
+			out.write(Arrays.copyOf(session.writes.toByteArray(), (eventNum + 7) / 8));
+			for (int i = 0; i < eventNum; i++) {
+				writeVarLong(out, session.keys.get(i));
+			}
+			prev = 0;
+			for (int i = 0; i < eventNum; i++) {
+				writeSigned(out, session.values.get(i) - prev);
+				prev = session.values.get(i);
+			}
+		}
+	}
+}
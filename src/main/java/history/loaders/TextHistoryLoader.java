@@ -1,29 +1,45 @@
 package history.loaders;
 
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileReader;
 import java.io.FileWriter;
-import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Path;
-import java.util.HashSet;
-import java.util.regex.Pattern;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import history.Event;
 import history.History;
 import history.HistoryParser;
+import history.HistoryStream;
+import history.ValueCodec;
 import history.Event.EventType;
 
 import lombok.Cleanup;
 import lombok.SneakyThrows;
 import org.apache.commons.lang3.tuple.Pair;
+import util.IntList;
+import util.LongIntHashMap;
+import util.LongList;
 
 public class TextHistoryLoader implements HistoryParser<Long, Long> {
     private final File textFile;
+    private final long minChunkSize;
 
     public TextHistoryLoader(Path filePath) {
+        this(filePath, MappedInput.MIN_CHUNK_SIZE);
+    }
+
+    // smaller chunks let tests split small files
+    TextHistoryLoader(Path filePath, long minChunkSize) {
         textFile = filePath.toFile();
+        this.minChunkSize = minChunkSize;
     }
 
     @Override
@@ -37,50 +53,194 @@ public class TextHistoryLoader implements HistoryParser<Long, Long> {
                 ev -> true);
     }
 
+    /*
+     * Chunks of lines are memory-mapped and parsed in parallel, then added to
+     * the history in file order.
+     */
     @Override
     @SneakyThrows
     public History<Long, Long> loadHistory() {
-        @Cleanup
-        var in = new BufferedReader(new FileReader(textFile));
-        var history = new History<Long, Long>();
-        var regex = Pattern
-                .compile("(r|w)\\((\\d++),(\\d++),(\\d++),(\\d++)\\)");
+        try (var channel = FileChannel.open(textFile.toPath(), StandardOpenOption.READ)) {
+            var bounds = MappedInput.splitLines(channel, minChunkSize);
+            var chunks = IntStream.range(0, bounds.length - 1)
+                    .mapToObj(i -> CompletableFuture.supplyAsync(() -> parseChunk(channel, bounds[i], bounds[i + 1])))
+                    .collect(Collectors.toCollection(ArrayList::new));
+
+            var history = Utils.<Long, Long>newHistory(ValueCodec.ofLong());
+            var initSession = history.addSession(-1);
+            var initTxn = history.addTransaction(initSession, -1);
+            var keySet = new LongIntHashMap();
+            var lines = 0L;
+
+            for (int i = 0; i < chunks.size(); i++) {
+                DecodedChunk chunk;
+                try {
+                    chunk = chunks.get(i).join();
+                } catch (CompletionException e) {
+                    throw e.getCause();
+                }
+                chunks.set(i, null);
+
+                if (chunk.errorLine != -1) {
+                    throw new Error(String.format("Invalid format at line %d", lines + chunk.errorLine + 1));
+                }
+                lines += chunk.lines;
+
+                for (int j = 0; j < chunk.newKeys.size(); j++) {
+                    var key = chunk.newKeys.get(j);
+                    if (keySet.put(key, 0) == -1) {
+                        history.addEvent(initTxn, EventType.WRITE, key, 0L);
+                    }
+                }
+
+                for (int j = 0; j < chunk.runBegins.size(); j++) {
+                    var sessionId = chunk.runSessions.get(j);
+                    var session = history.getSession(sessionId);
+                    if (session == null) {
+                        session = history.addSession(sessionId);
+                    }
+
+                    var txnId = chunk.runTransactions.get(j);
+                    var txn = history.getTransaction(txnId);
+                    if (txn == null) {
+                        txn = history.addTransaction(session, txnId);
+                    }
+
+                    var end = j + 1 < chunk.runBegins.size() ? chunk.runBegins.get(j + 1) : chunk.keys.size();
+                    for (int k = chunk.runBegins.get(j); k < end; k++) {
+                        history.addEvent(txn, chunk.reads.get(k) ? EventType.READ : EventType.WRITE,
+                                chunk.keys.get(k), chunk.values.get(k));
+                    }
+                }
+            }
+
+            return history;
+        }
+    }
+
+    @SneakyThrows
+    private static DecodedChunk parseChunk(FileChannel channel, long begin, long end) {
+        var buf = channel.map(FileChannel.MapMode.READ_ONLY, begin, end - begin);
+        return new ChunkParser(buf).parse();
+    }
+
+    /*
+     * Operations of a chunk. Consecutive operations of the same session and
+     * transaction form a run starting at runBegins[i].
+     *
+     * If a line is invalid, errorLine is its index in the chunk, and the lines
+     * after it are not parsed.
+     */
+    private static class DecodedChunk {
+        private final BitSet reads = new BitSet();
+        private final LongList keys = new LongList();
+        private final LongList values = new LongList();
+        private final IntList runBegins = new IntList();
+        private final LongList runSessions = new LongList();
+        private final LongList runTransactions = new LongList();
+        // keys in the order they first appear in the chunk
+        private final LongList newKeys = new LongList();
+        private int lines = 0;
+        private int errorLine = -1;
+    }
+
+    /*
+     * Parses lines like r(1,2,3,4)
+     */
+    private static class ChunkParser {
+        private final ByteBuffer buf;
+        private final int limit;
+        private final DecodedChunk chunk = new DecodedChunk();
+        private final LongIntHashMap keySet = new LongIntHashMap();
+        private int pos = 0;
+
+        ChunkParser(ByteBuffer buf) {
+            this.buf = buf;
+            this.limit = buf.limit();
+        }
+
+        DecodedChunk parse() {
+            while (pos < limit) {
+                if (!parseLine()) {
+                    chunk.errorLine = chunk.lines;
+                    break;
+                }
+                chunk.lines++;
+            }
+            return chunk;
+        }
 
-        var initSession = history.addSession(-1);
-        var initTxn = history.addTransaction(initSession, -1);
-        var keySet = new HashSet<Long>();
+        private boolean parseLine() {
+            var op = buf.get(pos++);
+            if ((op != 'r' && op != 'w') || !consume('(')) {
+                return false;
+            }
 
-        in.lines().forEachOrdered((line) -> {
-            var match = regex.matcher(line);
-            if (!match.matches()) {
-                throw new Error("Invalid format");
+            var key = parseNumber();
+            if (key == -1 || !consume(',')) {
+                return false;
+            }
+            var value = parseNumber();
+            if (value == -1 || !consume(',')) {
+                return false;
+            }
+            var session = parseNumber();
+            if (session == -1 || !consume(',')) {
+                return false;
+            }
+            var txn = parseNumber();
+            if (txn == -1 || !consume(')')) {
+                return false;
             }
 
-            var op = match.group(1);
-            var key = Long.parseLong(match.group(2));
-            var value = Long.parseLong(match.group(3));
-            var session = Long.parseLong(match.group(4));
-            var txn = Long.parseLong(match.group(5));
+            consume('\r');
+            if (pos < limit && !consume('\n')) {
+                return false;
+            }
 
-            if (history.getSession(session) == null) {
-                history.addSession(session);
+            var runs = chunk.runBegins.size();
+            if (runs == 0 || chunk.runSessions.get(runs - 1) != session
+                    || chunk.runTransactions.get(runs - 1) != txn) {
+                chunk.runBegins.add(chunk.keys.size());
+                chunk.runSessions.add(session);
+                chunk.runTransactions.add(txn);
             }
 
-            if (history.getTransaction(txn) == null) {
-                history.addTransaction(history.getSession(session), txn);
+            if (keySet.put(key, 0) == -1) {
+                chunk.newKeys.add(key);
             }
+            chunk.reads.set(chunk.keys.size(), op == 'r');
+            chunk.keys.add(key);
+            chunk.values.add(value);
+            return true;
+        }
 
-            if (!keySet.contains(key)) {
-                keySet.add(key);
-                history.addEvent(initTxn, EventType.WRITE, key, 0L);
+        // parse a non-negative number, or return -1 if there is none or it overflows
+        private long parseNumber() {
+            var begin = pos;
+            var value = 0L;
+            while (pos < limit) {
+                var c = buf.get(pos);
+                if (c < '0' || c > '9') {
+                    break;
+                }
+                if (value > (Long.MAX_VALUE - (c - '0')) / 10) {
+                    return -1;
+                }
+                value = value * 10 + (c - '0');
+                pos++;
             }
 
-            history.addEvent(history.getTransaction(txn),
-                    op.equals("r") ? EventType.READ : EventType.WRITE, key,
-                    value);
-        });
+            return pos == begin ? -1 : value;
+        }
 
-        return history;
+        private boolean consume(char c) {
+            if (pos < limit && buf.get(pos) == c) {
+                pos++;
+                return true;
+            }
+            return false;
+        }
     }
 
     @Override
@@ -99,4 +259,43 @@ public class TextHistoryLoader implements HistoryParser<Long, Long> {
             }
         }
     }
+
+    @Override
+    @SneakyThrows
+    public HistoryStream openStream() {
+        var out = new BufferedWriter(new FileWriter(textFile));
+
+        return new HistoryStream() {
+            private long session;
+            private long transaction;
+
+            @Override
+            public void startTransaction(long session, long id) {
+                this.session = session;
+                this.transaction = id;
+            }
+
+            @Override
+            @SneakyThrows
+            public void read(long key, long value, long writer) {
+                out.append(String.format("r(%d,%d,%d,%d)\n", key, value, session, transaction));
+            }
+
+            @Override
+            @SneakyThrows
+            public void write(long key, long value) {
+                out.append(String.format("w(%d,%d,%d,%d)\n", key, value, session, transaction));
+            }
+
+            @Override
+            public void commitTransaction() {
+            }
+
+            @Override
+            @SneakyThrows
+            public void close() {
+                out.close();
+            }
+        };
+    }
 }
@@ -9,10 +9,19 @@ import java.util.stream.Stream;
 import org.apache.commons.lang3.tuple.Pair;
 import org.apache.commons.lang3.tuple.Triple;
 
+import history.CompactHistory;
 import history.Event;
 import history.History;
+import history.ValueCodec;
 
 class Utils {
+	static <T, U> History<T, U> newHistory(ValueCodec<U> valueCodec) {
+		if (CompactHistory.isEnabled()) {
+			return new CompactHistory<>(valueCodec);
+		}
+		return new History<>();
+	}
+
 	static <T> HashMap<T, Long> getIdMap(Stream<T> keys, long beginId) {
 		var f = new Function<T, Long>() {
 			private long id = beginId;
@@ -0,0 +1,62 @@
+package util;
+
+import java.util.Arrays;
+
+/**
+ * A growable list of ints, without boxing.
+ */
+public class IntList {
+    private static final int MIN_CAPACITY = 16;
+
+    private int[] elements = new int[MIN_CAPACITY];
+    private int size;
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int get(int index) {
+        if (index >= size) {
+            throw new IndexOutOfBoundsException(index);
+        }
+        return elements[index];
+    }
+
+    public void set(int index, int element) {
+        if (index >= size) {
+            throw new IndexOutOfBoundsException(index);
+        }
+        elements[index] = element;
+    }
+
+    public void add(int element) {
+        if (size == elements.length) {
+            elements = Arrays.copyOf(elements, size * 2);
+        }
+        elements[size++] = element;
+    }
+
+    public void addAll(IntList other) {
+        if (size + other.size > elements.length) {
+            elements = Arrays.copyOf(elements, Math.max(size * 2, size + other.size));
+        }
+        System.arraycopy(other.elements, 0, elements, size, other.size);
+        size += other.size;
+    }
+
+    public void truncate(int index) {
+        size = Math.min(size, index);
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public int[] toArray() {
+        return Arrays.copyOf(elements, size);
+    }
+}
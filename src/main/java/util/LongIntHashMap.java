@@ -0,0 +1,104 @@
+package util;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map from long to non-negative int, without boxing.
+ */
+public class LongIntHashMap {
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] keys;
+    // value + 1, 0 means the slot is empty
+    private int[] values;
+    private int size;
+
+    public LongIntHashMap() {
+        this(MIN_CAPACITY);
+    }
+
+    public LongIntHashMap(int expectedSize) {
+        var capacity = Integer.highestOneBit(Math.max(MIN_CAPACITY, expectedSize * 2 - 1)) << 1;
+        keys = new long[capacity];
+        values = new int[capacity];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the value of key, or -1 if key is absent
+     */
+    public int get(long key) {
+        var mask = keys.length - 1;
+        for (int i = slot(key, mask);; i = (i + 1) & mask) {
+            if (values[i] == 0) {
+                return -1;
+            } else if (keys[i] == key) {
+                return values[i] - 1;
+            }
+        }
+    }
+
+    public boolean containsKey(long key) {
+        return get(key) >= 0;
+    }
+
+    /**
+     * @return the previous value of key, or -1 if key was absent
+     */
+    public int put(long key, int value) {
+        assert value >= 0;
+        var mask = keys.length - 1;
+        for (int i = slot(key, mask);; i = (i + 1) & mask) {
+            if (values[i] == 0) {
+                keys[i] = key;
+                values[i] = value + 1;
+                if (++size * 2 > keys.length) {
+                    rehash(keys.length * 2);
+                }
+                return -1;
+            } else if (keys[i] == key) {
+                var old = values[i] - 1;
+                values[i] = value + 1;
+                return old;
+            }
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(values, 0);
+        size = 0;
+    }
+
+    private void rehash(int capacity) {
+        var oldKeys = keys;
+        var oldValues = values;
+        var mask = capacity - 1;
+
+        keys = new long[capacity];
+        values = new int[capacity];
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldValues[j] == 0) {
+                continue;
+            }
+
+            var i = slot(oldKeys[j], mask);
+            while (values[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = oldKeys[j];
+            values[i] = oldValues[j];
+        }
+    }
+
+    public static long mix(long key) {
+        key *= 0x9e3779b97f4a7c15L;
+        return key ^ (key >>> 32);
+    }
+
+    private static int slot(long key, int mask) {
+        return (int) mix(key) & mask;
+    }
+}
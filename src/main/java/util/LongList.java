@@ -0,0 +1,50 @@
+package util;
+
+import java.util.Arrays;
+
+/**
+ * A growable list of longs, without boxing.
+ */
+public class LongList {
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] elements = new long[MIN_CAPACITY];
+    private int size;
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public long get(int index) {
+        if (index >= size) {
+            throw new IndexOutOfBoundsException(index);
+        }
+        return elements[index];
+    }
+
+    public void add(long element) {
+        if (size == elements.length) {
+            elements = Arrays.copyOf(elements, size * 2);
+        }
+        elements[size++] = element;
+    }
+
+    /**
+     * Remove elements from index to the end
+     */
+    public void truncate(int index) {
+        size = Math.min(size, index);
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public long[] toArray() {
+        return Arrays.copyOf(elements, size);
+    }
+}
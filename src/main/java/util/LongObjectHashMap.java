@@ -0,0 +1,122 @@
+package util;
+
+import java.util.Arrays;
+import java.util.function.LongFunction;
+
+/**
+ * Open addressing hash map from long to non-null objects, without boxing the
+ * keys.
+ */
+public class LongObjectHashMap<V> {
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] keys;
+    // null means the slot is empty
+    private Object[] values;
+    private int size;
+
+    public LongObjectHashMap() {
+        this(MIN_CAPACITY);
+    }
+
+    public LongObjectHashMap(int expectedSize) {
+        var capacity = Integer.highestOneBit(Math.max(MIN_CAPACITY, expectedSize * 2 - 1)) << 1;
+        keys = new long[capacity];
+        values = new Object[capacity];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the value of key, or null if key is absent
+     */
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        var mask = keys.length - 1;
+        for (int i = slot(key, mask);; i = (i + 1) & mask) {
+            if (values[i] == null) {
+                return null;
+            } else if (keys[i] == key) {
+                return (V) values[i];
+            }
+        }
+    }
+
+    /**
+     * @return the previous value of key, or null if key was absent
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        assert value != null;
+        var mask = keys.length - 1;
+        for (int i = slot(key, mask);; i = (i + 1) & mask) {
+            if (values[i] == null) {
+                keys[i] = key;
+                values[i] = value;
+                if (++size * 2 > keys.length) {
+                    rehash(keys.length * 2);
+                }
+                return null;
+            } else if (keys[i] == key) {
+                var old = (V) values[i];
+                values[i] = value;
+                return old;
+            }
+        }
+    }
+
+    public V computeIfAbsent(long key, LongFunction<? extends V> mappingFunction) {
+        var value = get(key);
+        if (value == null) {
+            value = mappingFunction.apply(key);
+            put(key, value);
+        }
+        return value;
+    }
+
+    /**
+     * @return the keys in the map, in no particular order
+     */
+    public long[] keys() {
+        var result = new long[size];
+        var n = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (values[i] != null) {
+                result[n++] = keys[i];
+            }
+        }
+        return result;
+    }
+
+    public void clear() {
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    private void rehash(int capacity) {
+        var oldKeys = keys;
+        var oldValues = values;
+        var mask = capacity - 1;
+
+        keys = new long[capacity];
+        values = new Object[capacity];
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldValues[j] == null) {
+                continue;
+            }
+
+            var i = slot(oldKeys[j], mask);
+            while (values[i] != null) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = oldKeys[j];
+            values[i] = oldValues[j];
+        }
+    }
+
+    private static int slot(long key, int mask) {
+        return (int) LongIntHashMap.mix(key) & mask;
+    }
+}
@@ -23,44 +23,161 @@ SOFTWARE.
 */
 package util;
 
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 import org.apache.commons.lang3.tuple.Pair;
 
+import lombok.Getter;
+
 public class Profiler {
+    private static final long SAMPLE_INTERVAL_MS = 100;
 
     // global vars
     private static final HashMap<Long, Profiler> profilers = new HashMap<Long, Profiler>();
 
     // local vars
-    private final HashMap<String, Long> start_time = new HashMap<String, Long>();
-    private final HashMap<String, Long> total_time = new HashMap<String, Long>();
-    private final HashMap<String, Integer> counter = new HashMap<String, Integer>();
+    private final HashMap<String, Stage> stages = new HashMap<>();
     private final List<String> tags = new ArrayList<>();
+    private final LinkedHashMap<String, Long> counts = new LinkedHashMap<>();
 
     private static final AtomicLong max_memory = new AtomicLong();
+    private static final AtomicLong max_native_memory = new AtomicLong();
 
     static {
-        new Thread(() -> {
+        var sampler = new Thread(() -> {
             while (true) {
-                updateMemory();
+                var memory = updateMemory();
+                List<Profiler> all;
+                synchronized (Profiler.class) {
+                    all = new ArrayList<>(profilers.values());
+                }
+                all.forEach(p -> p.updatePeaks(memory));
+
                 try {
-                    Thread.sleep(100);
+                    Thread.sleep(SAMPLE_INTERVAL_MS);
                 } catch (InterruptedException e) {
                 }
             }
-        });
+        }, "profiler-memory");
+        sampler.setDaemon(true);
+        sampler.start();
+    }
+
+    /**
+     * Statistics of a stage, summed over all its ticks. CPU time, allocated
+     * bytes are those of the thread that ticks, and process CPU time and GC
+     * activity are those of the whole process during the ticks.
+     */
+    @Getter
+    public static class Stage {
+        private final String name;
+        private int count;
+        private long wallNs;
+        private long threadCpuNs;
+        private long processCpuNs;
+        private long allocatedBytes;
+        private long gcCount;
+        private long gcTimeNs;
+        private long peakHeapBytes;
+        private long peakNativeBytes;
+
+        // values at the start of the current tick, if started
+        private boolean started;
+        private Snapshot start;
+        private StageEvent event;
+
+        private Stage(String name) {
+            this.name = name;
+        }
+    }
+
+    private static class Snapshot {
+        private final long wallNs = System.nanoTime();
+        private final long threadCpuNs = threadCpuTime();
+        private final long processCpuNs = processCpuTime();
+        private final long allocatedBytes = threadAllocatedBytes();
+        private final long gcCount;
+        private final long gcTimeNs;
+
+        Snapshot() {
+            var count = 0L;
+            var time = 0L;
+            for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+                count += Math.max(0, gc.getCollectionCount());
+                time += Math.max(0, gc.getCollectionTime());
+            }
+            gcCount = count;
+            gcTimeNs = time * 1_000_000;
+        }
+    }
+
+    private static long threadCpuTime() {
+        var bean = ManagementFactory.getThreadMXBean();
+        return bean.isCurrentThreadCpuTimeSupported() ? bean.getCurrentThreadCpuTime() : 0;
     }
 
-    private static void updateMemory() {
+    private static long processCpuTime() {
+        var bean = ManagementFactory.getOperatingSystemMXBean();
+        if (bean instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) bean).getProcessCpuTime();
+        }
+        return 0;
+    }
+
+    private static long threadAllocatedBytes() {
+        var bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            var sunBean = (com.sun.management.ThreadMXBean) bean;
+            if (sunBean.isThreadAllocatedMemorySupported() && sunBean.isThreadAllocatedMemoryEnabled()) {
+                return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return 0;
+    }
+
+    /*
+     * Update the peak memory usage.
+     *
+     * Native memory is non-heap memory of the JVM and memory of direct and
+     * mapped buffers. Memory allocated by native libraries is not included.
+     *
+     * @return current heap and native memory usage
+     */
+    private static Pair<Long, Long> updateMemory() {
         var runtime = Runtime.getRuntime();
         var currentMax = runtime.totalMemory() - runtime.freeMemory();
         max_memory.updateAndGet(oldMax -> Long.max(oldMax, currentMax));
+
+        var nativeMemory = ManagementFactory.getMemoryMXBean().getNonHeapMemoryUsage().getUsed();
+        for (var pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            nativeMemory += Math.max(0, pool.getMemoryUsed());
+        }
+        var currentNative = nativeMemory;
+        max_native_memory.updateAndGet(oldMax -> Long.max(oldMax, currentNative));
+
+        return Pair.of(currentMax, currentNative);
+    }
+
+    private synchronized void updatePeaks(Pair<Long, Long> memory) {
+        for (var stage : stages.values()) {
+            if (stage.started) {
+                stage.peakHeapBytes = Long.max(stage.peakHeapBytes, memory.getLeft());
+                stage.peakNativeBytes = Long.max(stage.peakNativeBytes, memory.getRight());
+            }
+        }
     }
 
     public synchronized static Profiler getInstance() {
@@ -71,71 +188,211 @@ public class Profiler {
         return profilers.get(tid);
     }
 
+    /*
+     * Drop the profiler of the current thread
+     */
+    public synchronized static void removeInstance() {
+        profilers.remove(Thread.currentThread().getId());
+    }
+
     private Profiler() {
     }
 
     public synchronized void clear() {
-        start_time.clear();
-        total_time.clear();
-        counter.clear();
+        stages.clear();
+        tags.clear();
+        counts.clear();
+    }
+
+    /*
+     * Add the stages and counts of another profiler, e.g. of a thread that
+     * did a part of the work. Peaks are the larger of the two.
+     */
+    public synchronized void addAll(Profiler other) {
+        synchronized (other) {
+            for (var tag : other.tags) {
+                var o = other.stages.get(tag);
+                var stage = stages.get(tag);
+                if (stage == null) {
+                    tags.add(tag);
+                    stage = new Stage(tag);
+                    stages.put(tag, stage);
+                }
+
+                stage.count += o.count;
+                stage.wallNs += o.wallNs;
+                stage.threadCpuNs += o.threadCpuNs;
+                stage.processCpuNs += o.processCpuNs;
+                stage.allocatedBytes += o.allocatedBytes;
+                stage.gcCount += o.gcCount;
+                stage.gcTimeNs += o.gcTimeNs;
+                stage.peakHeapBytes = Long.max(stage.peakHeapBytes, o.peakHeapBytes);
+                stage.peakNativeBytes = Long.max(stage.peakNativeBytes, o.peakNativeBytes);
+            }
+            other.counts.forEach((name, value) -> counts.merge(name, value, Long::sum));
+        }
     }
 
     public synchronized void startTick(String tag) {
-        if (!counter.containsKey(tag)) {
-            tags.add(tag);
-            counter.put(tag, 0);
-            total_time.put(tag, 0L);
+        // an interrupted verification stops at the start of its next stage
+        if (Thread.currentThread().isInterrupted()) {
+            throw new CancellationException(String.format("interrupted before %s", tag));
         }
 
-        // if we haven't stop this tick, stop it!!!
-        if (!start_time.containsKey(tag)) {
-            endTick(tag);
+        var stage = stages.get(tag);
+        if (stage == null) {
+            tags.add(tag);
+            stage = new Stage(tag);
+            stages.put(tag, stage);
         }
 
         // start the tick!
-        start_time.put(tag, System.currentTimeMillis());
-        updateMemory();
+        stage.started = true;
+        stage.start = new Snapshot();
+        stage.event = new StageEvent();
+        stage.event.begin();
+        updatePeaks(updateMemory());
     }
 
     public synchronized void endTick(String tag) {
-        if (start_time.containsKey(tag)) {
-            long cur_time = System.currentTimeMillis();
-            long duration = cur_time - start_time.get(tag);
+        var stage = stages.get(tag);
+        if (stage != null && stage.started) {
+            updatePeaks(updateMemory());
+            var end = new Snapshot();
+            var start = stage.start;
 
-            // update the counter and total_time
-            total_time.put(tag, (total_time.get(tag) + duration));
-            counter.put(tag, (counter.get(tag) + 1));
+            stage.count++;
+            stage.wallNs += end.wallNs - start.wallNs;
+            stage.threadCpuNs += end.threadCpuNs - start.threadCpuNs;
+            stage.processCpuNs += end.processCpuNs - start.processCpuNs;
+            stage.allocatedBytes += end.allocatedBytes - start.allocatedBytes;
+            stage.gcCount += end.gcCount - start.gcCount;
+            stage.gcTimeNs += end.gcTimeNs - start.gcTimeNs;
+
+            commitEvent(stage);
 
             // rm the tick
-            start_time.remove(tag);
+            stage.started = false;
+            stage.start = null;
+            stage.event = null;
         } else {
             // FIXME: shouldn't be here
             // but do nothing for now.
         }
-        updateMemory();
     }
 
+    private void commitEvent(Stage stage) {
+        var event = stage.event;
+        event.end();
+        if (!event.shouldCommit()) {
+            return;
+        }
+
+        event.stage = stage.name;
+        event.pruningRound = counts.getOrDefault("pruningRounds", -1L);
+        event.constraints = counts.getOrDefault("constraintsAfterPruning",
+                counts.getOrDefault("constraintsBeforePruning", -1L));
+        event.constraintEdges = counts.getOrDefault("constraintEdgesAfterPruning",
+                counts.getOrDefault("constraintEdgesBeforePruning", -1L));
+        event.matrixNodes = counts.getOrDefault("matrixNodes", -1L);
+        event.matrixNonZeroElements = counts.getOrDefault("matrixNonZeroElements", -1L);
+        event.commit();
+    }
+
+    /*
+     * @return the total time of tag in ms
+     */
     public synchronized long getTime(String tag) {
-        if (total_time.containsKey(tag)) {
-            return total_time.get(tag);
+        if (stages.containsKey(tag)) {
+            return stages.get(tag).wallNs / 1_000_000;
         } else {
             return 0;
         }
     }
 
+    /*
+     * @return the stage of tag, or null if it is never started
+     */
+    public synchronized Stage getStage(String tag) {
+        return stages.get(tag);
+    }
+
     public synchronized int getCounter(String tag) {
-        if (counter.containsKey(tag)) {
-            return counter.get(tag);
+        if (stages.containsKey(tag)) {
+            return stages.get(tag).count;
         } else {
             return 0;
         }
     }
 
+    /*
+     * Record a size, e.g. the number of constraints, to be reported with the
+     * stages
+     */
+    public synchronized void setCount(String name, long value) {
+        counts.put(name, value);
+    }
+
     public long getMaxMemory() {
         return max_memory.get();
     }
 
+    public long getMaxNativeMemory() {
+        return max_native_memory.get();
+    }
+
+    /*
+     * @return the durations of stages in ms
+     */
     public synchronized Collection<Pair<String, Long>> getDurations() {
-        return tags.stream().map(tag -> Pair.of(tag, total_time.get(tag))).collect(Collectors.toList());
+        return tags.stream().map(tag -> Pair.of(tag, stages.get(tag).wallNs / 1_000_000))
+                .collect(Collectors.toList());
+    }
+
+    public synchronized Map<String, Long> getCounts() {
+        return new LinkedHashMap<>(counts);
+    }
+
+    /*
+     * Stages in the order they are first started, and counts in the order
+     * they are first set, as a JSON object
+     */
+    public synchronized String toJson() {
+        var sb = new StringBuilder();
+        sb.append("{\n  \"stages\": [");
+        for (int i = 0; i < tags.size(); i++) {
+            var s = stages.get(tags.get(i));
+            sb.append(i == 0 ? "\n" : ",\n");
+            sb.append(String.format("    {\"name\": \"%s\", \"count\": %d, \"wallNs\": %d, \"threadCpuNs\": %d, "
+                    + "\"processCpuNs\": %d, \"allocatedBytes\": %d, \"gcCount\": %d, \"gcTimeNs\": %d, "
+                    + "\"peakHeapBytes\": %d, \"peakNativeBytes\": %d}", s.name, s.count, s.wallNs, s.threadCpuNs,
+                    s.processCpuNs, s.allocatedBytes, s.gcCount, s.gcTimeNs, s.peakHeapBytes, s.peakNativeBytes));
+        }
+        sb.append("\n  ],\n  \"counts\": {");
+        var first = true;
+        for (var e : counts.entrySet()) {
+            sb.append(first ? "\n" : ",\n");
+            sb.append(String.format("    \"%s\": %d", e.getKey(), e.getValue()));
+            first = false;
+        }
+        sb.append(String.format("\n  },\n  \"peakHeapBytes\": %d,\n  \"peakNativeBytes\": %d,\n  \"peakRssBytes\": %d\n}",
+                getMaxMemory(), getMaxNativeMemory(), peakRss()));
+        return sb.toString();
+    }
+
+    /*
+     * @return the peak resident set size of the process, or -1 if it is
+     * unknown. Unlike native memory, this includes native libraries.
+     */
+    private static long peakRss() {
+        try {
+            for (var line : Files.readAllLines(Path.of("/proc/self/status"))) {
+                if (line.startsWith("VmHWM:")) {
+                    return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+                }
+            }
+        } catch (Exception e) {
+        }
+        return -1;
     }
 }
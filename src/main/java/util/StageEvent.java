@@ -0,0 +1,40 @@
+package util;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A tick of a profiler stage in JFR recordings. Sizes are the latest counts
+ * recorded by the profiler when the tick ends, or -1 if they are not recorded
+ * yet.
+ */
+@Name("polysi.Stage")
+@Label("Verification Stage")
+@Category("PolySI")
+@StackTrace(false)
+class StageEvent extends jdk.jfr.Event {
+    @Label("Stage")
+    String stage;
+
+    @Label("Pruning Round")
+    long pruningRound;
+
+    @Label("Constraints")
+    @Description("Constraints left")
+    long constraints;
+
+    @Label("Constraint Edges")
+    @Description("Edges in the constraints left")
+    long constraintEdges;
+
+    @Label("Matrix Nodes")
+    @Description("Nodes of the last reachability matrix")
+    long matrixNodes;
+
+    @Label("Matrix Non-zero Elements")
+    @Description("Non-zero elements of the last reachability matrix")
+    long matrixNonZeroElements;
+}
@@ -0,0 +1,324 @@
+package verifier;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import com.google.common.graph.ValueGraph;
+
+import graph.Edge;
+import graph.EdgeType;
+import graph.KnownGraph;
+import history.History;
+import history.InvalidHistoryError;
+import history.Transaction;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.SneakyThrows;
+
+/**
+ * A directory of audit artifacts: the known graph and the constraints left
+ * after pruning. With them, an audit of the same history with the same options
+ * can go straight to the solver.
+ *
+ * Entries are looked up by a digest of the input, the options that affect the
+ * artifacts and the version of the code generating them. Transactions are
+ * stored by their ids, and keys by their index in the history, so entries are
+ * read back against a freshly loaded history. Entries with a different format
+ * version are ignored and deleted.
+ *
+ * When the directory grows larger than maxSize, the least recently used
+ * entries are deleted.
+ */
+public class ArtifactCache {
+    private static final int MAGIC = 0x50534941;
+    private static final int VERSION = 1;
+
+    // part of every key, so that entries made by an older build are not used.
+    // Bump it when the known graph, constraint generation or pruning changes.
+    static final int GENERATOR_VERSION = 1;
+    private static final String SUFFIX = ".artifacts";
+    private static final EdgeType[] EDGE_TYPES = EdgeType.values();
+
+    private final Path directory;
+    private final long maxSize;
+
+    @SneakyThrows
+    public ArtifactCache(Path directory, long maxSize) {
+        this.directory = Files.createDirectories(directory);
+        this.maxSize = maxSize;
+    }
+
+    @Data
+    @AllArgsConstructor
+    static class Artifacts<KeyType, ValueType> {
+        private final KnownGraph<KeyType, ValueType> graph;
+        private final ConstraintStore<KeyType, ValueType> constraints;
+        private final boolean hasLoop;
+    }
+
+    /**
+     * Digest of a history file, or of all files in a history directory
+     *
+     * @param type the history type, since the same bytes mean different
+     *             histories in different formats
+     */
+    @SneakyThrows
+    public static String digest(String type, Path path) {
+        var md = MessageDigest.getInstance("SHA-256");
+        md.update(type.getBytes(StandardCharsets.UTF_8));
+
+        List<Path> files;
+        try (var paths = Files.walk(path)) {
+            files = paths.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        }
+
+        var buf = ByteBuffer.allocate(1 << 20);
+        for (var f : files) {
+            md.update(path.relativize(f).toString().getBytes(StandardCharsets.UTF_8));
+            try (var channel = FileChannel.open(f, StandardOpenOption.READ)) {
+                md.update(ByteBuffer.allocate(Long.BYTES).putLong(channel.size()).flip());
+                while (channel.read(buf.clear()) > 0) {
+                    md.update(buf.flip());
+                }
+            }
+        }
+
+        return toHex(md.digest());
+    }
+
+    @SneakyThrows
+    static String key(String... parts) {
+        var md = MessageDigest.getInstance("SHA-256");
+        md.update(ByteBuffer.allocate(Integer.BYTES).putInt(GENERATOR_VERSION).flip());
+        for (var p : parts) {
+            md.update(p.getBytes(StandardCharsets.UTF_8));
+            md.update((byte) 0);
+        }
+        return toHex(md.digest());
+    }
+
+    private static String toHex(byte[] bytes) {
+        var sb = new StringBuilder();
+        for (var b : bytes) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
+    /*
+     * @return the artifacts of key, or null if there are none
+     */
+    @SneakyThrows
+    <KeyType, ValueType> Artifacts<KeyType, ValueType> load(String key, History<KeyType, ValueType> history) {
+        var file = directory.resolve(key + SUFFIX);
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                Files.deleteIfExists(file);
+                return null;
+            }
+
+            var artifacts = readArtifacts(in, history);
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            return artifacts;
+        } catch (IOException | IndexOutOfBoundsException | InvalidHistoryError e) {
+            System.err.printf("Ignoring cache entry %s: %s\n", file, e);
+            Files.deleteIfExists(file);
+            return null;
+        }
+    }
+
+    @SneakyThrows
+    <KeyType, ValueType> void store(String key, History<KeyType, ValueType> history,
+            Artifacts<KeyType, ValueType> artifacts) {
+        var file = directory.resolve(key + SUFFIX);
+        var tmp = Files.createTempFile(directory, key, ".tmp");
+        try {
+            try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                writeArtifacts(out, history, artifacts);
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+
+        evict();
+    }
+
+    @SneakyThrows
+    private void evict() {
+        List<Path> entries;
+        try (var paths = Files.list(directory)) {
+            entries = paths.filter(p -> p.getFileName().toString().endsWith(SUFFIX)).collect(Collectors.toList());
+        }
+
+        // entries may be deleted by audits running at the same time
+        var times = new HashMap<Path, FileTime>();
+        var sizes = new HashMap<Path, Long>();
+        var size = 0L;
+        for (var e : entries) {
+            try {
+                times.put(e, Files.getLastModifiedTime(e));
+                sizes.put(e, Files.size(e));
+                size += sizes.get(e);
+            } catch (NoSuchFileException ex) {
+            }
+        }
+
+        entries.removeIf(e -> !sizes.containsKey(e));
+        entries.sort(Comparator.comparing(times::get));
+        for (var e : entries) {
+            if (size <= maxSize) {
+                break;
+            }
+            size -= sizes.get(e);
+            Files.deleteIfExists(e);
+        }
+    }
+
+    /*
+     * Keys are numbered in the order they first appear in transactions sorted
+     * by id, which does not depend on how the history is stored.
+     */
+    private static <KeyType, ValueType> List<KeyType> keyList(History<KeyType, ValueType> history) {
+        var txns = new ArrayList<>(history.getTransactions());
+        txns.sort(Comparator.comparing(Transaction::getId));
+        return txns.stream().flatMap(t -> t.getEvents().stream()).map(e -> e.getKey()).distinct()
+                .collect(Collectors.toList());
+    }
+
+    private static <KeyType, ValueType> void writeArtifacts(DataOutputStream out,
+            History<KeyType, ValueType> history, Artifacts<KeyType, ValueType> artifacts) throws IOException {
+        var keys = keyList(history);
+        var keyIds = new HashMap<KeyType, Integer>();
+        for (int i = 0; i < keys.size(); i++) {
+            keyIds.put(keys.get(i), i);
+        }
+
+        out.writeBoolean(artifacts.hasLoop);
+        out.writeInt(keys.size());
+        writeGraph(out, keyIds, artifacts.graph.getKnownGraphA());
+        writeGraph(out, keyIds, artifacts.graph.getKnownGraphB());
+
+        var store = artifacts.constraints;
+        out.writeInt(store.size());
+        for (int c = 0; c < store.constraintCount(); c++) {
+            if (store.isRemoved(c)) {
+                continue;
+            }
+
+            out.writeLong(store.transaction(store.writeTransaction1(c)).getId());
+            out.writeLong(store.transaction(store.writeTransaction2(c)).getId());
+            writeEdges(out, keyIds, store, store.edges1Begin(c), store.edges1End(c));
+            writeEdges(out, keyIds, store, store.edges2Begin(c), store.edges2End(c));
+        }
+    }
+
+    private static <KeyType, ValueType> void writeGraph(DataOutputStream out, Map<KeyType, Integer> keyIds,
+            ValueGraph<Transaction<KeyType, ValueType>, Collection<Edge<KeyType>>> graph) throws IOException {
+        out.writeInt(graph.edges().size());
+        for (var e : graph.edges()) {
+            var edges = graph.edgeValue(e).get();
+            out.writeLong(e.source().getId());
+            out.writeLong(e.target().getId());
+            out.writeInt(edges.size());
+            for (var edge : edges) {
+                out.writeByte(edge.getType().ordinal());
+                out.writeInt(edge.getKey() == null ? -1 : keyIds.get(edge.getKey()));
+            }
+        }
+    }
+
+    private static <KeyType, ValueType> void writeEdges(DataOutputStream out, Map<KeyType, Integer> keyIds,
+            ConstraintStore<KeyType, ValueType> store, int begin, int end) throws IOException {
+        out.writeInt(end - begin);
+        for (int e = begin; e < end; e++) {
+            out.writeLong(store.transaction(store.from(e)).getId());
+            out.writeLong(store.transaction(store.to(e)).getId());
+            out.writeByte(store.type(e).ordinal());
+            out.writeInt(keyIds.get(store.key(e)));
+        }
+    }
+
+    private static <KeyType, ValueType> Artifacts<KeyType, ValueType> readArtifacts(DataInputStream in,
+            History<KeyType, ValueType> history) throws IOException {
+        var keys = keyList(history);
+        var hasLoop = in.readBoolean();
+        if (in.readInt() != keys.size()) {
+            throw new InvalidHistoryError();
+        }
+
+        var graph = new KnownGraph<KeyType, ValueType>();
+        history.getTransactions().forEach(graph::addTransaction);
+        for (int i = 0; i < 2; i++) {
+            var edgeNum = in.readInt();
+            for (int j = 0; j < edgeNum; j++) {
+                var from = transaction(history, in.readLong());
+                var to = transaction(history, in.readLong());
+                var n = in.readInt();
+                for (int k = 0; k < n; k++) {
+                    var type = EDGE_TYPES[in.readByte()];
+                    var key = in.readInt();
+                    graph.putEdge(from, to, new Edge<>(type, key == -1 ? null : keys.get(key)));
+                }
+            }
+        }
+
+        var store = new ConstraintStore<>(history.getTransactions());
+        var constraintNum = in.readInt();
+        for (int i = 0; i < constraintNum; i++) {
+            store.startConstraint(store.transactionId(transaction(history, in.readLong())),
+                    store.transactionId(transaction(history, in.readLong())));
+            readEdges(in, history, keys, store);
+            store.startEdges2();
+            readEdges(in, history, keys, store);
+        }
+
+        return new Artifacts<>(graph, store, hasLoop);
+    }
+
+    private static <KeyType, ValueType> void readEdges(DataInputStream in, History<KeyType, ValueType> history,
+            List<KeyType> keys, ConstraintStore<KeyType, ValueType> store) throws IOException {
+        var n = in.readInt();
+        for (int i = 0; i < n; i++) {
+            var from = store.transactionId(transaction(history, in.readLong()));
+            var to = store.transactionId(transaction(history, in.readLong()));
+            var type = EDGE_TYPES[in.readByte()];
+            store.addEdge(from, to, type, store.keyId(keys.get(in.readInt())));
+        }
+    }
+
+    private static <KeyType, ValueType> Transaction<KeyType, ValueType> transaction(
+            History<KeyType, ValueType> history, long id) {
+        var txn = history.getTransaction(id);
+        if (txn == null) {
+            throw new InvalidHistoryError();
+        }
+        return txn;
+    }
+}
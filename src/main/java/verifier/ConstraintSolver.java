@@ -0,0 +1,24 @@
+package verifier;
+
+import java.util.Collection;
+
+import com.google.common.graph.EndpointPair;
+
+import org.apache.commons.lang3.tuple.Pair;
+
+import graph.Edge;
+import history.Transaction;
+
+/**
+ * Decides whether one set of edges can be chosen from each constraint so that
+ * the known graph with the chosen edges, A union C, is acyclic.
+ */
+interface ConstraintSolver<KeyType, ValueType> {
+    boolean solve();
+
+    /*
+     * @return known edges and constraints that cannot be satisfied together,
+     * after solve() returns false
+     */
+    Pair<Collection<Pair<EndpointPair<Transaction<KeyType, ValueType>>, Collection<Edge<KeyType>>>>, Collection<SIConstraint<KeyType, ValueType>>> getConflicts();
+}
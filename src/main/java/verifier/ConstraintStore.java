@@ -0,0 +1,225 @@
+package verifier;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import graph.EdgeType;
+import history.Transaction;
+
+/**
+ * Constraints stored in columns.
+ *
+ * Transactions and keys are given dense int ids. An edge takes a from id, a
+ * to id, a type and a key id, each in its own array. The edges of a
+ * constraint are stored contiguously: edges1 of constraint c are edges
+ * [edgesBegin[c], edgesSplit[c]), and edges2 are [edgesSplit[c],
+ * edgesBegin[c + 1]).
+ *
+ * Constraints are identified by their index. Solved constraints are marked
+ * as removed instead of being deleted. {@link SIConstraint}s are only built
+ * when reporting conflicts.
+ */
+class ConstraintStore<KeyType, ValueType> {
+    private static final int INITIAL_CAPACITY = 16;
+    private static final EdgeType[] EDGE_TYPES = EdgeType.values();
+
+    private final List<Transaction<KeyType, ValueType>> transactions;
+    private final Map<Transaction<KeyType, ValueType>, Integer> transactionIds = new HashMap<>();
+
+    private final List<KeyType> keys = new ArrayList<>();
+    private final Map<KeyType, Integer> keyIds = new HashMap<>();
+
+    private int edgeCount = 0;
+    private int[] edgeFrom = new int[INITIAL_CAPACITY];
+    private int[] edgeTo = new int[INITIAL_CAPACITY];
+    private byte[] edgeType = new byte[INITIAL_CAPACITY];
+    private int[] edgeKey = new int[INITIAL_CAPACITY];
+
+    private int constraintCount = 0;
+    private int[] writeTransaction1 = new int[INITIAL_CAPACITY];
+    private int[] writeTransaction2 = new int[INITIAL_CAPACITY];
+    private int[] edgesBegin = new int[INITIAL_CAPACITY + 1];
+    private int[] edgesSplit = new int[INITIAL_CAPACITY];
+
+    private final BitSet removed = new BitSet();
+    private int removedEdges = 0;
+
+    ConstraintStore(Collection<Transaction<KeyType, ValueType>> transactions) {
+        this.transactions = new ArrayList<>(transactions);
+        for (int i = 0; i < this.transactions.size(); i++) {
+            transactionIds.put(this.transactions.get(i), i);
+        }
+    }
+
+    int transactionCount() {
+        return transactions.size();
+    }
+
+    int transactionId(Transaction<KeyType, ValueType> txn) {
+        return transactionIds.get(txn);
+    }
+
+    Transaction<KeyType, ValueType> transaction(int id) {
+        return transactions.get(id);
+    }
+
+    int keyId(KeyType key) {
+        return keyIds.computeIfAbsent(key, k -> {
+            keys.add(k);
+            return keys.size() - 1;
+        });
+    }
+
+    /*
+     * Start a new constraint. Edges added after this call are edges1 of the
+     * constraint, until startEdges2() is called.
+     *
+     * @return the id of the new constraint
+     */
+    int startConstraint(int writeTransaction1, int writeTransaction2) {
+        if (constraintCount == this.writeTransaction1.length) {
+            var capacity = constraintCount * 2;
+            this.writeTransaction1 = Arrays.copyOf(this.writeTransaction1, capacity);
+            this.writeTransaction2 = Arrays.copyOf(this.writeTransaction2, capacity);
+            edgesBegin = Arrays.copyOf(edgesBegin, capacity + 1);
+            edgesSplit = Arrays.copyOf(edgesSplit, capacity);
+        }
+
+        var c = constraintCount++;
+        this.writeTransaction1[c] = writeTransaction1;
+        this.writeTransaction2[c] = writeTransaction2;
+        edgesBegin[c] = edgeCount;
+        edgesSplit[c] = edgeCount;
+        edgesBegin[c + 1] = edgeCount;
+        return c;
+    }
+
+    void startEdges2() {
+        edgesSplit[constraintCount - 1] = edgeCount;
+    }
+
+    void addEdge(int from, int to, EdgeType type, int key) {
+        if (edgeCount == edgeFrom.length) {
+            var capacity = edgeCount * 2;
+            edgeFrom = Arrays.copyOf(edgeFrom, capacity);
+            edgeTo = Arrays.copyOf(edgeTo, capacity);
+            edgeType = Arrays.copyOf(edgeType, capacity);
+            edgeKey = Arrays.copyOf(edgeKey, capacity);
+        }
+
+        var e = edgeCount++;
+        edgeFrom[e] = from;
+        edgeTo[e] = to;
+        edgeType[e] = (byte) type.ordinal();
+        edgeKey[e] = key;
+        edgesBegin[constraintCount] = edgeCount;
+    }
+
+    void addConstraint(Transaction<KeyType, ValueType> writeTransaction1,
+            Transaction<KeyType, ValueType> writeTransaction2, Collection<SIEdge<KeyType, ValueType>> edges1,
+            Collection<SIEdge<KeyType, ValueType>> edges2) {
+        startConstraint(transactionId(writeTransaction1), transactionId(writeTransaction2));
+        for (var e : edges1) {
+            addEdge(transactionId(e.getFrom()), transactionId(e.getTo()), e.getType(), keyId(e.getKey()));
+        }
+        startEdges2();
+        for (var e : edges2) {
+            addEdge(transactionId(e.getFrom()), transactionId(e.getTo()), e.getType(), keyId(e.getKey()));
+        }
+    }
+
+    /*
+     * @return the number of constraints, including removed ones
+     */
+    int constraintCount() {
+        return constraintCount;
+    }
+
+    /*
+     * @return the number of constraints not removed
+     */
+    int size() {
+        return constraintCount - removed.cardinality();
+    }
+
+    /*
+     * @return the number of edges in constraints not removed
+     */
+    int edgeCount() {
+        return edgeCount - removedEdges;
+    }
+
+    boolean isRemoved(int c) {
+        return removed.get(c);
+    }
+
+    void remove(int c) {
+        if (!removed.get(c)) {
+            removed.set(c);
+            removedEdges += edgesBegin[c + 1] - edgesBegin[c];
+        }
+    }
+
+    int writeTransaction1(int c) {
+        return writeTransaction1[c];
+    }
+
+    int writeTransaction2(int c) {
+        return writeTransaction2[c];
+    }
+
+    int edges1Begin(int c) {
+        return edgesBegin[c];
+    }
+
+    int edges1End(int c) {
+        return edgesSplit[c];
+    }
+
+    int edges2Begin(int c) {
+        return edgesSplit[c];
+    }
+
+    int edges2End(int c) {
+        return edgesBegin[c + 1];
+    }
+
+    int from(int e) {
+        return edgeFrom[e];
+    }
+
+    int to(int e) {
+        return edgeTo[e];
+    }
+
+    EdgeType type(int e) {
+        return EDGE_TYPES[edgeType[e]];
+    }
+
+    KeyType key(int e) {
+        return keys.get(edgeKey[e]);
+    }
+
+    SIEdge<KeyType, ValueType> toEdge(int e) {
+        return new SIEdge<>(transactions.get(edgeFrom[e]), transactions.get(edgeTo[e]), type(e), key(e));
+    }
+
+    SIConstraint<KeyType, ValueType> toConstraint(int c) {
+        var edges1 = new ArrayList<SIEdge<KeyType, ValueType>>();
+        for (int e = edges1Begin(c); e < edges1End(c); e++) {
+            edges1.add(toEdge(e));
+        }
+        var edges2 = new ArrayList<SIEdge<KeyType, ValueType>>();
+        for (int e = edges2Begin(c); e < edges2End(c); e++) {
+            edges2.add(toEdge(e));
+        }
+
+        return new SIConstraint<>(edges1, edges2, transactions.get(writeTransaction1[c]),
+                transactions.get(writeTransaction2[c]), c);
+    }
+}
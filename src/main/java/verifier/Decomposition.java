@@ -0,0 +1,245 @@
+package verifier;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+import com.google.common.graph.ValueGraph;
+
+import graph.Edge;
+import graph.KnownGraph;
+import history.Transaction;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import util.IntList;
+
+/**
+ * Splits the known graph and the constraints into parts that can be solved
+ * separately.
+ *
+ * A cycle in A union C is a closed walk over known edges and edges of
+ * constraints, so it lies in one strongly connected component of the graph of
+ * those edges. A constraint has WW edges in both directions between its write
+ * transactions, so it belongs to the component of both. Each component with a
+ * constraint or more than one transaction is solved with the edges inside it;
+ * edges between components are never on a cycle.
+ */
+class Decomposition {
+    @Getter
+    @AllArgsConstructor
+    static class Component<KeyType, ValueType> {
+        private final KnownGraph<KeyType, ValueType> graph;
+        private final ConstraintStore<KeyType, ValueType> constraints;
+
+        // ids of the constraints in the store the component is split from
+        private final int[] constraintIds;
+    }
+
+    /*
+     * @return the components to solve, largest first
+     */
+    static <KeyType, ValueType> List<Component<KeyType, ValueType>> split(KnownGraph<KeyType, ValueType> knownGraph,
+            ConstraintStore<KeyType, ValueType> constraints) {
+        var n = constraints.transactionCount();
+        var from = new IntList();
+        var to = new IntList();
+        forEachKnownEdge(knownGraph.getKnownGraphA(), constraints, from, to);
+        forEachKnownEdge(knownGraph.getKnownGraphB(), constraints, from, to);
+        for (int c = 0; c < constraints.constraintCount(); c++) {
+            if (constraints.isRemoved(c)) {
+                continue;
+            }
+            for (int e = constraints.edges1Begin(c); e < constraints.edges2End(c); e++) {
+                from.add(constraints.from(e));
+                to.add(constraints.to(e));
+            }
+        }
+
+        var component = stronglyConnectedComponents(n, from, to);
+        var componentCount = Arrays.stream(component).max().orElse(-1) + 1;
+
+        // ids of the transactions in their components
+        var sizes = new int[componentCount];
+        var localIds = new int[n];
+        for (int i = 0; i < n; i++) {
+            localIds[i] = sizes[component[i]]++;
+        }
+
+        var hasConstraints = new boolean[componentCount];
+        for (int c = 0; c < constraints.constraintCount(); c++) {
+            if (!constraints.isRemoved(c)) {
+                hasConstraints[component[constraints.writeTransaction1(c)]] = true;
+            }
+        }
+
+        // index in parts of each component, or -1 if it is not solved
+        var partIds = new int[componentCount];
+        var transactions = new ArrayList<List<Transaction<KeyType, ValueType>>>();
+        for (int i = 0; i < componentCount; i++) {
+            if (hasConstraints[i] || sizes[i] > 1) {
+                partIds[i] = transactions.size();
+                transactions.add(new ArrayList<>(sizes[i]));
+            } else {
+                partIds[i] = -1;
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            var p = partIds[component[i]];
+            if (p >= 0) {
+                transactions.get(p).add(constraints.transaction(i));
+            }
+        }
+
+        var graphs = new ArrayList<KnownGraph<KeyType, ValueType>>();
+        var stores = new ArrayList<ConstraintStore<KeyType, ValueType>>();
+        var constraintIds = new ArrayList<IntList>();
+        for (var txns : transactions) {
+            var graph = new KnownGraph<KeyType, ValueType>();
+            txns.forEach(graph::addTransaction);
+            graphs.add(graph);
+            stores.add(new ConstraintStore<>(txns));
+            constraintIds.add(new IntList());
+        }
+
+        for (var g : List.of(knownGraph.getKnownGraphA(), knownGraph.getKnownGraphB())) {
+            for (var e : g.edges()) {
+                var u = constraints.transactionId(e.source());
+                var v = constraints.transactionId(e.target());
+                if (component[u] != component[v] || partIds[component[u]] < 0) {
+                    continue;
+                }
+
+                var graph = graphs.get(partIds[component[u]]);
+                for (var edge : g.edgeValue(e).get()) {
+                    graph.putEdge(e.source(), e.target(), edge);
+                }
+            }
+        }
+
+        for (int c = 0; c < constraints.constraintCount(); c++) {
+            if (constraints.isRemoved(c)) {
+                continue;
+            }
+
+            var i = constraints.writeTransaction1(c);
+            var p = partIds[component[i]];
+            var store = stores.get(p);
+            store.startConstraint(localIds[i], localIds[constraints.writeTransaction2(c)]);
+            addEdges(constraints, store, component, localIds, constraints.edges1Begin(c), constraints.edges1End(c));
+            store.startEdges2();
+            addEdges(constraints, store, component, localIds, constraints.edges2Begin(c), constraints.edges2End(c));
+            constraintIds.get(p).add(c);
+        }
+
+        var components = new ArrayList<Component<KeyType, ValueType>>();
+        for (int p = 0; p < transactions.size(); p++) {
+            components.add(new Component<>(graphs.get(p), stores.get(p), constraintIds.get(p).toArray()));
+        }
+        components.sort(Comparator.comparing(
+                (Component<KeyType, ValueType> c) -> c.getConstraints().transactionCount()).reversed());
+        return components;
+    }
+
+    private static <KeyType, ValueType> void forEachKnownEdge(
+            ValueGraph<Transaction<KeyType, ValueType>, Collection<Edge<KeyType>>> graph,
+            ConstraintStore<KeyType, ValueType> constraints, IntList from, IntList to) {
+        for (var e : graph.edges()) {
+            from.add(constraints.transactionId(e.source()));
+            to.add(constraints.transactionId(e.target()));
+        }
+    }
+
+    /*
+     * Copy the edges [begin, end) of a constraint whose endpoints are in the
+     * same component
+     */
+    private static <KeyType, ValueType> void addEdges(ConstraintStore<KeyType, ValueType> constraints,
+            ConstraintStore<KeyType, ValueType> store, int[] component, int[] localIds, int begin, int end) {
+        for (int e = begin; e < end; e++) {
+            var u = constraints.from(e);
+            var v = constraints.to(e);
+            if (component[u] == component[v]) {
+                store.addEdge(localIds[u], localIds[v], constraints.type(e), store.keyId(constraints.key(e)));
+            }
+        }
+    }
+
+    /*
+     * Tarjan's algorithm, without recursion
+     *
+     * @return the component of each node
+     */
+    static int[] stronglyConnectedComponents(int n, IntList from, IntList to) {
+        var offsets = new int[n + 1];
+        for (int e = 0; e < from.size(); e++) {
+            offsets[from.get(e) + 1]++;
+        }
+        for (int i = 0; i < n; i++) {
+            offsets[i + 1] += offsets[i];
+        }
+        var targets = new int[from.size()];
+        var next = Arrays.copyOf(offsets, n);
+        for (int e = 0; e < from.size(); e++) {
+            targets[next[from.get(e)]++] = to.get(e);
+        }
+
+        var index = new int[n];
+        var lowLink = new int[n];
+        var component = new int[n];
+        var onStack = new boolean[n];
+        Arrays.fill(index, -1);
+        var stack = new IntList();
+        var callStack = new IntList();
+        int counter = 0, componentCount = 0;
+
+        for (int s = 0; s < n; s++) {
+            if (index[s] >= 0) {
+                continue;
+            }
+
+            index[s] = lowLink[s] = counter++;
+            stack.add(s);
+            onStack[s] = true;
+            callStack.add(s);
+            next[s] = offsets[s];
+
+            while (!callStack.isEmpty()) {
+                var v = callStack.get(callStack.size() - 1);
+                if (next[v] < offsets[v + 1]) {
+                    var w = targets[next[v]++];
+                    if (index[w] < 0) {
+                        index[w] = lowLink[w] = counter++;
+                        stack.add(w);
+                        onStack[w] = true;
+                        callStack.add(w);
+                        next[w] = offsets[w];
+                    } else if (onStack[w]) {
+                        lowLink[v] = Math.min(lowLink[v], index[w]);
+                    }
+                    continue;
+                }
+
+                callStack.truncate(callStack.size() - 1);
+                if (!callStack.isEmpty()) {
+                    var u = callStack.get(callStack.size() - 1);
+                    lowLink[u] = Math.min(lowLink[u], lowLink[v]);
+                }
+
+                if (lowLink[v] == index[v]) {
+                    int w;
+                    do {
+                        w = stack.get(stack.size() - 1);
+                        stack.truncate(stack.size() - 1);
+                        onStack[w] = false;
+                        component[w] = componentCount;
+                    } while (w != v);
+                    componentCount++;
+                }
+            }
+        }
+
+        return component;
+    }
+}
@@ -0,0 +1,455 @@
+package verifier;
+
+import static history.Event.EventType.WRITE;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import com.google.common.graph.EndpointPair;
+import com.google.common.graph.MutableValueGraph;
+import com.google.common.graph.ValueGraphBuilder;
+
+import org.apache.commons.lang3.tuple.Pair;
+
+import graph.Edge;
+import graph.EdgeType;
+import graph.KnownGraph;
+import history.Event;
+import history.Session;
+import history.Transaction;
+import monosat.Lit;
+import monosat.Logic;
+import monosat.Solver;
+import util.Profiler;
+
+/**
+ * Checks a growing history for snapshot isolation, one batch of committed
+ * transactions at a time.
+ *
+ * The known graph, the constraints and the MonoSAT graph are extended in place
+ * with each batch, so the work done for a batch is proportional to the edges
+ * it adds. The solver is kept across batches: known edges are asserted as they
+ * are added, and only the constraints created or extended by a batch are
+ * passed to it as assumptions. Each side of a constraint keeps the literals
+ * "all of its edges exist" and "none of its edges exist", which are extended
+ * with the edges a batch adds to it. The literal of a constraint is replaced
+ * when it changes; the old one is implied by the new one, so it is asserted
+ * once a batch is accepted.
+ *
+ * Reads of values whose write hasn't been seen are kept pending until the
+ * write arrives, and reported as violations by close().
+ */
+@SuppressWarnings("UnstableApiUsage")
+public class IncrementalSIVerifier<KeyType, ValueType> {
+    private final Solver solver;
+    private final monosat.Graph monoGraph;
+    private final Map<Transaction<KeyType, ValueType>, Integer> nodeMap = new HashMap<>();
+
+    private final KnownGraph<KeyType, ValueType> knownGraph = new KnownGraph<>();
+    private final Map<Session<KeyType, ValueType>, Transaction<KeyType, ValueType>> lastInSession = new HashMap<>();
+
+    // The literals of edges in graph A (SO, WR, WW) and graph B (RW)
+    private final MutableValueGraph<Transaction<KeyType, ValueType>, Collection<Lit>> graphA = ValueGraphBuilder
+            .directed().allowsSelfLoops(true).build();
+    private final MutableValueGraph<Transaction<KeyType, ValueType>, Collection<Lit>> graphB = ValueGraphBuilder
+            .directed().allowsSelfLoops(true).build();
+
+    private final Map<Pair<KeyType, ValueType>, Event<KeyType, ValueType>> writes = new HashMap<>();
+    private final Map<KeyType, Set<Transaction<KeyType, ValueType>>> writers = new HashMap<>();
+    private final Map<Pair<Transaction<KeyType, ValueType>, KeyType>, Set<Transaction<KeyType, ValueType>>> readers = new HashMap<>();
+    // reads and their indices in the transactions
+    private final Map<Pair<KeyType, ValueType>, List<Pair<Event<KeyType, ValueType>, Integer>>> pendingReads = new HashMap<>();
+
+    private final Map<Pair<Transaction<KeyType, ValueType>, Transaction<KeyType, ValueType>>, PairConstraint<KeyType, ValueType>> pairConstraints = new HashMap<>();
+    private final Set<PairConstraint<KeyType, ValueType>> changedConstraints = new HashSet<>();
+    private int constraintId = 0;
+
+    // the literals passed as assumptions in the last solve
+    private final Map<Lit, SIConstraint<KeyType, ValueType>> constraintLiterals = new HashMap<>();
+
+    private int epoch = 0;
+    private boolean accepted = true;
+    private boolean closed = false;
+
+    private static class PairConstraint<KeyType, ValueType> {
+        private final SIConstraint<KeyType, ValueType> constraint;
+
+        // whether all or none of the edges of each side exist
+        private Lit all1 = Lit.True, none1 = Lit.True;
+        private Lit all2 = Lit.True, none2 = Lit.True;
+
+        PairConstraint(SIConstraint<KeyType, ValueType> constraint) {
+            this.constraint = constraint;
+        }
+    }
+
+    public IncrementalSIVerifier() {
+        MonoSAT.lock();
+        try {
+            solver = new Solver();
+            monoGraph = new monosat.Graph(solver);
+            solver.assertTrue(monoGraph.acyclic());
+        } finally {
+            MonoSAT.unlock();
+        }
+    }
+
+    /**
+     * Add a batch of committed transactions and check the history seen so far
+     *
+     * The transactions must already be in the history, and transactions of the
+     * same session must come in session order, across batches too.
+     *
+     * @return whether the history seen so far satisfies SI, not counting the
+     *         reads whose write hasn't arrived. Once a batch is rejected, all
+     *         later batches are rejected.
+     */
+    public boolean audit(Collection<Transaction<KeyType, ValueType>> batch) {
+        if (closed) {
+            throw new IllegalStateException("verifier is closed");
+        }
+
+        // the MonoSAT graph is extended while adding the batch
+        MonoSAT.lock();
+        try {
+            return addBatch(batch);
+        } finally {
+            MonoSAT.unlock();
+        }
+    }
+
+    private boolean addBatch(Collection<Transaction<KeyType, ValueType>> batch) {
+        var profiler = Profiler.getInstance();
+        profiler.startTick("SI_INCREMENTAL_EPOCH");
+        epoch++;
+
+        profiler.startTick("SI_INCREMENTAL_GRAPH");
+        for (var txn : batch) {
+            nodeMap.put(txn, monoGraph.addNode());
+            knownGraph.addTransaction(txn);
+            graphA.addNode(txn);
+            graphB.addNode(txn);
+
+            var prev = lastInSession.put(txn.getSession(), txn);
+            if (prev != null) {
+                addKnownEdge(prev, txn, new Edge<>(EdgeType.SO, null));
+            }
+        }
+
+        var reads = new ArrayList<Pair<Event<KeyType, ValueType>, Integer>>();
+        for (var txn : batch) {
+            var events = txn.getEvents();
+            for (int i = 0; i < events.size(); i++) {
+                var ev = events.get(i);
+                if (ev.getType() == WRITE) {
+                    addWrite(ev, reads);
+                } else {
+                    reads.add(Pair.of(ev, i));
+                }
+            }
+        }
+
+        var violations = new ArrayList<InternalConsistency.Violation<KeyType, ValueType>>();
+        for (var p : reads) {
+            addRead(p.getLeft(), p.getRight(), violations);
+        }
+
+        if (accepted) {
+            constraintLiterals.clear();
+            changedConstraints.forEach(this::updateConstraintLiteral);
+        }
+        changedConstraints.clear();
+        profiler.endTick("SI_INCREMENTAL_GRAPH");
+
+        System.err.printf("Epoch %d: %d transactions, %d constraints, %d changed, %d pending reads\n", epoch,
+                batch.size(), pairConstraints.size(), constraintLiterals.size(),
+                pendingReads.values().stream().mapToInt(List::size).sum());
+
+        if (!violations.isEmpty()) {
+            violations.forEach(v -> System.err.println(v));
+            accepted = false;
+        }
+
+        if (accepted) {
+            profiler.startTick("SI_INCREMENTAL_SOLVE");
+            accepted = MonoSAT.solve(solver, new ArrayList<>(constraintLiterals.keySet()));
+            profiler.endTick("SI_INCREMENTAL_SOLVE");
+
+            if (accepted) {
+                constraintLiterals.keySet().forEach(solver::assertTrue);
+            } else {
+                printConflicts();
+            }
+        }
+
+        profiler.endTick("SI_INCREMENTAL_EPOCH");
+        return accepted;
+    }
+
+    /**
+     * Report the reads whose write never arrived. No batch can be added
+     * afterwards.
+     *
+     * @return whether the whole history satisfies SI
+     */
+    public boolean close() {
+        closed = true;
+        pendingReads.values().forEach(reads -> reads.forEach(p -> {
+            System.err.println(new InternalConsistency.Violation<>(InternalConsistency.ViolationType.NO_WRITE,
+                    p.getLeft(), null));
+            accepted = false;
+        }));
+        pendingReads.clear();
+        return accepted;
+    }
+
+    /**
+     * Get the constraints of the batch causing the last rejection, and the
+     * known edges between their transactions.
+     *
+     * Known edges and the constraints of accepted batches are asserted in the
+     * solver, so they are only reported through the transactions of these
+     * constraints. Both collections are empty if the known edges alone form a
+     * cycle.
+     */
+    public Pair<Collection<Pair<EndpointPair<Transaction<KeyType, ValueType>>, Collection<Edge<KeyType>>>>, Collection<SIConstraint<KeyType, ValueType>>> getConflicts() {
+        var edges = new ArrayList<Pair<EndpointPair<Transaction<KeyType, ValueType>>, Collection<Edge<KeyType>>>>();
+        var constraints = new ArrayList<SIConstraint<KeyType, ValueType>>();
+
+        MonoSAT.lock();
+        try {
+            solver.getConflictClause().stream().map(Logic::not).forEach(lit -> {
+                if (constraintLiterals.containsKey(lit)) {
+                    constraints.add(constraintLiterals.get(lit));
+                }
+            });
+        } finally {
+            MonoSAT.unlock();
+        }
+
+        var txns = transactionsOf(constraints);
+        var graph = knownGraph.getKnownGraphA();
+        for (var e : graph.edges()) {
+            if (txns.contains(e.source()) && txns.contains(e.target())) {
+                edges.add(Pair.of(e, graph.edgeValue(e).get()));
+            }
+        }
+        return Pair.of(edges, constraints);
+    }
+
+    private void printConflicts() {
+        var conflicts = getConflicts();
+        var txns = transactionsOf(conflicts.getRight());
+        System.out.print(SIVerifier.isDotOutput()
+                ? Utils.conflictsToDot(txns, conflicts.getLeft(), conflicts.getRight())
+                : Utils.conflictsToLegacy(txns, conflicts.getLeft(), conflicts.getRight()));
+    }
+
+    private static <KeyType, ValueType> Set<Transaction<KeyType, ValueType>> transactionsOf(
+            Collection<SIConstraint<KeyType, ValueType>> constraints) {
+        var txns = new LinkedHashSet<Transaction<KeyType, ValueType>>();
+        for (var c : constraints) {
+            Stream.concat(c.getEdges1().stream(), c.getEdges2().stream()).forEach(e -> {
+                txns.add(e.getFrom());
+                txns.add(e.getTo());
+            });
+        }
+        return txns;
+    }
+
+    private void addWrite(Event<KeyType, ValueType> ev, List<Pair<Event<KeyType, ValueType>, Integer>> reads) {
+        var kv = Pair.of(ev.getKey(), ev.getValue());
+        writes.put(kv, ev);
+
+        var pending = pendingReads.remove(kv);
+        if (pending != null) {
+            reads.addAll(pending);
+        }
+
+        var key = ev.getKey();
+        var c = ev.getTransaction();
+        var keyWriters = writers.computeIfAbsent(key, k -> new LinkedHashSet<>());
+        if (keyWriters.contains(c)) {
+            return;
+        }
+
+        for (var a : keyWriters) {
+            if (!pairConstraints.containsKey(Pair.of(a, c)) && !pairConstraints.containsKey(Pair.of(c, a))) {
+                pairConstraints.put(Pair.of(a, c), new PairConstraint<>(
+                        new SIConstraint<>(new ArrayList<>(), new ArrayList<>(), a, c, constraintId++)));
+            }
+
+            addConstraintEdge(a, c, new SIEdge<>(a, c, EdgeType.WW, key));
+            addConstraintEdge(c, a, new SIEdge<>(c, a, EdgeType.WW, key));
+            for (var b : readers.getOrDefault(Pair.of(a, key), Set.of())) {
+                if (b != c) {
+                    addConstraintEdge(a, c, new SIEdge<>(b, c, EdgeType.RW, key));
+                }
+            }
+        }
+        keyWriters.add(c);
+    }
+
+    private void addRead(Event<KeyType, ValueType> ev, int index,
+            List<InternalConsistency.Violation<KeyType, ValueType>> violations) {
+        var kv = Pair.of(ev.getKey(), ev.getValue());
+        var write = writes.get(kv);
+        if (write == null) {
+            pendingReads.computeIfAbsent(kv, k -> new ArrayList<>()).add(Pair.of(ev, index));
+            return;
+        }
+
+        var violation = checkRead(ev, index, write);
+        if (violation != null) {
+            violations.add(violation);
+            return;
+        }
+
+        var key = ev.getKey();
+        var a = write.getTransaction();
+        var b = ev.getTransaction();
+        if (a == b) {
+            return;
+        }
+
+        addKnownEdge(a, b, new Edge<>(EdgeType.WR, key));
+        if (!readers.computeIfAbsent(Pair.of(a, key), k -> new LinkedHashSet<>()).add(b)) {
+            return;
+        }
+
+        for (var c : writers.get(key)) {
+            if (c != a && c != b) {
+                addConstraintEdge(a, c, new SIEdge<>(b, c, EdgeType.RW, key));
+            }
+        }
+    }
+
+    /*
+     * Same checks as InternalConsistency, but only for one read
+     */
+    private InternalConsistency.Violation<KeyType, ValueType> checkRead(Event<KeyType, ValueType> read, int index,
+            Event<KeyType, ValueType> write) {
+        var txn = read.getTransaction();
+        var events = txn.getEvents();
+
+        Event<KeyType, ValueType> myLastWrite = null;
+        for (var ev : events.subList(0, index)) {
+            if (ev.getType() == WRITE && ev.getKey().equals(read.getKey())) {
+                myLastWrite = ev;
+            }
+        }
+
+        if (write.getTransaction() == txn) {
+            if (myLastWrite == null) {
+                return new InternalConsistency.Violation<>(InternalConsistency.ViolationType.FUTURE_WRITE, read, write);
+            } else if (!myLastWrite.equals(write)) {
+                return new InternalConsistency.Violation<>(InternalConsistency.ViolationType.NOT_LATEST_WRITE, read,
+                        write);
+            }
+            return null;
+        }
+
+        Event<KeyType, ValueType> lastWrite = null;
+        for (var ev : write.getTransaction().getEvents()) {
+            if (ev.getType() == WRITE && ev.getKey().equals(read.getKey())) {
+                lastWrite = ev;
+            }
+        }
+        if (myLastWrite != null || !write.equals(lastWrite)) {
+            return new InternalConsistency.Violation<>(InternalConsistency.ViolationType.NOT_LATEST_WRITE, read, write);
+        }
+        return null;
+    }
+
+    private void addKnownEdge(Transaction<KeyType, ValueType> from, Transaction<KeyType, ValueType> to,
+            Edge<KeyType> edge) {
+        var isNew = !knownGraph.getKnownGraphA().hasEdgeConnecting(from, to);
+        knownGraph.putEdge(from, to, edge);
+        if (!isNew) {
+            return;
+        }
+
+        var lit = new Lit(solver);
+        solver.assertTrue(lit);
+        addToGraphA(from, to, lit);
+    }
+
+    /*
+     * Add an edge to the side of the constraint where "first" precedes "second"
+     */
+    private void addConstraintEdge(Transaction<KeyType, ValueType> first, Transaction<KeyType, ValueType> second,
+            SIEdge<KeyType, ValueType> edge) {
+        var lit = new Lit(solver);
+        solver.setDecisionLiteral(lit, false);
+        if (edge.getType() == EdgeType.WW) {
+            addToGraphA(edge.getFrom(), edge.getTo(), lit);
+        } else {
+            addToGraphB(edge.getFrom(), edge.getTo(), lit);
+        }
+
+        var pc = pairConstraints.get(Pair.of(first, second));
+        if (pc != null) {
+            pc.constraint.getEdges1().add(edge);
+            pc.all1 = Logic.and(pc.all1, lit);
+            pc.none1 = Logic.and(pc.none1, Logic.not(lit));
+            solver.setDecisionLiteral(pc.all1, false);
+            solver.setDecisionLiteral(pc.none1, false);
+        } else {
+            pc = pairConstraints.get(Pair.of(second, first));
+            pc.constraint.getEdges2().add(edge);
+            pc.all2 = Logic.and(pc.all2, lit);
+            pc.none2 = Logic.and(pc.none2, Logic.not(lit));
+            solver.setDecisionLiteral(pc.all2, false);
+            solver.setDecisionLiteral(pc.none2, false);
+        }
+        changedConstraints.add(pc);
+    }
+
+    /*
+     * Create a literal asserting that exactly one side of the constraint exists,
+     * to be passed as an assumption in this batch
+     */
+    private void updateConstraintLiteral(PairConstraint<KeyType, ValueType> pc) {
+        constraintLiterals.put(Logic.or(Logic.and(pc.all1, pc.none2), Logic.and(pc.all2, pc.none1)), pc.constraint);
+    }
+
+    /*
+     * Add an edge of A to the SAT graph, together with the edges of C = A;B it
+     * induces
+     */
+    private void addToGraphA(Transaction<KeyType, ValueType> from, Transaction<KeyType, ValueType> to, Lit lit) {
+        Utils.addEdge(graphA, from, to, lit);
+        addMonoEdge(from, to, lit);
+
+        for (var next : graphB.successors(to)) {
+            for (var l : graphB.edgeValue(to, next).get()) {
+                var composed = Logic.and(lit, l);
+                solver.setDecisionLiteral(composed, false);
+                addMonoEdge(from, next, composed);
+            }
+        }
+    }
+
+    private void addToGraphB(Transaction<KeyType, ValueType> from, Transaction<KeyType, ValueType> to, Lit lit) {
+        Utils.addEdge(graphB, from, to, lit);
+
+        for (var prev : graphA.predecessors(from)) {
+            for (var l : graphA.edgeValue(prev, from).get()) {
+                var composed = Logic.and(l, lit);
+                solver.setDecisionLiteral(composed, false);
+                addMonoEdge(prev, to, composed);
+            }
+        }
+    }
+
+    private void addMonoEdge(Transaction<KeyType, ValueType> from, Transaction<KeyType, ValueType> to, Lit lit) {
+        solver.assertEqual(lit, monoGraph.addEdge(nodeMap.get(from), nodeMap.get(to)));
+    }
+}
@@ -0,0 +1,215 @@
+package verifier;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.apache.commons.lang3.tuple.Pair;
+
+import history.Event;
+import history.History;
+import history.Transaction;
+import lombok.Data;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Checks that every read observes a write allowed by the transaction's own
+ * operations (internal consistency).
+ *
+ * Events are partitioned by key, and each shard of keys is checked
+ * independently on the common fork-join pool.
+ */
+public class InternalConsistency {
+    @Getter
+    @Setter
+    private static boolean stopOnFirstViolation = false;
+
+    // transactions handled by one leaf task when partitioning events
+    private static final int PARTITION_GRAIN = 1024;
+
+    public enum ViolationType {
+        NO_WRITE, NOT_LATEST_WRITE, FUTURE_WRITE
+    }
+
+    @Data
+    public static class Violation<KeyType, ValueType> {
+        private final ViolationType type;
+        private final Event<KeyType, ValueType> read;
+
+        // null if type is NO_WRITE
+        private final Event<KeyType, ValueType> write;
+
+        @Override
+        public String toString() {
+            switch (type) {
+            case NO_WRITE:
+                return String.format("%s has no corresponding write", read);
+            case NOT_LATEST_WRITE:
+                return String.format("%s not reading from latest write: %s", read, write);
+            case FUTURE_WRITE:
+                return String.format("%s reads from a write after it: %s", read, write);
+            default:
+                throw new Error("should not be here");
+            }
+        }
+    }
+
+    @Data
+    private static class IndexedEvent<KeyType, ValueType> {
+        private final Event<KeyType, ValueType> event;
+        private final int index;
+    }
+
+    /**
+     * Check internal consistency of a history
+     *
+     * @return the violations found, or an empty list if the history is
+     *         internally consistent. If stopOnFirstViolation is set, at most
+     *         one violation is returned.
+     */
+    public static <KeyType, ValueType> List<Violation<KeyType, ValueType>> check(History<KeyType, ValueType> history) {
+        var pool = ForkJoinPool.commonPool();
+        var shardNum = pool.getParallelism() * 4;
+        var transactions = new ArrayList<>(history.getTransactions());
+        var shards = pool.invoke(new PartitionTask<>(transactions, 0, transactions.size(), shardNum));
+
+        var stop = new AtomicBoolean(false);
+        var violations = pool.submit(() -> IntStream.range(0, shardNum).parallel()
+                .mapToObj(i -> checkShard(shards.get(i), stop))
+                .collect(Collectors.toList())).join();
+
+        var result = violations.stream().flatMap(List::stream).collect(Collectors.toList());
+        if (stopOnFirstViolation && result.size() > 1) {
+            return List.of(result.get(0));
+        }
+        return result;
+    }
+
+    private static <KeyType, ValueType> List<Violation<KeyType, ValueType>> checkShard(
+            List<IndexedEvent<KeyType, ValueType>> events, AtomicBoolean stop) {
+        var writes = new HashMap<Pair<KeyType, ValueType>, IndexedEvent<KeyType, ValueType>>();
+        var txnWrites = new HashMap<Pair<Transaction<KeyType, ValueType>, KeyType>, ArrayList<Integer>>();
+        var violations = new ArrayList<Violation<KeyType, ValueType>>();
+
+        for (var p : events) {
+            var ev = p.getEvent();
+            if (ev.getType() != Event.EventType.WRITE) {
+                continue;
+            }
+
+            writes.put(Pair.of(ev.getKey(), ev.getValue()), p);
+            txnWrites.computeIfAbsent(Pair.of(ev.getTransaction(), ev.getKey()), k -> new ArrayList<>())
+                    .add(p.getIndex());
+        }
+
+        for (var p : events) {
+            var ev = p.getEvent();
+            if (ev.getType() != Event.EventType.READ) {
+                continue;
+            }
+            if (stop.get()) {
+                break;
+            }
+
+            var violation = checkRead(ev, p.getIndex(), writes, txnWrites);
+            if (violation != null) {
+                violations.add(violation);
+                if (stopOnFirstViolation) {
+                    stop.set(true);
+                    break;
+                }
+            }
+        }
+
+        return violations;
+    }
+
+    private static <KeyType, ValueType> Violation<KeyType, ValueType> checkRead(Event<KeyType, ValueType> ev, int i,
+            HashMap<Pair<KeyType, ValueType>, IndexedEvent<KeyType, ValueType>> writes,
+            HashMap<Pair<Transaction<KeyType, ValueType>, KeyType>, ArrayList<Integer>> txnWrites) {
+        var writeEv = writes.get(Pair.of(ev.getKey(), ev.getValue()));
+        if (writeEv == null) {
+            return new Violation<>(ViolationType.NO_WRITE, ev, null);
+        }
+
+        var write = writeEv.getEvent();
+        var myWriteIndices = txnWrites.getOrDefault(Pair.of(ev.getTransaction(), ev.getKey()), new ArrayList<>());
+        var writeIndices = txnWrites.get(Pair.of(write.getTransaction(), write.getKey()));
+        var j = Collections.binarySearch(writeIndices, writeEv.getIndex());
+
+        if (write.getTransaction() == ev.getTransaction()) {
+            if (j != writeIndices.size() - 1 && writeIndices.get(j + 1) < i) {
+                return new Violation<>(ViolationType.NOT_LATEST_WRITE, ev, write);
+            } else if (writeEv.getIndex() > i) {
+                return new Violation<>(ViolationType.FUTURE_WRITE, ev, write);
+            }
+        } else if (j != writeIndices.size() - 1 || (!myWriteIndices.isEmpty() && myWriteIndices.get(0) < i)) {
+            return new Violation<>(ViolationType.NOT_LATEST_WRITE, ev, write);
+        }
+
+        return null;
+    }
+
+    /*
+     * Split the events of transactions [from, to) into shards by key. Events of
+     * the same transaction stay in program order inside a shard.
+     */
+    private static class PartitionTask<KeyType, ValueType>
+            extends RecursiveTask<List<List<IndexedEvent<KeyType, ValueType>>>> {
+        private final List<Transaction<KeyType, ValueType>> transactions;
+        private final int from;
+        private final int to;
+        private final int shardNum;
+
+        PartitionTask(List<Transaction<KeyType, ValueType>> transactions, int from, int to, int shardNum) {
+            this.transactions = transactions;
+            this.from = from;
+            this.to = to;
+            this.shardNum = shardNum;
+        }
+
+        @Override
+        protected List<List<IndexedEvent<KeyType, ValueType>>> compute() {
+            if (to - from <= PARTITION_GRAIN) {
+                var shards = new ArrayList<List<IndexedEvent<KeyType, ValueType>>>(shardNum);
+                for (int i = 0; i < shardNum; i++) {
+                    shards.add(new ArrayList<>());
+                }
+
+                for (var txn : transactions.subList(from, to)) {
+                    var events = txn.getEvents();
+                    for (int i = 0; i < events.size(); i++) {
+                        var ev = events.get(i);
+                        shards.get(shardOf(ev.getKey(), shardNum)).add(new IndexedEvent<>(ev, i));
+                    }
+                }
+                return shards;
+            }
+
+            var middle = (from + to) >>> 1;
+            var left = new PartitionTask<>(transactions, from, middle, shardNum);
+            var right = new PartitionTask<>(transactions, middle, to, shardNum);
+            left.fork();
+            var rightShards = right.compute();
+            var leftShards = left.join();
+
+            for (int i = 0; i < shardNum; i++) {
+                leftShards.get(i).addAll(rightShards.get(i));
+            }
+            return leftShards;
+        }
+    }
+
+    private static int shardOf(Object key, int shardNum) {
+        var h = key == null ? 0 : key.hashCode();
+        h ^= h >>> 16;
+        return Math.floorMod(h, shardNum);
+    }
+}
@@ -0,0 +1,619 @@
+package verifier;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.stream.IntStream;
+
+import com.google.common.graph.EndpointPair;
+import com.google.common.graph.ValueGraph;
+
+import org.apache.commons.lang3.tuple.Pair;
+
+import graph.Edge;
+import graph.EdgeType;
+import graph.IncrementalTopologicalOrder;
+import graph.KnownGraph;
+import history.History;
+import history.Transaction;
+import util.IntList;
+import util.LongIntHashMap;
+import util.Profiler;
+
+/**
+ * A solver for SI constraints written in Java, without MonoSAT.
+ *
+ * Each constraint not removed by pruning is a variable with two values:
+ * either its edges1 or its edges2 exist. Literal 2v + s means variable v
+ * takes side s (0 for edges1), so the negation of a literal is lit ^ 1.
+ *
+ * As in SISolver, the edges of a side go to graph A (WW) or graph B (RW), and
+ * the final graph is A union C, where C = A;B. The edges of A union C are kept
+ * in an IncrementalTopologicalOrder as sides are chosen. When an edge closes a
+ * cycle, the sides that added the edges on the cycle cannot all be chosen,
+ * which is a clause. From it a clause is learned by first UIP analysis as in
+ * CDCL SAT solvers, and the search backjumps. Undecided variables take the
+ * side whose WW edge agrees with the current topological order.
+ */
+@SuppressWarnings("UnstableApiUsage")
+class JavaSISolver<KeyType, ValueType> implements ConstraintSolver<KeyType, ValueType> {
+    // an edge of A union C made of a single edge of A has no second reason
+    private static final int NO_REASON = Integer.MIN_VALUE;
+
+    // kinds of changes to the graphs on the graph trail
+    private static final int ADD_A = 0;
+    private static final int ADD_B = 1;
+    private static final int ADD_AC = 2;
+
+    private final ConstraintStore<KeyType, ValueType> constraints;
+
+    // constraint ids of variables
+    private final int[] variables;
+
+    // Known edges, which are reasons -1, -2, ... of edges. Literals are
+    // reasons of the other edges.
+    private final List<Pair<EndpointPair<Transaction<KeyType, ValueType>>, Collection<Edge<KeyType>>>> knownEdges = new ArrayList<>();
+
+    private final EdgeSet edgesA = new EdgeSet();
+    private final EdgeSet edgesB = new EdgeSet();
+    private final EdgeSet edgesAC = new EdgeSet();
+    private final IntList[] predecessorsA;
+    private final IntList[] successorsB;
+    private final IncrementalTopologicalOrder order;
+
+    // (kind, from, to) of each edge added after the known graph
+    private final IntList graphTrail = new IntList();
+    private boolean addingKnownEdges = true;
+
+    // side of each variable, or -1 if unassigned
+    private final int[] assigned;
+    private final int[] level;
+    // index of the clause that implied each variable, or -1 for decisions
+    private final int[] reason;
+    private final boolean[] seen;
+
+    private final IntList trail = new IntList();
+    private final IntList trailLimits = new IntList();
+    private final IntList graphTrailLimits = new IntList();
+    private int propagated;
+    private int decisionLevel;
+    private int nextVariable;
+
+    private final List<int[]> clauses = new ArrayList<>();
+    private final IntList[] watches;
+
+    // the clause of the last cycle found and the known edges on that cycle
+    private int[] cycleClause;
+    private final IntList cycleKnownEdges = new IntList();
+
+    // the conflict that made the constraints unsatisfiable
+    private int[] conflict;
+    private final IntList conflictKnownEdges = new IntList();
+
+    private long decisions;
+    private long conflicts;
+
+    JavaSISolver(History<KeyType, ValueType> history, KnownGraph<KeyType, ValueType> precedenceGraph,
+            ConstraintStore<KeyType, ValueType> constraints) {
+        var profiler = Profiler.getInstance();
+        profiler.startTick("SI_SOLVER_GEN");
+
+        this.constraints = constraints;
+        variables = IntStream.range(0, constraints.constraintCount()).filter(c -> !constraints.isRemoved(c))
+                .toArray();
+        assigned = new int[variables.length];
+        Arrays.fill(assigned, -1);
+        level = new int[variables.length];
+        reason = new int[variables.length];
+        seen = new boolean[variables.length];
+        watches = new IntList[variables.length * 2];
+        for (int i = 0; i < watches.length; i++) {
+            watches[i] = new IntList();
+        }
+
+        var nodes = constraints.transactionCount();
+        order = new IncrementalTopologicalOrder(nodes);
+        predecessorsA = new IntList[nodes];
+        successorsB = new IntList[nodes];
+        for (int i = 0; i < nodes; i++) {
+            predecessorsA[i] = new IntList();
+            successorsB[i] = new IntList();
+        }
+
+        addKnownEdges(precedenceGraph.getKnownGraphA(), ADD_A);
+        addKnownEdges(precedenceGraph.getKnownGraphB(), ADD_B);
+        addingKnownEdges = false;
+        System.err.printf("Known graph A union C edges count: %d\n", edgesAC.size());
+        profiler.setCount("graphAUnionCEdges", edgesAC.size());
+
+        var cycle = order.sort();
+        if (cycle != null) {
+            setConflict(explain(cycle));
+        }
+        profiler.endTick("SI_SOLVER_GEN");
+    }
+
+    @Override
+    public boolean solve() {
+        var profiler = Profiler.getInstance();
+        profiler.startTick("SI_SOLVER_SOLVE");
+        var result = conflict == null && search();
+        profiler.endTick("SI_SOLVER_SOLVE");
+
+        System.err.printf("Solver decisions: %d\nSolver conflicts: %d\n", decisions, conflicts);
+        profiler.setCount("solverDecisions", decisions);
+        profiler.setCount("solverConflicts", conflicts);
+        return result;
+    }
+
+    /*
+     * Known edges on the last cycle, and the constraints whose sides led to it
+     */
+    @Override
+    public Pair<Collection<Pair<EndpointPair<Transaction<KeyType, ValueType>>, Collection<Edge<KeyType>>>>, Collection<SIConstraint<KeyType, ValueType>>> getConflicts() {
+        var edges = new ArrayList<Pair<EndpointPair<Transaction<KeyType, ValueType>>, Collection<Edge<KeyType>>>>();
+        for (int i = 0; i < conflictKnownEdges.size(); i++) {
+            edges.add(knownEdges.get(conflictKnownEdges.get(i)));
+        }
+
+        // at level 0, every variable is implied by a clause
+        var result = new ArrayList<SIConstraint<KeyType, ValueType>>();
+        var visited = new boolean[variables.length];
+        var stack = new IntList();
+        for (var lit : conflict) {
+            stack.add(lit >> 1);
+        }
+        while (!stack.isEmpty()) {
+            var v = stack.get(stack.size() - 1);
+            stack.truncate(stack.size() - 1);
+            if (visited[v]) {
+                continue;
+            }
+
+            visited[v] = true;
+            result.add(constraints.toConstraint(variables[v]));
+            if (reason[v] >= 0) {
+                for (var lit : clauses.get(reason[v])) {
+                    stack.add(lit >> 1);
+                }
+            }
+        }
+
+        return Pair.of(edges, result);
+    }
+
+    private void addKnownEdges(ValueGraph<Transaction<KeyType, ValueType>, Collection<Edge<KeyType>>> graph,
+            int kind) {
+        for (var e : graph.edges()) {
+            knownEdges.add(Pair.of(e, graph.edgeValue(e).get()));
+            addEdge(kind, constraints.transactionId(e.source()), constraints.transactionId(e.target()),
+                    -knownEdges.size());
+        }
+    }
+
+    /*
+     * @throws CancellationException if the thread is interrupted
+     */
+    private boolean search() {
+        while (true) {
+            if (Thread.interrupted()) {
+                throw new CancellationException("interrupted while solving");
+            }
+
+            var conflictClause = propagate();
+            if (conflictClause != null) {
+                conflicts++;
+                if (decisionLevel == 0) {
+                    setConflict(conflictClause);
+                    return false;
+                }
+
+                var learned = analyze(conflictClause);
+                backtrack(learned.length == 1 ? 0 : level[learned[1] >> 1]);
+                assign(learned[0], addClause(learned));
+                continue;
+            }
+
+            while (nextVariable < variables.length && assigned[nextVariable] >= 0) {
+                nextVariable++;
+            }
+            if (nextVariable == variables.length) {
+                return true;
+            }
+
+            decisions++;
+            decisionLevel++;
+            trailLimits.add(trail.size());
+            graphTrailLimits.add(graphTrail.size());
+            assign(2 * nextVariable + phase(nextVariable), -1);
+        }
+    }
+
+    /*
+     * Choose edges1 if it orders the written transactions as the current
+     * topological order does
+     */
+    private int phase(int v) {
+        var c = variables[v];
+        return order.order(constraints.writeTransaction1(c)) < order.order(constraints.writeTransaction2(c)) ? 0
+                : 1;
+    }
+
+    private boolean isTrue(int lit) {
+        return assigned[lit >> 1] == (lit & 1);
+    }
+
+    private boolean isFalse(int lit) {
+        return assigned[lit >> 1] == ((lit & 1) ^ 1);
+    }
+
+    private void assign(int lit, int reasonClause) {
+        var v = lit >> 1;
+        assigned[v] = lit & 1;
+        level[v] = decisionLevel;
+        reason[v] = reasonClause;
+        trail.add(lit);
+    }
+
+    /*
+     * Propagate clauses and add the edges of assigned sides to the graphs
+     *
+     * @return null, or a clause with all literals false
+     */
+    private int[] propagate() {
+        while (propagated < trail.size()) {
+            var lit = trail.get(propagated++);
+            var conflictClause = propagateClauses(lit ^ 1);
+            if (conflictClause == null) {
+                conflictClause = addSide(lit);
+            }
+            if (conflictClause != null) {
+                return conflictClause;
+            }
+        }
+        return null;
+    }
+
+    /*
+     * Visit the clauses watching a literal that just became false. Each
+     * clause of two or more literals watches its first two.
+     */
+    private int[] propagateClauses(int falseLit) {
+        var watching = watches[falseLit];
+        var kept = 0;
+        for (int i = 0; i < watching.size(); i++) {
+            var c = watching.get(i);
+            var clause = clauses.get(c);
+            if (clause[0] == falseLit) {
+                clause[0] = clause[1];
+                clause[1] = falseLit;
+            }
+            if (isTrue(clause[0])) {
+                watching.set(kept++, c);
+                continue;
+            }
+
+            var moved = false;
+            for (int k = 2; k < clause.length; k++) {
+                if (!isFalse(clause[k])) {
+                    clause[1] = clause[k];
+                    clause[k] = falseLit;
+                    watches[clause[1]].add(c);
+                    moved = true;
+                    break;
+                }
+            }
+            if (moved) {
+                continue;
+            }
+
+            watching.set(kept++, c);
+            if (isFalse(clause[0])) {
+                while (++i < watching.size()) {
+                    watching.set(kept++, watching.get(i));
+                }
+                watching.truncate(kept);
+                return clause;
+            }
+            assign(clause[0], c);
+        }
+        watching.truncate(kept);
+        return null;
+    }
+
+    private int[] addSide(int lit) {
+        var c = variables[lit >> 1];
+        var begin = (lit & 1) == 0 ? constraints.edges1Begin(c) : constraints.edges2Begin(c);
+        var end = (lit & 1) == 0 ? constraints.edges1End(c) : constraints.edges2End(c);
+        for (int e = begin; e < end; e++) {
+            var kind = constraints.type(e) == EdgeType.WW ? ADD_A : ADD_B;
+            var cycle = addEdge(kind, constraints.from(e), constraints.to(e), lit);
+            if (cycle != null) {
+                return cycle;
+            }
+        }
+        return null;
+    }
+
+    /*
+     * Add an edge to graph A or B, and the edges of A union C made from it
+     *
+     * @return null, or the clause of a cycle it closes
+     */
+    private int[] addEdge(int kind, int from, int to, int edgeReason) {
+        var added = (kind == ADD_A ? edgesA : edgesB).add(from, to, edgeReason, NO_REASON);
+        record(kind, from, to);
+        if (!added) {
+            return null;
+        }
+
+        if (kind == ADD_A) {
+            predecessorsA[to].add(from);
+            var cycle = addEdgeAC(from, to, edgeReason, NO_REASON);
+            var successors = successorsB[to];
+            for (int i = 0; cycle == null && i < successors.size(); i++) {
+                var s = successors.get(i);
+                cycle = addEdgeAC(from, s, edgeReason, edgesB.reason1(to, s));
+            }
+            return cycle;
+        } else {
+            successorsB[from].add(to);
+            int[] cycle = null;
+            var predecessors = predecessorsA[from];
+            for (int i = 0; cycle == null && i < predecessors.size(); i++) {
+                var p = predecessors.get(i);
+                cycle = addEdgeAC(p, to, edgesA.reason1(p, from), edgeReason);
+            }
+            return cycle;
+        }
+    }
+
+    private int[] addEdgeAC(int from, int to, int reason1, int reason2) {
+        var added = edgesAC.add(from, to, reason1, reason2);
+        record(ADD_AC, from, to);
+        if (!added) {
+            return null;
+        }
+
+        if (addingKnownEdges) {
+            order.addEdgeUnordered(from, to);
+            return null;
+        }
+        var cycle = order.addEdge(from, to);
+        return cycle == null ? null : explain(cycle);
+    }
+
+    private void record(int kind, int from, int to) {
+        if (!addingKnownEdges) {
+            graphTrail.add(kind);
+            graphTrail.add(from);
+            graphTrail.add(to);
+        }
+    }
+
+    /*
+     * Undo the changes to the graphs after the first size entries of the
+     * trail. Edges are removed in the reverse order they are added.
+     */
+    private void undoGraph(int size) {
+        while (graphTrail.size() > size) {
+            var end = graphTrail.size();
+            var kind = graphTrail.get(end - 3);
+            var from = graphTrail.get(end - 2);
+            var to = graphTrail.get(end - 1);
+            graphTrail.truncate(end - 3);
+
+            if (kind == ADD_A) {
+                if (edgesA.remove(from, to)) {
+                    removeLast(predecessorsA[to], from);
+                }
+            } else if (kind == ADD_B) {
+                if (edgesB.remove(from, to)) {
+                    removeLast(successorsB[from], to);
+                }
+            } else if (edgesAC.remove(from, to)) {
+                order.removeLastEdge(from, to);
+            }
+        }
+    }
+
+    private static void removeLast(IntList list, int element) {
+        assert list.get(list.size() - 1) == element;
+        list.truncate(list.size() - 1);
+    }
+
+    /*
+     * The clause that at least one literal that added an edge of the cycle is
+     * false. Known edges on the cycle are kept for getConflicts().
+     */
+    private int[] explain(IntList cycle) {
+        var literals = new IntList();
+        cycleKnownEdges.clear();
+        for (int i = 0; i < cycle.size(); i++) {
+            var from = cycle.get(i);
+            var to = cycle.get((i + 1) % cycle.size());
+            for (var r : new int[] { edgesAC.reason1(from, to), edgesAC.reason2(from, to) }) {
+                if (r == NO_REASON) {
+                    continue;
+                }
+                if (r < 0) {
+                    cycleKnownEdges.add(-r - 1);
+                } else if (!seen[r >> 1]) {
+                    seen[r >> 1] = true;
+                    literals.add(r ^ 1);
+                }
+            }
+        }
+
+        var clause = literals.toArray();
+        for (var lit : clause) {
+            seen[lit >> 1] = false;
+        }
+        cycleClause = clause;
+        return clause;
+    }
+
+    private void setConflict(int[] clause) {
+        conflict = clause;
+        conflictKnownEdges.clear();
+        if (clause == cycleClause) {
+            conflictKnownEdges.addAll(cycleKnownEdges);
+        }
+    }
+
+    /*
+     * Learn a clause by resolving the conflict with the clauses that implied
+     * its literals, until one literal of the current decision level is left.
+     * Literals of level 0 are always false and are dropped.
+     *
+     * @return the learned clause, with the literal of the current level first
+     * and a literal of the highest level of the others second
+     */
+    private int[] analyze(int[] conflictClause) {
+        var learned = new IntList();
+        learned.add(0);
+
+        var pending = 0;
+        var implied = -1;
+        var index = trail.size() - 1;
+        var clause = conflictClause;
+        do {
+            for (var lit : clause) {
+                var v = lit >> 1;
+                if (lit == implied || seen[v] || level[v] == 0) {
+                    continue;
+                }
+
+                seen[v] = true;
+                if (level[v] == decisionLevel) {
+                    pending++;
+                } else {
+                    learned.add(lit);
+                }
+            }
+
+            while (!seen[trail.get(index) >> 1]) {
+                index--;
+            }
+            implied = trail.get(index--);
+            seen[implied >> 1] = false;
+            if (--pending > 0) {
+                clause = clauses.get(reason[implied >> 1]);
+            }
+        } while (pending > 0);
+        learned.set(0, implied ^ 1);
+
+        var result = learned.toArray();
+        var highest = 1;
+        for (int i = 1; i < result.length; i++) {
+            seen[result[i] >> 1] = false;
+            if (level[result[i] >> 1] > level[result[highest] >> 1]) {
+                highest = i;
+            }
+        }
+        if (result.length > 1) {
+            var lit = result[1];
+            result[1] = result[highest];
+            result[highest] = lit;
+        }
+        return result;
+    }
+
+    private int addClause(int[] clause) {
+        var c = clauses.size();
+        clauses.add(clause);
+        if (clause.length > 1) {
+            watches[clause[0]].add(c);
+            watches[clause[1]].add(c);
+        }
+        return c;
+    }
+
+    private void backtrack(int targetLevel) {
+        var trailSize = trailLimits.get(targetLevel);
+        for (int i = trail.size() - 1; i >= trailSize; i--) {
+            var v = trail.get(i) >> 1;
+            assigned[v] = -1;
+            nextVariable = Math.min(nextVariable, v);
+        }
+        trail.truncate(trailSize);
+        propagated = trailSize;
+        undoGraph(graphTrailLimits.get(targetLevel));
+
+        trailLimits.truncate(targetLevel);
+        graphTrailLimits.truncate(targetLevel);
+        decisionLevel = targetLevel;
+    }
+
+    /*
+     * Edges counted by the number of times they are added. The reasons of an
+     * edge are those given when it is added while not in the set.
+     */
+    private static class EdgeSet {
+        // index of each edge in the lists below, kept after it is removed
+        private final LongIntHashMap index = new LongIntHashMap();
+        private final IntList count = new IntList();
+        private final IntList reason1 = new IntList();
+        private final IntList reason2 = new IntList();
+        private int size;
+
+        /*
+         * @return true if the edge is not in the set before
+         */
+        boolean add(int from, int to, int r1, int r2) {
+            var key = key(from, to);
+            var i = index.get(key);
+            if (i < 0) {
+                i = count.size();
+                index.put(key, i);
+                count.add(0);
+                reason1.add(0);
+                reason2.add(0);
+            }
+
+            var n = count.get(i);
+            count.set(i, n + 1);
+            if (n > 0) {
+                return false;
+            }
+
+            reason1.set(i, r1);
+            reason2.set(i, r2);
+            size++;
+            return true;
+        }
+
+        /*
+         * @return true if the edge is not in the set after
+         */
+        boolean remove(int from, int to) {
+            var i = index.get(key(from, to));
+            var n = count.get(i) - 1;
+            count.set(i, n);
+            if (n > 0) {
+                return false;
+            }
+
+            size--;
+            return true;
+        }
+
+        int reason1(int from, int to) {
+            return reason1.get(index.get(key(from, to)));
+        }
+
+        int reason2(int from, int to) {
+            return reason2.get(index.get(key(from, to)));
+        }
+
+        int size() {
+            return size;
+        }
+
+        private static long key(int from, int to) {
+            return ((long) from << 32) | to;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package verifier;
+
+import java.util.Collection;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.locks.ReentrantLock;
+
+import monosat.Lit;
+import monosat.Solver;
+
+/*
+ * The native library of MonoSAT has not been checked for state shared by its
+ * solvers, so MonoSAT solvers of the process are created and used by one
+ * thread at a time, which holds the lock. Solving with several MonoSAT solvers
+ * in parallel is out of scope until that is checked. Waiting for the lock can
+ * be interrupted.
+ */
+final class MonoSAT {
+    private static final ReentrantLock lock = new ReentrantLock();
+
+    private MonoSAT() {
+    }
+
+    static void lock() {
+        try {
+            lock.lockInterruptibly();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("interrupted while waiting for MonoSAT");
+        }
+    }
+
+    static void unlock() {
+        lock.unlock();
+    }
+
+    /*
+     * Solve with the time limit of SIVerifier
+     *
+     * @throws CancellationException if the time limit is exceeded
+     */
+    static boolean solve(Solver solver, Collection<Lit> assumptions) {
+        var timeLimit = SIVerifier.getSolverTimeLimit();
+        if (timeLimit <= 0) {
+            return solver.solve(assumptions);
+        }
+
+        solver.setTimeLimit(timeLimit);
+        var result = solver.solveLimited(assumptions);
+        if (result.isEmpty()) {
+            throw new CancellationException(String.format("MonoSAT exceeded %ds", timeLimit));
+        }
+        return result.get();
+    }
+}
@@ -3,13 +3,17 @@ package verifier;
 import graph.KnownGraph;
 import history.History;
 import history.Transaction;
+import util.IntList;
 import util.Profiler;
 import graph.Edge;
 import graph.EdgeType;
 import graph.MatrixGraph;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.Function;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
 
 import org.apache.commons.lang3.tuple.Pair;
 
@@ -25,8 +29,9 @@ public class Pruning {
     @Setter
     private static double stopThreshold = 0.01;
 
+    // the results are cached, see ArtifactCache.GENERATOR_VERSION
     static <KeyType, ValueType> boolean pruneConstraints(KnownGraph<KeyType, ValueType> knownGraph,
-            Collection<SIConstraint<KeyType, ValueType>> constraints, History<KeyType, ValueType> history) {
+            ConstraintStore<KeyType, ValueType> constraints, History<KeyType, ValueType> history) {
         if (!enablePruning) {
             return false;
         }
@@ -36,12 +41,16 @@ public class Pruning {
 
         int rounds = 1, solvedConstraints = 0, totalConstraints = constraints.size();
         boolean hasCycle = false;
+        var closure = new Closure<KeyType, ValueType>();
         while (!hasCycle) {
             System.err.printf("Pruning round %d\n", rounds);
-            var result = pruneConstraintsWithPostChecking(knownGraph, constraints, history);
+            profiler.setCount("pruningRounds", rounds);
+            var result = pruneConstraintsWithPostChecking(knownGraph, constraints, history, closure);
 
             hasCycle = result.getRight();
             solvedConstraints += result.getLeft();
+            profiler.setCount("constraintsAfterPruning", constraints.size());
+            profiler.setCount("constraintEdgesAfterPruning", constraints.edgeCount());
 
             if (result.getLeft() <= stopThreshold * totalConstraints
                     || totalConstraints - solvedConstraints <= stopThreshold * totalConstraints) {
@@ -57,72 +66,184 @@ public class Pruning {
         return hasCycle;
     }
 
+    /*
+     * The reachability of A union C, kept across pruning rounds. Edges added to
+     * the known graph in a round are inserted into it in the next round.
+     * addedEdges holds their indices in the constraint store.
+     */
+    private static class Closure<KeyType, ValueType> {
+        private MatrixGraph<Transaction<KeyType, ValueType>> reachability;
+        private final IntList addedEdges = new IntList();
+    }
+
     private static <KeyType, ValueType> Pair<Integer, Boolean> pruneConstraintsWithPostChecking(
-            KnownGraph<KeyType, ValueType> knownGraph, Collection<SIConstraint<KeyType, ValueType>> constraints,
-            History<KeyType, ValueType> history) {
+            KnownGraph<KeyType, ValueType> knownGraph, ConstraintStore<KeyType, ValueType> constraints,
+            History<KeyType, ValueType> history, Closure<KeyType, ValueType> closure) {
         var profiler = Profiler.getInstance();
 
-        profiler.startTick("SI_PRUNE_POST_GRAPH_A_B");
-        var graphA = new MatrixGraph<>(knownGraph.getKnownGraphA().asGraph());
-        var graphB = new MatrixGraph<>(knownGraph.getKnownGraphB().asGraph(), graphA.getNodeMap());
-        var orderInSession = Utils.getOrderInSession(history);
-        profiler.endTick("SI_PRUNE_POST_GRAPH_A_B");
+        if (closure.reachability == null) {
+            profiler.startTick("SI_PRUNE_POST_GRAPH_A_B");
+            var graphA = new MatrixGraph<>(knownGraph.getKnownGraphA().asGraph());
+            var graphB = new MatrixGraph<>(knownGraph.getKnownGraphB().asGraph(), graphA.getNodeMap());
+            var orderInSession = Utils.getOrderInSession(history);
+            profiler.endTick("SI_PRUNE_POST_GRAPH_A_B");
 
-        profiler.startTick("SI_PRUNE_POST_GRAPH_C");
-        var graphC = graphA.composition(graphB);
-        profiler.endTick("SI_PRUNE_POST_GRAPH_C");
+            profiler.startTick("SI_PRUNE_POST_GRAPH_C");
+            var graphC = graphA.composition(graphB);
+            profiler.endTick("SI_PRUNE_POST_GRAPH_C");
 
-        if (graphC.hasLoops()) {
-            return Pair.of(0, true);
-        }
+            if (graphC.hasLoops()) {
+                return Pair.of(0, true);
+            }
 
-        profiler.startTick("SI_PRUNE_POST_REACHABILITY");
-        var reachability = Utils.reduceEdges(graphA.union(graphC), orderInSession).reachability();
-        System.err.printf("reachability matrix sparsity: %.2f\n",
-                1 - reachability.nonZeroElements() / Math.pow(reachability.nodes().size(), 2));
-        profiler.endTick("SI_PRUNE_POST_REACHABILITY");
+            profiler.startTick("SI_PRUNE_POST_REACHABILITY");
+            closure.reachability = Utils.reduceEdges(graphA.union(graphC), orderInSession).reachability();
+            var nonZeroElements = closure.reachability.nonZeroElements();
+            System.err.printf("reachability matrix sparsity: %.2f\n",
+                    1 - nonZeroElements / Math.pow(closure.reachability.nodes().size(), 2));
+            profiler.setCount("matrixNodes", closure.reachability.nodes().size());
+            profiler.setCount("matrixNonZeroElements", nonZeroElements);
+            profiler.endTick("SI_PRUNE_POST_REACHABILITY");
+        } else {
+            profiler.startTick("SI_PRUNE_POST_CLOSURE_UPDATE");
+            var hasCycle = updateClosure(knownGraph, constraints, closure);
+            profiler.endTick("SI_PRUNE_POST_CLOSURE_UPDATE");
 
-        var solvedConstraints = new ArrayList<SIConstraint<KeyType, ValueType>>();
+            if (hasCycle) {
+                return Pair.of(0, true);
+            }
+        }
+        var reachability = closure.reachability;
+
+        var solvedConstraints = 0;
 
         profiler.startTick("SI_PRUNE_POST_CHECK");
-        for (var c : constraints) {
-            var conflict = checkConflict(c.getEdges1(), reachability, knownGraph);
-            if (conflict.isPresent()) {
-                addToKnownGraph(knownGraph, c.getEdges2());
-                solvedConstraints.add(c);
-                // System.err.printf("%s -> %s because of conflict in %s\n",
-                // c.writeTransaction2, c.writeTransaction1,
-                // conflict.get());
+        var resolutions = classifyConstraints(constraints, reachability, knownGraph);
+        for (int c = 0; c < resolutions.length; c++) {
+            switch (resolutions[c]) {
+            case CONFLICT_IN_EDGES1:
+                addToKnownGraph(knownGraph, constraints, constraints.edges2Begin(c), constraints.edges2End(c),
+                        closure.addedEdges);
+                break;
+            case CONFLICT_IN_EDGES2:
+                addToKnownGraph(knownGraph, constraints, constraints.edges1Begin(c), constraints.edges1End(c),
+                        closure.addedEdges);
+                break;
+            default:
                 continue;
             }
 
-            conflict = checkConflict(c.getEdges2(), reachability, knownGraph);
-            if (conflict.isPresent()) {
-                addToKnownGraph(knownGraph, c.getEdges1());
-                // System.err.printf("%s -> %s because of conflict in %s\n",
-                // c.writeTransaction1, c.writeTransaction2,
-                // conflict.get());
-                solvedConstraints.add(c);
-            }
+            constraints.remove(c);
+            solvedConstraints++;
         }
         profiler.endTick("SI_PRUNE_POST_CHECK");
 
-        System.err.printf("solved %d constraints\n", solvedConstraints.size());
-        // constraints.removeAll(solvedConstraints);
-        // java removeAll has performance bugs; do it manually
-        solvedConstraints.forEach(constraints::remove);
-        return Pair.of(solvedConstraints.size(), false);
+        System.err.printf("solved %d constraints\n", solvedConstraints);
+        return Pair.of(solvedConstraints, false);
+    }
+
+    /*
+     * Insert the edges of A union C induced by the WW and RW edges added in the
+     * last round into the closure
+     *
+     * @return true if a cycle is found
+     */
+    private static <KeyType, ValueType> boolean updateClosure(KnownGraph<KeyType, ValueType> knownGraph,
+            ConstraintStore<KeyType, ValueType> constraints, Closure<KeyType, ValueType> closure) {
+        var reachability = closure.reachability;
+        System.err.printf("Inserting %d edges into closure\n", closure.addedEdges.size());
+
+        for (int i = 0; i < closure.addedEdges.size(); i++) {
+            var e = closure.addedEdges.get(i);
+            var from = constraints.transaction(constraints.from(e));
+            var to = constraints.transaction(constraints.to(e));
+            if (constraints.type(e) == EdgeType.WW) {
+                if (reachability.putEdgeInClosure(from, to)) {
+                    return true;
+                }
+                for (var n : knownGraph.getKnownGraphB().successors(to)) {
+                    if (reachability.putEdgeInClosure(from, n)) {
+                        return true;
+                    }
+                }
+            } else {
+                for (var n : knownGraph.getKnownGraphA().predecessors(from)) {
+                    if (reachability.putEdgeInClosure(n, to)) {
+                        return true;
+                    }
+                }
+            }
+        }
+
+        closure.addedEdges.clear();
+        return false;
+    }
+
+    private static final byte UNRESOLVED = 0;
+    private static final byte CONFLICT_IN_EDGES1 = 1;
+    private static final byte CONFLICT_IN_EDGES2 = 2;
+
+    /*
+     * Check the constraints against the reachability and the known graph at the
+     * start of the round. Nothing is modified, so constraints are split into
+     * ranges checked in parallel. Edges resolved in this round are seen in the
+     * next one.
+     *
+     * @return for each constraint, which of its edge sets conflicts with the
+     * known graph, or UNRESOLVED if neither does
+     */
+    private static <KeyType, ValueType> byte[] classifyConstraints(ConstraintStore<KeyType, ValueType> constraints,
+            MatrixGraph<Transaction<KeyType, ValueType>> reachability, KnownGraph<KeyType, ValueType> knownGraph) {
+        var resolutions = new byte[constraints.constraintCount()];
+        var parallelism = MatrixGraph.getParallelism();
+        var shardNum = parallelism * 4;
+        var shardSize = (resolutions.length + shardNum - 1) / shardNum;
+
+        IntConsumer classify = shard -> {
+            var end = Math.min(resolutions.length, (shard + 1) * shardSize);
+            for (int c = shard * shardSize; c < end; c++) {
+                if (constraints.isRemoved(c)) {
+                    continue;
+                }
+
+                if (checkConflict(constraints, constraints.edges1Begin(c), constraints.edges1End(c), reachability,
+                        knownGraph) >= 0) {
+                    resolutions[c] = CONFLICT_IN_EDGES1;
+                } else if (checkConflict(constraints, constraints.edges2Begin(c), constraints.edges2End(c),
+                        reachability, knownGraph) >= 0) {
+                    resolutions[c] = CONFLICT_IN_EDGES2;
+                }
+            }
+        };
+
+        if (parallelism <= 1) {
+            IntStream.range(0, shardNum).forEach(classify);
+            return resolutions;
+        }
+
+        // bounded by --threads, like reachability
+        var pool = new ForkJoinPool(parallelism);
+        try {
+            pool.submit(() -> IntStream.range(0, shardNum).parallel().forEach(classify)).join();
+        } finally {
+            pool.shutdown();
+        }
+
+        return resolutions;
     }
 
     private static <KeyType, ValueType> void addToKnownGraph(KnownGraph<KeyType, ValueType> knownGraph,
-            Collection<SIEdge<KeyType, ValueType>> edges) {
-        for (var e : edges) {
-            switch (e.getType()) {
+            ConstraintStore<KeyType, ValueType> constraints, int begin, int end, IntList addedEdges) {
+        for (int e = begin; e < end; e++) {
+            addedEdges.add(e);
+            var from = constraints.transaction(constraints.from(e));
+            var to = constraints.transaction(constraints.to(e));
+            switch (constraints.type(e)) {
             case WW:
-                knownGraph.putEdge(e.getFrom(), e.getTo(), new Edge<KeyType>(EdgeType.WW, e.getKey()));
+                knownGraph.putEdge(from, to, new Edge<KeyType>(EdgeType.WW, constraints.key(e)));
                 break;
             case RW:
-                knownGraph.putEdge(e.getFrom(), e.getTo(), new Edge<KeyType>(EdgeType.RW, e.getKey()));
+                knownGraph.putEdge(from, to, new Edge<KeyType>(EdgeType.RW, constraints.key(e)));
                 break;
             default:
                 throw new Error("only WW and RW edges should appear in constraints");
@@ -130,21 +251,27 @@ public class Pruning {
         }
     }
 
-    private static <KeyType, ValueType> Optional<SIEdge<KeyType, ValueType>> checkConflict(
-            Collection<SIEdge<KeyType, ValueType>> edges, MatrixGraph<Transaction<KeyType, ValueType>> reachability,
+    /*
+     * @return the index of the first conflicting edge in [begin, end), or -1 if
+     * there is none
+     */
+    private static <KeyType, ValueType> int checkConflict(ConstraintStore<KeyType, ValueType> constraints,
+            int begin, int end, MatrixGraph<Transaction<KeyType, ValueType>> reachability,
             KnownGraph<KeyType, ValueType> knownGraph) {
-        for (var e : edges) {
-            switch (e.getType()) {
+        for (int e = begin; e < end; e++) {
+            var from = constraints.transaction(constraints.from(e));
+            var to = constraints.transaction(constraints.to(e));
+            switch (constraints.type(e)) {
             case WW:
-                if (reachability.hasEdgeConnecting(e.getTo(), e.getFrom())) {
-                    return Optional.of(e);
+                if (reachability.hasEdgeConnecting(to, from)) {
+                    return e;
                     // System.err.printf("conflict edge: %s\n", e);
                 }
                 break;
             case RW:
-                for (var n : knownGraph.getKnownGraphA().predecessors(e.getFrom())) {
-                    if (reachability.hasEdgeConnecting(e.getTo(), n)) {
-                        return Optional.of(e);
+                for (var n : knownGraph.getKnownGraphA().predecessors(from)) {
+                    if (reachability.hasEdgeConnecting(to, n)) {
+                        return e;
                         // System.err.printf("conflict edge: %s\n", e);
                     }
                 }
@@ -154,6 +281,6 @@ public class Pruning {
             }
         }
 
-        return Optional.empty();
+        return -1;
     }
 }
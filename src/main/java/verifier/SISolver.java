@@ -6,8 +6,8 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.BiFunction;
 import java.util.function.Consumer;
-import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -30,17 +30,20 @@ import monosat.Solver;
 import util.Profiler;
 
 @SuppressWarnings("UnstableApiUsage")
-class SISolver<KeyType, ValueType> {
+class SISolver<KeyType, ValueType> implements ConstraintSolver<KeyType, ValueType> {
     private final Solver solver = new Solver();
 
     // The literals of the known graph
     private final Map<Lit, Pair<EndpointPair<Transaction<KeyType, ValueType>>, Collection<Edge<KeyType>>>> knownLiterals = new HashMap<>();
 
     // The literals asserting that exactly one set of edges exists in the graph
-    // for each constraint
-    private final Map<Lit, SIConstraint<KeyType, ValueType>> constraintLiterals = new HashMap<>();
+    // for each constraint. Values are constraint ids in the store.
+    private final Map<Lit, Integer> constraintLiterals = new HashMap<>();
 
-    boolean solve() {
+    private final ConstraintStore<KeyType, ValueType> constraints;
+
+    @Override
+    public boolean solve() {
         var profiler = Profiler.getInstance();
         var lits = Stream
                 .concat(knownLiterals.keySet().stream(),
@@ -48,13 +51,14 @@ class SISolver<KeyType, ValueType> {
                 .collect(Collectors.toList());
 
         profiler.startTick("SI_SOLVER_SOLVE");
-        var result = solver.solve(lits);
+        var result = MonoSAT.solve(solver, lits);
         profiler.endTick("SI_SOLVER_SOLVE");
 
         return result;
     }
 
-    Pair<Collection<Pair<EndpointPair<Transaction<KeyType, ValueType>>, Collection<Edge<KeyType>>>>, Collection<SIConstraint<KeyType, ValueType>>> getConflicts() {
+    @Override
+    public Pair<Collection<Pair<EndpointPair<Transaction<KeyType, ValueType>>, Collection<Edge<KeyType>>>>, Collection<SIConstraint<KeyType, ValueType>>> getConflicts() {
         var edges = new ArrayList<Pair<EndpointPair<Transaction<KeyType, ValueType>>, Collection<Edge<KeyType>>>>();
         var constraints = new ArrayList<SIConstraint<KeyType, ValueType>>();
 
@@ -62,7 +66,7 @@ class SISolver<KeyType, ValueType> {
             if (knownLiterals.containsKey(lit)) {
                 edges.add(knownLiterals.get(lit));
             } else {
-                constraints.add(constraintLiterals.get(lit));
+                constraints.add(this.constraints.toConstraint(constraintLiterals.get(lit)));
             }
         });
         return Pair.of(edges, constraints);
@@ -88,14 +92,17 @@ class SISolver<KeyType, ValueType> {
      */
     SISolver(History<KeyType, ValueType> history,
             KnownGraph<KeyType, ValueType> precedenceGraph,
-            Collection<SIConstraint<KeyType, ValueType>> constraints) {
+            ConstraintStore<KeyType, ValueType> constraints) {
+        this.constraints = constraints;
         var profiler = Profiler.getInstance();
 
         profiler.startTick("SI_SOLVER_GEN");
         profiler.startTick("SI_SOLVER_GEN_GRAPH_A_B");
-        var graphA = createKnownGraph(history,
+        // the known graph may hold only a part of the history
+        var transactions = precedenceGraph.getKnownGraphA().nodes();
+        var graphA = createKnownGraph(transactions,
                 precedenceGraph.getKnownGraphA());
-        var graphB = createKnownGraph(history,
+        var graphB = createKnownGraph(transactions,
                 precedenceGraph.getKnownGraphB());
         profiler.endTick("SI_SOLVER_GEN_GRAPH_A_B");
 
@@ -103,18 +110,21 @@ class SISolver<KeyType, ValueType> {
         // The reachability information is used to delete unneeded edges from
         // the generated graph
         var matA = new MatrixGraph<>(graphA.asGraph());
-        var orderInSession = Utils.getOrderInSession(history);
+        var orderInSession = Utils.getOrderInSession(transactions);
         var matAC = Utils.reduceEdges(
                 matA.union(
                         matA.composition(new MatrixGraph<>(graphB.asGraph(), matA.getNodeMap()))),
                 orderInSession);
         var reachability = matAC.reachability();
+        profiler.setCount("matrixNodes", reachability.nodes().size());
+        profiler.setCount("matrixNonZeroElements",
+                reachability.nonZeroElements());
         profiler.endTick("SI_SOLVER_GEN_REACHABILITY");
 
         profiler.startTick("SI_SOLVER_GEN_GRAPH_A_UNION_C");
         // Known edges and unknown edges are collected separately
         var knownEdges = Utils.getKnownEdges(graphA, graphB, matAC);
-        addConstraints(constraints, graphA, graphB);
+        addConstraints(graphA, graphB);
         var unknownEdges = Utils.getUnknownEdges(graphA, graphB, reachability,
                 solver);
         profiler.endTick("SI_SOLVER_GEN_GRAPH_A_UNION_C");
@@ -129,12 +139,14 @@ class SISolver<KeyType, ValueType> {
         });
         System.err.printf("Graph A union C edges count: %d\n",
                 knownEdges.size() + unknownEdges.size());
+        profiler.setCount("graphAUnionCEdges",
+                knownEdges.size() + unknownEdges.size());
 
         profiler.startTick("SI_SOLVER_GEN_MONO_GRAPH");
         var monoGraph = new monosat.Graph(solver);
         var nodeMap = new HashMap<Transaction<KeyType, ValueType>, Integer>();
 
-        history.getTransactions().forEach(n -> {
+        transactions.forEach(n -> {
             nodeMap.put(n, monoGraph.addNode());
         });
 
@@ -154,9 +166,9 @@ class SISolver<KeyType, ValueType> {
     }
 
     private MutableValueGraph<Transaction<KeyType, ValueType>, Collection<Lit>> createKnownGraph(
-            History<KeyType, ValueType> history,
+            Collection<Transaction<KeyType, ValueType>> transactions,
             ValueGraph<Transaction<KeyType, ValueType>, Collection<Edge<KeyType>>> knownGraph) {
-        var g = Utils.createEmptyGraph(history);
+        var g = Utils.createEmptyGraph(transactions);
         for (var e : knownGraph.edges()) {
             var lit = new Lit(solver);
             knownLiterals.put(lit, Pair.of(e, knownGraph.edgeValue(e).get()));
@@ -167,14 +179,13 @@ class SISolver<KeyType, ValueType> {
     }
 
     private void addConstraints(
-            Collection<SIConstraint<KeyType, ValueType>> constraints,
             MutableValueGraph<Transaction<KeyType, ValueType>, Collection<Lit>> graphA,
             MutableValueGraph<Transaction<KeyType, ValueType>, Collection<Lit>> graphB) {
-        var addEdges = ((Function<Collection<SIEdge<KeyType, ValueType>>, Pair<Lit, Lit>>) edges -> {
+        var addEdges = ((BiFunction<Integer, Integer, Pair<Lit, Lit>>) (begin, end) -> {
             // all means all edges exists in the graph.
             // Similar for none.
             Lit all = Lit.True, none = Lit.True;
-            for (var e : edges) {
+            for (int e = begin; e < end; e++) {
                 var lit = new Lit(solver);
                 var not = Logic.not(lit);
                 all = Logic.and(all, lit);
@@ -185,18 +196,24 @@ class SISolver<KeyType, ValueType> {
                 solver.setDecisionLiteral(none, false);
 
 
-                if (e.getType().equals(EdgeType.WW)) {
-                    Utils.addEdge(graphA, e.getFrom(), e.getTo(), lit);
+                var from = constraints.transaction(constraints.from(e));
+                var to = constraints.transaction(constraints.to(e));
+                if (constraints.type(e).equals(EdgeType.WW)) {
+                    Utils.addEdge(graphA, from, to, lit);
                 } else {
-                    Utils.addEdge(graphB, e.getFrom(), e.getTo(), lit);
+                    Utils.addEdge(graphB, from, to, lit);
                 }
             }
             return Pair.of(all, none);
         });
 
-        for (var c : constraints) {
-            var p1 = addEdges.apply(c.getEdges1());
-            var p2 = addEdges.apply(c.getEdges2());
+        for (int c = 0; c < constraints.constraintCount(); c++) {
+            if (constraints.isRemoved(c)) {
+                continue;
+            }
+
+            var p1 = addEdges.apply(constraints.edges1Begin(c), constraints.edges1End(c));
+            var p2 = addEdges.apply(constraints.edges2Begin(c), constraints.edges2End(c));
 
             constraintLiterals
                     .put(Logic.or(Logic.and(p1.getLeft(), p2.getRight()),
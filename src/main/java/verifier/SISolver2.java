@@ -1,186 +1,212 @@
 package verifier;
 
-import java.util.*;
-import java.util.function.BiFunction;
-import java.util.function.Function;
-import java.util.function.Supplier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
-import com.google.common.collect.BiMap;
-import com.google.common.collect.HashBiMap;
-import com.google.common.collect.Streams;
-
 import com.google.common.graph.EndpointPair;
-import com.google.common.graph.Graph;
+import com.google.common.graph.ValueGraph;
+
+import org.apache.commons.lang3.tuple.Pair;
+
 import graph.Edge;
 import graph.EdgeType;
 import graph.KnownGraph;
-import graph.MatrixGraph;
 import history.History;
 import history.Transaction;
 import monosat.Lit;
 import monosat.Logic;
 import monosat.Solver;
-import org.apache.commons.lang3.tuple.Pair;
-
+import util.IntList;
+import util.LongObjectHashMap;
 import util.Profiler;
 
-class SISolver2<KeyType, ValueType> {
-    private Lit[][] graphABEdges;
-    private Lit[][] graphACEdges;
+/*
+ * Solve constraints with one literal per edge between a pair of transactions
+ *
+ * Each pair of transactions connected by a known edge or an edge in a
+ * constraint has a literal for the edge in graph A, or in graph B, or both.
+ * Literals of known edges are assumed. For a constraint of transactions i and
+ * j, exactly one of the A edges i -> j and j -> i exists, and each implies the
+ * other edges of its side. An edge P -> R of A union C exists iff. P -> R is
+ * in A, or P -> Q is in A and Q -> R is in B for some Q.
+ */
+class SISolver2<KeyType, ValueType> implements ConstraintSolver<KeyType, ValueType> {
+    private final Solver solver = new Solver();
 
-    private Solver solver = new Solver();
+    // literals of the edges in A and B, by the pair of their transaction ids
+    private final LongObjectHashMap<Lit> edgesA = new LongObjectHashMap<>();
+    private final LongObjectHashMap<Lit> edgesB = new LongObjectHashMap<>();
 
-    private HashSet<Lit> knownLits = new HashSet<>();
-    private HashSet<Lit> constraintLits = new HashSet<>();
+    // successors of each transaction in B
+    private final IntList[] successorsB;
 
-    SISolver2(History<KeyType, ValueType> history,
-            KnownGraph<KeyType, ValueType> precedenceGraph,
-            Collection<SIConstraint<KeyType, ValueType>> constraints) {
-        var profiler = Profiler.getInstance();
-        profiler.startTick("SI_SOLVER2_CONSTRUCT");
+    // The literals of the known graph
+    private final Map<Lit, Pair<EndpointPair<Transaction<KeyType, ValueType>>, Collection<Edge<KeyType>>>> knownLiterals = new HashMap<>();
 
-        var nodeMap = new HashMap<Transaction<KeyType, ValueType>, Integer>();
-        {
-            int i = 0;
-            for (var txn : history.getTransactions()) {
-                nodeMap.put(txn, i++);
-            }
-        }
+    // The literals asserting the edges chosen for each constraint. Values are
+    // constraint ids in the store.
+    private final Map<Lit, Integer> constraintLiterals = new HashMap<>();
 
-        var createLitMatrix = ((Function<Supplier<Lit>, Lit[][]>) newLit -> {
-            var n = history.getTransactions().size();
-            var lits = new Lit[n][n];
-            for (int j = 0; j < n; j++) {
-                for (int k = 0; k < n; k++) {
-                    lits[j][k] = newLit.get();
-                }
-            }
+    private final ConstraintStore<KeyType, ValueType> constraints;
 
-            return lits;
-        });
-        graphABEdges = createLitMatrix.apply(() -> {
-            var lit = new Lit(solver);
-            solver.setDecisionLiteral(lit, false);
-            return lit;
-        });
-        graphACEdges = createLitMatrix.apply(() -> Lit.False);
+    SISolver2(History<KeyType, ValueType> history,
+            KnownGraph<KeyType, ValueType> precedenceGraph,
+            ConstraintStore<KeyType, ValueType> constraints) {
+        this.constraints = constraints;
+        var profiler = Profiler.getInstance();
+        profiler.startTick("SI_SOLVER_GEN");
 
-        for (var e : precedenceGraph.getKnownGraphA().edges()) {
-            knownLits.add(graphABEdges[nodeMap.get(e.source())][nodeMap
-                    .get(e.target())]);
-        }
-        for (var e : precedenceGraph.getKnownGraphB().edges()) {
-            knownLits.add(graphABEdges[nodeMap.get(e.source())][nodeMap
-                    .get(e.target())]);
+        var n = constraints.transactionCount();
+        successorsB = new IntList[n];
+        for (int i = 0; i < n; i++) {
+            successorsB[i] = new IntList();
         }
 
-        var impliesCNF = ((BiFunction<Lit, Collection<SIEdge<KeyType, ValueType>>, Lit>) (
-                lit, edges) -> edges.stream()
-                        .filter(e -> e.getType().equals(EdgeType.RW))
-                        .map(e -> graphABEdges[nodeMap.get(e.getFrom())][nodeMap
-                                .get(e.getTo())])
-                        .map(l -> Logic.or(Logic.not(lit), l))
-                        .reduce(Lit.True, Logic::and));
-        for (var c : constraints) {
-            var i = nodeMap.get(c.getWriteTransaction1());
-            var j = nodeMap.get(c.getWriteTransaction2());
-            // var either = impliesCNF.apply(graphABEdges[i][j], c.getEdges1());
-            // var or = impliesCNF.apply(graphABEdges[j][i], c.getEdges2());
-            var either = Logic.implies(graphABEdges[i][j],
-                    c.getEdges1().stream()
-                            .filter(e -> e.getType().equals(EdgeType.RW))
-                            .map(e -> graphABEdges[nodeMap
-                                    .get(e.getFrom())][nodeMap.get(e.getTo())])
-                            .reduce(Lit.True, Logic::and));
-            var or = Logic.implies(graphABEdges[j][i],
-                    c.getEdges2().stream()
-                            .filter(e -> e.getType().equals(EdgeType.RW))
-                            .map(e -> graphABEdges[nodeMap
-                                    .get(e.getFrom())][nodeMap.get(e.getTo())])
-                            .reduce(Lit.True, Logic::and));
-
-            constraintLits.add(either);
-            constraintLits.add(or);
-            constraintLits
-                    .add(Logic.xor(graphABEdges[i][j], graphABEdges[j][i]));
-            solver.setDecisionLiteral(graphABEdges[i][j], true);
-            solver.setDecisionLiteral(graphABEdges[j][i], true);
-        }
+        addKnownEdges(precedenceGraph.getKnownGraphA(), edgesA);
+        addKnownEdges(precedenceGraph.getKnownGraphB(), edgesB);
 
-        var matA = new MatrixGraph<>(
-                precedenceGraph.getKnownGraphA().asGraph());
-        var orderInSession = Utils.getOrderInSession(history);
-        var minimalAUnionC = Utils.reduceEdges(
-                matA.union(matA.composition(new MatrixGraph<>(
-                        precedenceGraph.getKnownGraphB().asGraph()))),
-                orderInSession);
-        var reachability = minimalAUnionC.reachability();
-        var collectEdges = ((BiFunction<Graph<Transaction<KeyType, ValueType>>, EdgeType, List<Pair<Transaction<KeyType, ValueType>, Transaction<KeyType, ValueType>>>>) (
-                known, type) -> Stream
-                        .concat(known.edges().stream()
-                                .map(e -> Pair.of(e.source(), e.target())),
-                                constraints.stream()
-                                        .flatMap(c -> Stream.concat(
-                                                c.getEdges1().stream(),
-                                                c.getEdges2().stream()))
-                                        .filter(e -> e.getType().equals(type))
-                                        .map(e -> Pair.of(e.getFrom(),
-                                                e.getTo())))
-                        .collect(Collectors.toList()));
-        var edgesInA = collectEdges
-                .apply(precedenceGraph.getKnownGraphA().asGraph(), EdgeType.WW);
-        var edgesInB = collectEdges
-                .apply(precedenceGraph.getKnownGraphB().asGraph(), EdgeType.RW);
-        for (var e1 : edgesInA) {
-            var vi = nodeMap.get(e1.getLeft());
-            var vj = nodeMap.get(e1.getRight());
-            graphACEdges[vi][vj] = Logic.or(graphACEdges[vi][vj],
-                    graphABEdges[vi][vj]);
-            solver.setDecisionLiteral(graphACEdges[vi][vj], false);
-        }
-        for (var e1 : edgesInA) {
-            for (var e2 : edgesInB) {
-                if (!e1.getRight().equals(e2.getLeft())) {
-                    continue;
-                }
-
-                var vi = nodeMap.get(e1.getLeft());
-                var vj = nodeMap.get(e1.getRight());
-                var vk = nodeMap.get(e2.getRight());
-                graphACEdges[vi][vk] = Logic.or(graphACEdges[vi][vk],
-                        Logic.and(graphABEdges[vi][vj], graphABEdges[vj][vk]));
-                solver.setDecisionLiteral(graphACEdges[vi][vk], false);
+        for (int c = 0; c < constraints.constraintCount(); c++) {
+            if (constraints.isRemoved(c)) {
+                continue;
             }
+
+            var i = constraints.writeTransaction1(c);
+            var j = constraints.writeTransaction2(c);
+            var either = edgeLiteral(edgesA, i, j);
+            var or = edgeLiteral(edgesA, j, i);
+            solver.setDecisionLiteral(either, true);
+            solver.setDecisionLiteral(or, true);
+
+            var lit = Logic.and(Logic.xor(either, or),
+                    Logic.implies(either, sideLiteral(either,
+                            constraints.edges1Begin(c), constraints.edges1End(c))),
+                    Logic.implies(or, sideLiteral(or,
+                            constraints.edges2Begin(c), constraints.edges2End(c))));
+            constraintLiterals.put(lit, c);
         }
 
         var monoGraph = new monosat.Graph(solver);
-        var nodes = new int[graphACEdges.length];
-        for (int i = 0; i < graphACEdges.length; i++) {
+        var nodes = new int[n];
+        for (int i = 0; i < n; i++) {
             nodes[i] = monoGraph.addNode();
         }
-        for (int i = 0; i < graphACEdges.length; i++) {
-            for (int j = 0; j < graphACEdges[i].length; j++) {
-                var lit = monoGraph.addEdge(nodes[i], nodes[j]);
-                solver.assertEqual(lit, graphACEdges[i][j]);
-            }
-        }
 
+        var edgesAC = unionC();
+        for (var k : edgesAC.keys()) {
+            solver.assertEqual(edgesAC.get(k),
+                    monoGraph.addEdge(nodes[(int) (k >>> 32)], nodes[(int) k]));
+        }
         solver.assertTrue(monoGraph.acyclic());
 
-        profiler.endTick("SI_SOLVER2_CONSTRUCT");
+        System.err.printf("Graph A edges count: %d\nGraph B edges count: %d\n",
+                edgesA.size(), edgesB.size());
+        System.err.printf("Graph A union C edges count: %d\n", edgesAC.size());
+        profiler.setCount("graphAUnionCEdges", edgesAC.size());
+        profiler.endTick("SI_SOLVER_GEN");
     }
 
+    @Override
     public boolean solve() {
-        var lits = Stream.concat(knownLits.stream(), constraintLits.stream())
+        var profiler = Profiler.getInstance();
+        var lits = Stream
+                .concat(knownLiterals.keySet().stream(),
+                        constraintLiterals.keySet().stream())
                 .collect(Collectors.toList());
 
-        return solver.solve(lits);
+        profiler.startTick("SI_SOLVER_SOLVE");
+        var result = MonoSAT.solve(solver, lits);
+        profiler.endTick("SI_SOLVER_SOLVE");
+
+        return result;
+    }
+
+    @Override
+    public Pair<Collection<Pair<EndpointPair<Transaction<KeyType, ValueType>>, Collection<Edge<KeyType>>>>, Collection<SIConstraint<KeyType, ValueType>>> getConflicts() {
+        var edges = new ArrayList<Pair<EndpointPair<Transaction<KeyType, ValueType>>, Collection<Edge<KeyType>>>>();
+        var constraints = new ArrayList<SIConstraint<KeyType, ValueType>>();
+
+        solver.getConflictClause().stream().map(Logic::not).forEach(lit -> {
+            if (knownLiterals.containsKey(lit)) {
+                edges.add(knownLiterals.get(lit));
+            } else {
+                constraints.add(this.constraints.toConstraint(constraintLiterals.get(lit)));
+            }
+        });
+        return Pair.of(edges, constraints);
+    }
+
+    private void addKnownEdges(
+            ValueGraph<Transaction<KeyType, ValueType>, Collection<Edge<KeyType>>> knownGraph,
+            LongObjectHashMap<Lit> edges) {
+        for (var e : knownGraph.edges()) {
+            var lit = edgeLiteral(edges, constraints.transactionId(e.source()),
+                    constraints.transactionId(e.target()));
+            knownLiterals.put(lit, Pair.of(e, knownGraph.edgeValue(e).get()));
+        }
     }
 
-    Pair<Collection<Pair<EndpointPair<Transaction<KeyType, ValueType>>, Collection<Edge<KeyType>>>>, Collection<SIConstraint<KeyType, ValueType>>> getConflicts() {
-        return Pair.of(Collections.emptyList(), Collections.emptyList());
+    /*
+     * The literal of an edge, created when the pair is first seen
+     */
+    private Lit edgeLiteral(LongObjectHashMap<Lit> edges, int from, int to) {
+        return edges.computeIfAbsent(((long) from << 32) | to, k -> {
+            if (edges == edgesB) {
+                successorsB[from].add(to);
+            }
+
+            var lit = new Lit(solver);
+            solver.setDecisionLiteral(lit, false);
+            return lit;
+        });
+    }
+
+    /*
+     * The conjunction of the literals of a side of a constraint, except the
+     * literal choosing the side
+     */
+    private Lit sideLiteral(Lit choice, int begin, int end) {
+        var lits = new ArrayList<Lit>();
+        for (int e = begin; e < end; e++) {
+            var lit = edgeLiteral(constraints.type(e) == EdgeType.WW ? edgesA : edgesB,
+                    constraints.from(e), constraints.to(e));
+            if (!lit.equals(choice)) {
+                lits.add(lit);
+            }
+        }
+        return lits.isEmpty() ? Lit.True : Logic.and(lits);
+    }
+
+    /*
+     * The literals of the edges of A union C, by pair
+     */
+    private LongObjectHashMap<Lit> unionC() {
+        var derivations = new LongObjectHashMap<Collection<Lit>>(edgesA.size() * 2);
+        for (var k : edgesA.keys()) {
+            var p = (int) (k >>> 32);
+            var q = (int) k;
+            var litPQ = edgesA.get(k);
+            derivations.computeIfAbsent(k, x -> new ArrayList<>()).add(litPQ);
+
+            var successors = successorsB[q];
+            for (int i = 0; i < successors.size(); i++) {
+                var r = successors.get(i);
+                var lit = Logic.and(litPQ, edgesB.get(((long) q << 32) | r));
+                solver.setDecisionLiteral(lit, false);
+                derivations.computeIfAbsent(((long) p << 32) | r, x -> new ArrayList<>()).add(lit);
+            }
+        }
+
+        var edgesAC = new LongObjectHashMap<Lit>(derivations.size());
+        for (var k : derivations.keys()) {
+            var lits = derivations.get(k);
+            var lit = lits.size() == 1 ? lits.iterator().next() : Logic.or(lits);
+            solver.setDecisionLiteral(lit, false);
+            edgesAC.put(k, lit);
+        }
+        return edgesAC;
     }
 }
@@ -1,22 +1,33 @@
 package verifier;
 
+import graph.Edge;
 import graph.EdgeType;
 import graph.KnownGraph;
+import graph.MatrixGraph;
 import history.Event;
 import history.History;
 import history.HistoryLoader;
 import history.Transaction;
 
 import java.util.*;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.*;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import com.google.common.graph.EndpointPair;
+
+import org.apache.commons.lang3.tuple.Pair;
 
 import lombok.Getter;
 import lombok.Setter;
-import org.apache.commons.lang3.tuple.Pair;
 
+import util.IntList;
+import util.LongObjectHashMap;
 import util.Profiler;
-import util.TriConsumer;
 
 @SuppressWarnings("UnstableApiUsage")
 public class SIVerifier<KeyType, ValueType> {
@@ -30,51 +41,93 @@ public class SIVerifier<KeyType, ValueType> {
     @Setter
     private static boolean dotOutput = false;
 
+    public enum SolverType {
+        MONOSAT, MONOSAT_PAIRS, JAVA
+    }
+
+    @Getter
+    @Setter
+    private static SolverType solverType = SolverType.MONOSAT;
+
+    // solve the components of the constraints separately, in parallel with
+    // the Java solver
+    @Getter
+    @Setter
+    private static boolean splitComponents = false;
+
+    // time limit of each MonoSAT solve in seconds, 0 for no limit
+    @Getter
+    @Setter
+    private static int solverTimeLimit = 0;
+
+    // if set, known graphs and pruned constraints are reused from and saved to
+    // the cache, for the history with digest inputDigest
+    @Setter
+    private ArtifactCache artifactCache;
+
+    @Setter
+    private String inputDigest;
+
+    // the violations or conflicts printed by the last audit() that rejected
+    @Getter
+    private String conflicts;
+
     public SIVerifier(HistoryLoader<KeyType, ValueType> loader) {
         history = loader.loadHistory();
         System.err.printf("Sessions count: %d\nTransactions count: %d\nEvents count: %d\n",
                 history.getSessions().size(), history.getTransactions().size(), history.getEvents().size());
+
+        var profiler = Profiler.getInstance();
+        profiler.setCount("sessions", history.getSessions().size());
+        profiler.setCount("transactions", history.getTransactions().size());
+        profiler.setCount("events", history.getEvents().size());
     }
 
     public boolean audit() {
         var profiler = Profiler.getInstance();
 
-        profiler.startTick("ONESHOT_CONS");
-        profiler.startTick("SI_VERIFY_INT");
-        boolean satisfy_int = Utils.verifyInternalConsistency(history);
-        profiler.endTick("SI_VERIFY_INT");
-        if (!satisfy_int) {
-            return false;
+        String cacheKey = null;
+        ArtifactCache.Artifacts<KeyType, ValueType> artifacts = null;
+        if (artifactCache != null && inputDigest != null) {
+            cacheKey = ArtifactCache.key(inputDigest, String.valueOf(coalesceConstraints),
+                    String.valueOf(Pruning.isEnablePruning()), String.valueOf(Pruning.getStopThreshold()));
+            profiler.startTick("SI_CACHE_LOAD");
+            artifacts = artifactCache.load(cacheKey, history);
+            profiler.endTick("SI_CACHE_LOAD");
         }
 
-        profiler.startTick("SI_GEN_PREC_GRAPH");
-        var graph = new KnownGraph<>(history);
-        profiler.endTick("SI_GEN_PREC_GRAPH");
-        System.err.printf("Known edges: %d\n", graph.getKnownGraphA().edges().size());
+        if (artifacts != null) {
+            System.err.printf("Loaded known graph and constraints from cache\n");
+        } else {
+            artifacts = buildArtifacts();
+            if (artifacts == null) {
+                return false;
+            }
 
-        profiler.startTick("SI_GEN_CONSTRAINTS");
-        var constraints = generateConstraints(history, graph);
-        profiler.endTick("SI_GEN_CONSTRAINTS");
-        System.err.printf("Constraints count: %d\nTotal edges in constraints: %d\n", constraints.size(),
-                constraints.stream().map(c -> c.getEdges1().size() + c.getEdges2().size()).reduce(0, Integer::sum));
-        profiler.endTick("ONESHOT_CONS");
+            if (cacheKey != null) {
+                profiler.startTick("SI_CACHE_STORE");
+                artifactCache.store(cacheKey, history, artifacts);
+                profiler.endTick("SI_CACHE_STORE");
+            }
+        }
 
-        var hasLoop = Pruning.pruneConstraints(graph, constraints, history);
-        if (hasLoop) {
+        var graph = artifacts.getGraph();
+        var constraints = artifacts.getConstraints();
+        if (artifacts.isHasLoop()) {
             System.err.printf("Cycle found in pruning\n");
         }
         System.err.printf("After Prune:\n" + "Constraints count: %d\nTotal edges in constraints: %d\n",
-                constraints.size(),
-                constraints.stream().map(c -> c.getEdges1().size() + c.getEdges2().size()).reduce(0, Integer::sum));
+                constraints.size(), constraints.edgeCount());
+        profiler.setCount("constraintsAfterPruning", constraints.size());
+        profiler.setCount("constraintEdgesAfterPruning", constraints.edgeCount());
 
         profiler.startTick("ONESHOT_SOLVE");
-        var solver = new SISolver<>(history, graph, constraints);
-
-        boolean accepted = solver.solve();
+        var conflicts = splitComponents ? solveComponents(graph, constraints)
+                : solve(solverType, history, graph, constraints);
+        boolean accepted = conflicts == null;
         profiler.endTick("ONESHOT_SOLVE");
 
         if (!accepted) {
-            var conflicts = solver.getConflicts();
             var txns = new HashSet<Transaction<KeyType, ValueType>>();
 
             conflicts.getLeft().forEach(e -> {
@@ -91,15 +144,177 @@ public class SIVerifier<KeyType, ValueType> {
             });
 
             if (dotOutput) {
-                System.out.print(Utils.conflictsToDot(txns, conflicts.getLeft(), conflicts.getRight()));
+                this.conflicts = Utils.conflictsToDot(txns, conflicts.getLeft(), conflicts.getRight());
             } else {
-                System.out.print(Utils.conflictsToLegacy(txns, conflicts.getLeft(), conflicts.getRight()));
+                this.conflicts = Utils.conflictsToLegacy(txns, conflicts.getLeft(), conflicts.getRight());
             }
+            System.out.print(this.conflicts);
         }
 
         return accepted;
     }
 
+    /*
+     * @return null if the constraints can be satisfied, or the conflicts
+     */
+    private static <KeyType, ValueType> Pair<Collection<Pair<EndpointPair<Transaction<KeyType, ValueType>>, Collection<Edge<KeyType>>>>, Collection<SIConstraint<KeyType, ValueType>>> solve(
+            ConstraintSolver<KeyType, ValueType> solver) {
+        return solver.solve() ? null : solver.getConflicts();
+    }
+
+    /*
+     * Create a solver of the type and solve the constraints. MonoSAT solvers
+     * are created and run while holding the MonoSAT lock.
+     */
+    private static <KeyType, ValueType> Pair<Collection<Pair<EndpointPair<Transaction<KeyType, ValueType>>, Collection<Edge<KeyType>>>>, Collection<SIConstraint<KeyType, ValueType>>> solve(
+            SolverType type, History<KeyType, ValueType> history, KnownGraph<KeyType, ValueType> graph,
+            ConstraintStore<KeyType, ValueType> constraints) {
+        if (type == SolverType.JAVA) {
+            return solve(createSolver(type, history, graph, constraints));
+        }
+
+        MonoSAT.lock();
+        try {
+            return solve(createSolver(type, history, graph, constraints));
+        } finally {
+            MonoSAT.unlock();
+        }
+    }
+
+    /*
+     * Solve each component of the constraints with its own solver. The Java
+     * solver runs on several components in parallel. MonoSAT solvers are not
+     * run in parallel, see MonoSAT, so they are run one at a time on this
+     * thread. The history is rejected if any component cannot be solved, with
+     * the conflicts of all such components.
+     */
+    private Pair<Collection<Pair<EndpointPair<Transaction<KeyType, ValueType>>, Collection<Edge<KeyType>>>>, Collection<SIConstraint<KeyType, ValueType>>> solveComponents(
+            KnownGraph<KeyType, ValueType> graph, ConstraintStore<KeyType, ValueType> constraints) {
+        var profiler = Profiler.getInstance();
+        profiler.startTick("SI_SPLIT_COMPONENTS");
+        var components = Decomposition.split(graph, constraints);
+        profiler.endTick("SI_SPLIT_COMPONENTS");
+
+        System.err.printf("Components count: %d\n", components.size());
+        profiler.setCount("components", components.size());
+        if (!components.isEmpty()) {
+            var largest = components.get(0);
+            System.err.printf("Largest component: %d transactions, %d constraints\n",
+                    largest.getConstraints().transactionCount(), largest.getConstraints().size());
+            profiler.setCount("largestComponentTransactions", largest.getConstraints().transactionCount());
+            profiler.setCount("largestComponentConstraints", largest.getConstraints().size());
+        }
+
+        Function<Decomposition.Component<KeyType, ValueType>, Pair<Collection<Pair<EndpointPair<Transaction<KeyType, ValueType>>, Collection<Edge<KeyType>>>>, Collection<SIConstraint<KeyType, ValueType>>>> solveComponent = c -> {
+            var result = solve(solverType, history, c.getGraph(), c.getConstraints());
+            if (result == null) {
+                return null;
+            }
+
+            // constraints of the component are reported as in the whole store
+            var ids = c.getConstraintIds();
+            return Pair.of(result.getLeft(), result.getRight().stream()
+                    .map(s -> constraints.toConstraint(ids[s.getId()])).collect(Collectors.toList()));
+        };
+
+        var results = new ArrayList<Pair<Collection<Pair<EndpointPair<Transaction<KeyType, ValueType>>, Collection<Edge<KeyType>>>>, Collection<SIConstraint<KeyType, ValueType>>>>();
+        if (components.size() <= 1 || solverType != SolverType.JAVA) {
+            components.forEach(c -> results.add(solveComponent.apply(c)));
+        } else {
+            // Stages of the pool threads are added to the profiler of this
+            // thread.
+            var pool = Executors.newFixedThreadPool(Math.min(components.size(), MatrixGraph.getParallelism()));
+            try {
+                var futures = components.stream().map(c -> pool.submit(() -> {
+                    var workerProfiler = Profiler.getInstance();
+                    try {
+                        return solveComponent.apply(c);
+                    } finally {
+                        profiler.addAll(workerProfiler);
+                        Profiler.removeInstance();
+                    }
+                })).collect(Collectors.toList());
+
+                for (var f : futures) {
+                    results.add(f.get());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CancellationException("interrupted while solving components");
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof Error) {
+                    throw (Error) e.getCause();
+                }
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause()
+                        : new RuntimeException(e.getCause());
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+
+        var edges = new ArrayList<Pair<EndpointPair<Transaction<KeyType, ValueType>>, Collection<Edge<KeyType>>>>();
+        var rejected = new ArrayList<SIConstraint<KeyType, ValueType>>();
+        for (var r : results) {
+            if (r != null) {
+                edges.addAll(r.getLeft());
+                rejected.addAll(r.getRight());
+            }
+        }
+        return results.stream().allMatch(Objects::isNull) ? null : Pair.of(edges, rejected);
+    }
+
+    static <KeyType, ValueType> ConstraintSolver<KeyType, ValueType> createSolver(SolverType type,
+            History<KeyType, ValueType> history, KnownGraph<KeyType, ValueType> graph,
+            ConstraintStore<KeyType, ValueType> constraints) {
+        switch (type) {
+        case MONOSAT_PAIRS:
+            return new SISolver2<>(history, graph, constraints);
+        case JAVA:
+            return new JavaSISolver<>(history, graph, constraints);
+        default:
+            return new SISolver<>(history, graph, constraints);
+        }
+    }
+
+    /*
+     * Check internal consistency, then build the known graph and constraints,
+     * and prune the constraints.
+     *
+     * @return the artifacts, or null if the history is not internally
+     * consistent
+     */
+    private ArtifactCache.Artifacts<KeyType, ValueType> buildArtifacts() {
+        var profiler = Profiler.getInstance();
+
+        profiler.startTick("ONESHOT_CONS");
+        profiler.startTick("SI_VERIFY_INT");
+        var violations = InternalConsistency.check(history);
+        profiler.endTick("SI_VERIFY_INT");
+        if (!violations.isEmpty()) {
+            violations.forEach(v -> System.err.println(v));
+            conflicts = violations.stream().map(v -> v + "\n").collect(Collectors.joining());
+            return null;
+        }
+
+        profiler.startTick("SI_GEN_PREC_GRAPH");
+        var graph = new KnownGraph<>(history);
+        profiler.endTick("SI_GEN_PREC_GRAPH");
+        System.err.printf("Known edges: %d\n", graph.getKnownGraphA().edges().size());
+        profiler.setCount("knownEdges", graph.getKnownGraphA().edges().size());
+
+        profiler.startTick("SI_GEN_CONSTRAINTS");
+        var constraints = generateConstraints(history, graph);
+        profiler.endTick("SI_GEN_CONSTRAINTS");
+        System.err.printf("Constraints count: %d\nTotal edges in constraints: %d\n", constraints.size(),
+                constraints.edgeCount());
+        profiler.setCount("constraintsBeforePruning", constraints.size());
+        profiler.setCount("constraintEdgesBeforePruning", constraints.edgeCount());
+        profiler.endTick("ONESHOT_CONS");
+
+        var hasLoop = Pruning.pruneConstraints(graph, constraints, history);
+        return new ArtifactCache.Artifacts<>(graph, constraints, hasLoop);
+    }
+
     /*
      * Generate constraints from a precedence graph. Use coalescing to reduce the
      * number of constraints produced.
@@ -115,68 +330,133 @@ public class SIVerifier<KeyType, ValueType> {
      *
      * 2. C precedes A, add C ->(ww) A. For each transaction B such that C ->(wr, K)
      * A, add B ->(rw) A.
+     *
+     * Keys are split into shards processed in parallel. In each shard, the edges
+     * of a pair of transactions are found by the pair's indices packed in a
+     * long. The shards are merged at the end, and constraints are numbered in
+     * the order of the packed indices.
+     *
+     * The constraints are cached, see ArtifactCache.GENERATOR_VERSION.
      */
-    private static <KeyType, ValueType> Collection<SIConstraint<KeyType, ValueType>> generateConstraintsCoalesce(
+    static <KeyType, ValueType> ConstraintStore<KeyType, ValueType> generateConstraintsCoalesce(
             History<KeyType, ValueType> history, KnownGraph<KeyType, ValueType> graph) {
         var readFrom = graph.getReadFrom();
-        var writes = new HashMap<KeyType, Set<Transaction<KeyType, ValueType>>>();
+        var store = new ConstraintStore<>(history.getTransactions());
 
+        var writes = new HashMap<KeyType, Set<Transaction<KeyType, ValueType>>>();
         history.getEvents().stream().filter(e -> e.getType() == Event.EventType.WRITE).forEach(ev -> {
             writes.computeIfAbsent(ev.getKey(), k -> new HashSet<>()).add(ev.getTransaction());
         });
 
-        var forEachWriteSameKey = ((Consumer<TriConsumer<Transaction<KeyType, ValueType>, Transaction<KeyType, ValueType>, KeyType>>) f -> {
-            for (var p : writes.entrySet()) {
-                var key = p.getKey();
-                var list = new ArrayList<>(p.getValue());
-                for (int i = 0; i < list.size(); i++) {
-                    for (int j = i + 1; j < list.size(); j++) {
-                        f.accept(list.get(i), list.get(j), key);
-                    }
+        // readers.get(K).get(A) contains B iff. A ->(wr, K) B
+        var readers = new HashMap<KeyType, Map<Transaction<KeyType, ValueType>, Set<Transaction<KeyType, ValueType>>>>();
+        for (var a : readFrom.nodes()) {
+            for (var b : readFrom.successors(a)) {
+                for (var edge : readFrom.edgeValue(a, b).get()) {
+                    readers.computeIfAbsent(edge.getKey(), k -> new HashMap<>())
+                            .computeIfAbsent(a, t -> new HashSet<>()).add(b);
                 }
             }
-        });
+        }
 
-        var constraintEdges = new HashMap<Pair<Transaction<KeyType, ValueType>, Transaction<KeyType, ValueType>>, Collection<SIEdge<KeyType, ValueType>>>();
-        forEachWriteSameKey.accept((a, c, key) -> {
-            var addEdge = ((BiConsumer<Transaction<KeyType, ValueType>, Transaction<KeyType, ValueType>>) (m, n) -> {
-                constraintEdges.computeIfAbsent(Pair.of(m, n), p -> new ArrayList<>())
-                        .add(new SIEdge<>(m, n, EdgeType.WW, key));
-            });
-            addEdge.accept(a, c);
-            addEdge.accept(c, a);
-        });
+        var keys = new ArrayList<>(writes.keySet());
+        keys.forEach(store::keyId);
+        var pool = ForkJoinPool.commonPool();
+        var shardNum = pool.getParallelism() * 4;
+        var shards = pool.submit(() -> IntStream.range(0, shardNum).parallel().mapToObj(shard -> {
+            var pairs = new LongObjectHashMap<PairEdges>();
+            for (int i = shard; i < keys.size(); i += shardNum) {
+                var key = keys.get(i);
+                addPairEdges(pairs, key, writes.get(key), readers.getOrDefault(key, Map.of()), store);
+            }
+            return pairs;
+        }).collect(Collectors.toList())).join();
+
+        var merged = new LongObjectHashMap<PairEdges>();
+        for (var pairs : shards) {
+            for (var k : pairs.keys()) {
+                var edges = pairs.get(k);
+                var prev = merged.put(k, edges);
+                if (prev != null) {
+                    edges.edges1.addAll(prev.edges1);
+                    edges.edges2.addAll(prev.edges2);
+                }
+            }
+        }
 
-        for (var a : history.getTransactions()) {
-            for (var b : readFrom.successors(a)) {
-                for (var edge : readFrom.edgeValue(a, b).get()) {
-                    for (var c : writes.get(edge.getKey())) {
-                        if (a == c || b == c) {
-                            continue;
-                        }
+        var pairKeys = merged.keys();
+        Arrays.sort(pairKeys);
+        for (var k : pairKeys) {
+            var edges = merged.get(k);
+            store.startConstraint((int) (k >>> 32), (int) k);
+            addEdges(store, edges.edges1);
+            store.startEdges2();
+            addEdges(store, edges.edges2);
+        }
+
+        return store;
+    }
+
+    /*
+     * Edges of the constraint of transactions (A, C), where A has the smaller
+     * id. edges1 are the edges if A precedes C. Each edge takes 4 ints: from,
+     * to, type and key.
+     */
+    private static class PairEdges {
+        private final IntList edges1 = new IntList();
+        private final IntList edges2 = new IntList();
+    }
 
-                        constraintEdges.get(Pair.of(a, c)).add(new SIEdge<>(b, c, EdgeType.RW, edge.getKey()));
+    private static <KeyType, ValueType> void addPairEdges(LongObjectHashMap<PairEdges> pairs, KeyType key,
+            Set<Transaction<KeyType, ValueType>> keyWriters,
+            Map<Transaction<KeyType, ValueType>, Set<Transaction<KeyType, ValueType>>> keyReaders,
+            ConstraintStore<KeyType, ValueType> store) {
+        var writers = keyWriters.stream().mapToInt(store::transactionId).sorted().toArray();
+        var keyId = store.keyId(key);
+        var readerIds = new int[writers.length][];
+        for (int i = 0; i < writers.length; i++) {
+            readerIds[i] = keyReaders.getOrDefault(store.transaction(writers[i]), Set.of()).stream()
+                    .mapToInt(store::transactionId).toArray();
+        }
+
+        for (int i = 0; i < writers.length; i++) {
+            var a = writers[i];
+            for (int j = i + 1; j < writers.length; j++) {
+                var c = writers[j];
+                var edges = pairs.computeIfAbsent(((long) a << 32) | c, k -> new PairEdges());
+
+                addEdge(edges.edges1, a, c, EdgeType.WW, keyId);
+                for (var b : readerIds[i]) {
+                    if (b != c) {
+                        addEdge(edges.edges1, b, c, EdgeType.RW, keyId);
+                    }
+                }
+
+                addEdge(edges.edges2, c, a, EdgeType.WW, keyId);
+                for (var b : readerIds[j]) {
+                    if (b != a) {
+                        addEdge(edges.edges2, b, a, EdgeType.RW, keyId);
                     }
                 }
             }
         }
+    }
 
-        var constraints = new HashSet<SIConstraint<KeyType, ValueType>>();
-        var addedPairs = new HashSet<Pair<Transaction<KeyType, ValueType>, Transaction<KeyType, ValueType>>>();
-        AtomicInteger constraintId = new AtomicInteger();
-        forEachWriteSameKey.accept((a, c, key) -> {
-            if (addedPairs.contains(Pair.of(a, c)) || addedPairs.contains(Pair.of(c, a))) {
-                return;
-            }
-            addedPairs.add(Pair.of(a, c));
-            constraints.add(new SIConstraint<>(constraintEdges.get(Pair.of(a, c)), constraintEdges.get(Pair.of(c, a)),
-                    a, c, constraintId.getAndIncrement()));
-        });
+    private static void addEdge(IntList edges, int from, int to, EdgeType type, int key) {
+        edges.add(from);
+        edges.add(to);
+        edges.add(type.ordinal());
+        edges.add(key);
+    }
 
-        return constraints;
+    private static void addEdges(ConstraintStore<?, ?> store, IntList edges) {
+        var types = EdgeType.values();
+        for (int i = 0; i < edges.size(); i += 4) {
+            store.addEdge(edges.get(i), edges.get(i + 1), types[edges.get(i + 2)], edges.get(i + 3));
+        }
     }
 
-    private static <KeyType, ValueType> Collection<SIConstraint<KeyType, ValueType>> generateConstraintsNoCoalesce(
+    private static <KeyType, ValueType> ConstraintStore<KeyType, ValueType> generateConstraintsNoCoalesce(
             History<KeyType, ValueType> history, KnownGraph<KeyType, ValueType> graph) {
         var readFrom = graph.getReadFrom();
         var writes = new HashMap<KeyType, Set<Transaction<KeyType, ValueType>>>();
@@ -185,8 +465,7 @@ public class SIVerifier<KeyType, ValueType> {
             writes.computeIfAbsent(ev.getKey(), k -> new HashSet<>()).add(ev.getTransaction());
         });
 
-        var constraints = new HashSet<SIConstraint<KeyType, ValueType>>();
-        var constraintId = 0;
+        var constraints = new ConstraintStore<>(history.getTransactions());
         for (var a : history.getTransactions()) {
             for (var b : readFrom.successors(a)) {
                 for (var edge : readFrom.edgeValue(a, b).get()) {
@@ -195,10 +474,10 @@ public class SIVerifier<KeyType, ValueType> {
                             continue;
                         }
 
-                        constraints.add(new SIConstraint<>(
+                        constraints.addConstraint(a, c,
                                 List.of(new SIEdge<>(a, c, EdgeType.WW, edge.getKey()),
                                         new SIEdge<>(b, c, EdgeType.RW, edge.getKey())),
-                                List.of(new SIEdge<>(c, a, EdgeType.WW, edge.getKey())), a, c, constraintId++));
+                                List.of(new SIEdge<>(c, a, EdgeType.WW, edge.getKey())));
                     }
                 }
             }
@@ -209,8 +488,8 @@ public class SIVerifier<KeyType, ValueType> {
                 for (int j = i + 1; j < list.size(); j++) {
                     var a = list.get(i);
                     var c = list.get(j);
-                    constraints.add(new SIConstraint<>(List.of(new SIEdge<>(a, c, EdgeType.WW, write.getKey())),
-                            List.of(new SIEdge<>(c, a, EdgeType.WW, write.getKey())), a, c, constraintId++));
+                    constraints.addConstraint(a, c, List.of(new SIEdge<>(a, c, EdgeType.WW, write.getKey())),
+                            List.of(new SIEdge<>(c, a, EdgeType.WW, write.getKey())));
                 }
             }
         }
@@ -218,7 +497,7 @@ public class SIVerifier<KeyType, ValueType> {
         return constraints;
     }
 
-    private static <KeyType, ValueType> Collection<SIConstraint<KeyType, ValueType>> generateConstraints(
+    private static <KeyType, ValueType> ConstraintStore<KeyType, ValueType> generateConstraints(
             History<KeyType, ValueType> history, KnownGraph<KeyType, ValueType> graph) {
         if (coalesceConstraints) {
             return generateConstraintsCoalesce(history, graph);
@@ -2,7 +2,6 @@ package verifier;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -10,7 +9,6 @@ import java.util.Optional;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
-import java.util.stream.Stream;
 
 import com.google.common.collect.Sets;
 import com.google.common.collect.Streams;
@@ -25,62 +23,13 @@ import org.apache.commons.lang3.tuple.Triple;
 import graph.Edge;
 import graph.EdgeType;
 import graph.MatrixGraph;
-import history.Event;
 import history.History;
 import history.Transaction;
-import history.Event.EventType;
 import monosat.Lit;
 import monosat.Logic;
 import monosat.Solver;
 
 class Utils {
-    static <KeyType, ValueType> boolean verifyInternalConsistency(History<KeyType, ValueType> history) {
-        var writes = new HashMap<Pair<KeyType, ValueType>, Pair<Event<KeyType, ValueType>, Integer>>();
-        var txnWrites = new HashMap<Pair<Transaction<KeyType, ValueType>, KeyType>, ArrayList<Integer>>();
-        var getEvents = ((Function<Event.EventType, Stream<Pair<Integer, Event<KeyType, ValueType>>>>) type -> history
-                .getTransactions().stream().flatMap(txn -> {
-                    var events = txn.getEvents();
-                    return IntStream.range(0, events.size()).mapToObj(i -> Pair.of(i, events.get(i)))
-                            .filter(p -> p.getRight().getType() == type);
-                }));
-
-        getEvents.apply(Event.EventType.WRITE).forEach(p -> {
-            var i = p.getLeft();
-            var ev = p.getRight();
-            writes.put(Pair.of(ev.getKey(), ev.getValue()), Pair.of(ev, i));
-            txnWrites.computeIfAbsent(Pair.of(ev.getTransaction(), ev.getKey()), k -> new ArrayList()).add(i);
-        });
-
-        for (var p : getEvents.apply(Event.EventType.READ).collect(Collectors.toList())) {
-            var i = p.getLeft();
-            var ev = p.getRight();
-            var writeEv = writes.get(Pair.of(ev.getKey(), ev.getValue()));
-
-            if (writeEv == null) {
-                System.err.printf("%s has no corresponding write\n", ev);
-                return false;
-            }
-
-            var myWriteIndices = txnWrites.getOrDefault(Pair.of(ev.getTransaction(), ev.getKey()), new ArrayList<>());
-            var writeIndices = txnWrites.get(Pair.of(writeEv.getLeft().getTransaction(), writeEv.getLeft().getKey()));
-            var j = Collections.binarySearch(writeIndices, writeEv.getRight());
-
-            if (writeEv.getLeft().getTransaction() == ev.getTransaction()) {
-                if (j != writeIndices.size() - 1 && writeIndices.get(j + 1) < i) {
-                    System.err.printf("%s not reading from latest write: %s\n", ev, writeEv.getLeft());
-                    return false;
-                } else if (writeEv.getRight() > i) {
-                    System.err.printf("%s reads from a write after it: %s\n", ev, writeEv.getLeft());
-                    return false;
-                }
-            } else if (j != writeIndices.size() - 1 || (!myWriteIndices.isEmpty() && myWriteIndices.get(0) < i)) {
-                System.err.printf("%s not reading from latest write: %s\n", ev, writeEv.getLeft());
-                return false;
-            }
-        }
-        return true;
-    }
-
     /**
      * Collect unknown edges
      *
@@ -160,12 +109,28 @@ class Utils {
         // @formatter:on
     }
 
+    /*
+     * Positions of transactions in their sessions, for the sessions of the
+     * given transactions
+     */
+    static <KeyType, ValueType> Map<Transaction<KeyType, ValueType>, Integer> getOrderInSession(
+            Collection<Transaction<KeyType, ValueType>> transactions) {
+        var order = new HashMap<Transaction<KeyType, ValueType>, Integer>();
+        transactions.stream().map(Transaction::getSession).distinct().forEach(s -> {
+            var txns = s.getTransactions();
+            for (int i = 0; i < txns.size(); i++) {
+                order.put(txns.get(i), i);
+            }
+        });
+        return order;
+    }
+
     static <KeyType, ValueType> MutableValueGraph<Transaction<KeyType, ValueType>, Collection<Lit>> createEmptyGraph(
-            History<KeyType, ValueType> history) {
+            Collection<Transaction<KeyType, ValueType>> transactions) {
         MutableValueGraph<Transaction<KeyType, ValueType>, Collection<Lit>> g = ValueGraphBuilder.directed()
                 .allowsSelfLoops(true).build();
 
-        history.getTransactions().forEach(g::addNode);
+        transactions.forEach(g::addNode);
         return g;
     }
 
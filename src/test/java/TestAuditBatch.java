@@ -0,0 +1,60 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import picocli.CommandLine;
+import verifier.SIVerifier;
+
+public class TestAuditBatch {
+	@TempDir
+	Path dir;
+
+	@AfterEach
+	void restoreDefaults() {
+		SIVerifier.setDotOutput(false);
+	}
+
+	/*
+	 * The conflicts of a rejected history must not end up in the summary on
+	 * stdout
+	 */
+	@Test
+	void summaryOfRejectedHistory() throws IOException {
+		Files.write(dir.resolve("accepted.txt"), List.of("w(1,1,1,1)", "r(1,1,2,2)"));
+		// lost update
+		Files.write(dir.resolve("rejected.txt"), List.of("r(1,0,1,1)", "w(1,1,1,1)", "r(1,0,2,2)", "w(1,2,2,2)"));
+
+		var stdout = System.out;
+		var buf = new ByteArrayOutputStream();
+		System.setOut(new PrintStream(buf, true, StandardCharsets.UTF_8));
+		try {
+			new CommandLine(new Main()).execute("audit-batch", "-t", "TEXT", "-j", "2", dir.toString());
+		} finally {
+			System.setOut(stdout);
+		}
+
+		var line = Pattern.compile("\\{\"path\": \"(.*)\", \"result\": \"(\\w+)\", \"error\": null, .*\\}");
+		var results = new HashMap<String, String>();
+		for (var l : buf.toString(StandardCharsets.UTF_8).split("\n")) {
+			var match = line.matcher(l);
+			assertTrue(match.matches(), "not a summary line: " + l);
+			results.put(Path.of(match.group(1)).getFileName().toString(), match.group(2));
+		}
+
+		assertEquals(Map.of("accepted.txt", "ACCEPT", "rejected.txt", "REJECT"), results);
+	}
+}
@@ -0,0 +1,53 @@
+import static history.Event.EventType.READ;
+import static history.Event.EventType.WRITE;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import history.CompactHistory;
+import history.Event;
+import history.InvalidHistoryError;
+import history.ValueCodec;
+
+class TestCompactHistory {
+    @Test
+    void interleavedEvents() {
+        var history = new CompactHistory<String, Long>(ValueCodec.ofLong());
+        var s = history.addSession(1);
+        var t1 = history.addTransaction(s, 10);
+        var t2 = history.addTransaction(s, 20);
+
+        history.addEvent(t1, WRITE, "x", 1L);
+        history.addEvent(t2, READ, "x", 1L);
+        history.addEvent(t1, WRITE, "y", 2L);
+        history.addEvent(t2, WRITE, "x", 3L);
+
+        assertEquals(List.of(new Event<>(t1, WRITE, "x", 1L), new Event<>(t1, WRITE, "y", 2L)), t1.getEvents());
+        assertEquals(List.of(new Event<>(t2, READ, "x", 1L), new Event<>(t2, WRITE, "x", 3L)), t2.getEvents());
+        assertEquals(4, history.getEvents().size());
+        assertSame(t2, history.getTransaction(20));
+        assertSame(s, history.getSession(1));
+        assertNull(history.getTransaction(30));
+
+        history.addEvent(t1, READ, "z", 0L);
+        assertEquals(new Event<>(t1, READ, "z", 0L), t1.getEvents().get(2));
+        assertEquals(2, t2.getEvents().size());
+    }
+
+    @Test
+    void duplicateWrite() {
+        var history = new CompactHistory<String, String>(ValueCodec.dictionary());
+        var txn = history.addTransaction(history.addSession(0), 0);
+        history.addEvent(txn, WRITE, "x", "a");
+        history.addEvent(txn, WRITE, "y", "a");
+
+        assertThrows(InvalidHistoryError.class, () -> history.addEvent(txn, WRITE, "x", "a"));
+        assertThrows(InvalidHistoryError.class, () -> history.addSession(0));
+        assertThrows(InvalidHistoryError.class, () -> history.addTransaction(history.getSession(0), 0));
+    }
+}
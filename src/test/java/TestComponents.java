@@ -0,0 +1,20 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+
+import verifier.SIVerifier;
+
+/*
+ * The histories of TestVerifier, verified with MonoSAT on each component of
+ * the constraints
+ */
+public class TestComponents extends TestVerifier {
+	@BeforeEach
+	void splitComponents() {
+		SIVerifier.setSplitComponents(true);
+	}
+
+	@AfterEach
+	void solveTogether() {
+		SIVerifier.setSplitComponents(false);
+	}
+}
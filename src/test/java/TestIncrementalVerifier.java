@@ -0,0 +1,93 @@
+import static history.Event.EventType.READ;
+import static history.Event.EventType.WRITE;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang3.tuple.Triple;
+import org.junit.jupiter.api.Test;
+
+import verifier.IncrementalSIVerifier;
+
+public class TestIncrementalVerifier {
+	@Test
+	void readCommittedInSecondBatch() {
+		var h = (new TestLoader(
+			Set.of(0, 1),
+			Map.of(0, List.of(0, 1),
+				   1, List.of(2)),
+			Map.of(0, List.of(Triple.of(WRITE, "x", 1)),
+				   1, List.of(Triple.of(WRITE, "x", 2),
+							  Triple.of(WRITE, "y", 2)),
+				   2, List.of(Triple.of(READ, "y", 2),
+							  Triple.of(READ, "x", 1))))).loadHistory();
+
+		var verifier = new IncrementalSIVerifier<String, Integer>();
+		assertTrue(verifier.audit(List.of(h.getTransaction(0))));
+		assertFalse(verifier.audit(List.of(h.getTransaction(1), h.getTransaction(2))));
+	}
+
+	@Test
+	void readBeforeWriteArrives() {
+		var h = (new TestLoader(
+			Set.of(0, 1),
+			Map.of(0, List.of(0),
+				   1, List.of(1)),
+			Map.of(0, List.of(Triple.of(WRITE, "x", 1)),
+				   1, List.of(Triple.of(READ, "x", 1),
+							  Triple.of(WRITE, "x", 2))))).loadHistory();
+
+		var verifier = new IncrementalSIVerifier<String, Integer>();
+		assertTrue(verifier.audit(List.of(h.getTransaction(1))));
+		assertTrue(verifier.audit(List.of(h.getTransaction(0))));
+		assertTrue(verifier.close());
+	}
+
+	@Test
+	void internalInconsistency() {
+		var h = (new TestLoader(
+			Set.of(0),
+			Map.of(0, List.of(0)),
+			Map.of(0, List.of(Triple.of(READ, "x", 1),
+							  Triple.of(WRITE, "x", 1))))).loadHistory();
+
+		assertFalse(new IncrementalSIVerifier<String, Integer>().audit(List.of(h.getTransaction(0))));
+	}
+
+	@Test
+	void constraintExtendedInLaterBatch() {
+		var h = (new TestLoader(
+			Set.of(0, 1),
+			Map.of(0, List.of(0, 1),
+				   1, List.of(2)),
+			Map.of(0, List.of(Triple.of(WRITE, "x", 1)),
+				   1, List.of(Triple.of(WRITE, "x", 2),
+							  Triple.of(WRITE, "y", 2)),
+				   2, List.of(Triple.of(READ, "y", 2),
+							  Triple.of(READ, "x", 1))))).loadHistory();
+
+		var verifier = new IncrementalSIVerifier<String, Integer>();
+		assertTrue(verifier.audit(List.of(h.getTransaction(0), h.getTransaction(1))));
+		assertFalse(verifier.audit(List.of(h.getTransaction(2))));
+
+		var conflicts = verifier.getConflicts();
+		assertEquals(1, conflicts.getRight().size());
+		assertEquals(3, conflicts.getLeft().size());
+	}
+
+	@Test
+	void pendingReadRejectedOnClose() {
+		var h = (new TestLoader(
+			Set.of(0),
+			Map.of(0, List.of(0)),
+			Map.of(0, List.of(Triple.of(READ, "x", 1))))).loadHistory();
+
+		var verifier = new IncrementalSIVerifier<String, Integer>();
+		assertTrue(verifier.audit(List.of(h.getTransaction(0))));
+		assertFalse(verifier.close());
+	}
+}
@@ -0,0 +1,63 @@
+import static history.Event.EventType.READ;
+import static history.Event.EventType.WRITE;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang3.tuple.Triple;
+import org.junit.jupiter.api.Test;
+
+import verifier.InternalConsistency;
+import verifier.InternalConsistency.ViolationType;
+
+class TestInternalConsistency {
+    private final TestLoader loader = new TestLoader(
+            Set.of(0, 1),
+            Map.of(0, List.of(0),
+                    1, List.of(1)),
+            Map.of(0, List.of(
+                    Triple.of(WRITE, "x", 0),
+                    Triple.of(WRITE, "x", 1),
+                    Triple.of(WRITE, "y", 0)),
+                    1, List.of(
+                            Triple.of(READ, "x", 0),
+                            Triple.of(READ, "y", 0),
+                            Triple.of(READ, "z", 0))));
+
+    @Test
+    void reportsAllViolations() {
+        var violations = InternalConsistency.check(loader.loadHistory());
+
+        assertEquals(2, violations.size());
+        assertTrue(violations.stream().anyMatch(v -> v.getType() == ViolationType.NOT_LATEST_WRITE
+                && v.getRead().getKey().equals("x")));
+        assertTrue(violations.stream().anyMatch(v -> v.getType() == ViolationType.NO_WRITE
+                && v.getRead().getKey().equals("z")));
+    }
+
+    @Test
+    void stopsOnFirstViolation() {
+        InternalConsistency.setStopOnFirstViolation(true);
+        try {
+            assertEquals(1, InternalConsistency.check(loader.loadHistory()).size());
+        } finally {
+            InternalConsistency.setStopOnFirstViolation(false);
+        }
+    }
+
+    @Test
+    void consistentHistory() {
+        var h = new TestLoader(
+                Set.of(0),
+                Map.of(0, List.of(0, 1)),
+                Map.of(0, List.of(Triple.of(WRITE, "x", 0),
+                        Triple.of(READ, "x", 0),
+                        Triple.of(WRITE, "x", 1)),
+                        1, List.of(Triple.of(READ, "x", 1))));
+
+        assertTrue(InternalConsistency.check(h.loadHistory()).isEmpty());
+    }
+}
@@ -0,0 +1,19 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+
+import verifier.SIVerifier;
+
+/*
+ * The histories of TestVerifier, verified with the Java solver
+ */
+public class TestJavaSolver extends TestVerifier {
+	@BeforeEach
+	void useJavaSolver() {
+		SIVerifier.setSolverType(SIVerifier.SolverType.JAVA);
+	}
+
+	@AfterEach
+	void useDefaultSolver() {
+		SIVerifier.setSolverType(SIVerifier.SolverType.MONOSAT);
+	}
+}
@@ -1,14 +1,19 @@
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.util.List;
 import java.util.Optional;
 import java.util.Random;
+import java.util.Set;
+import java.util.function.IntConsumer;
 import java.util.stream.IntStream;
 
 import com.google.common.base.Stopwatch;
 import com.google.common.collect.Streams;
 import com.google.common.graph.Graph;
 import com.google.common.graph.GraphBuilder;
+import com.google.common.graph.Graphs;
 import com.google.common.graph.MutableGraph;
 
 import org.apache.commons.lang3.tuple.Pair;
@@ -39,39 +44,102 @@ class TestMatrixGraph {
     }
 
     @ParameterizedTest
-    @ValueSource(doubles = { 5e-3 })
+    @ValueSource(doubles = { 5e-3, 0.2 })
     void testComposition(double density) {
         var graph = generateGraph(MATRIX_NODES, (int) (MATRIX_NODES * MATRIX_NODES * density));
         var g = new MatrixGraph<>(graph);
         System.err.printf("density: %g\n", density);
 
-        var t = Stopwatch.createStarted();
-        var sparse = g.composition(g);
-        System.err.printf("sparse: %s\n", t.elapsed());
-
-        t = Stopwatch.createStarted();
-        var dense = g.composition(g);
-        System.err.printf("dense: %s\n", t.elapsed());
-
-        assertEquals(sparse, dense);
+        var storage = MatrixGraph.getStorage();
+        try {
+            MatrixGraph.setStorage(MatrixGraph.Storage.SPARSE);
+            var t = Stopwatch.createStarted();
+            var sparse = g.composition(g);
+            System.err.printf("sparse: %s\n", t.elapsed());
+
+            MatrixGraph.setStorage(MatrixGraph.Storage.DENSE);
+            t = Stopwatch.createStarted();
+            var dense = g.composition(g);
+            System.err.printf("dense: %s\n", t.elapsed());
+
+            MatrixGraph.setStorage(MatrixGraph.Storage.AUTO);
+            assertEquals(sparse, dense);
+            assertEquals(sparse, g.composition(g));
+        } finally {
+            MatrixGraph.setStorage(storage);
+        }
     }
 
     @ParameterizedTest
-    @ValueSource(doubles = { 5e-3 })
+    @ValueSource(doubles = { 5e-3, 0.2 })
     void testReachability(double density) {
         var graph = generateGraph(MATRIX_NODES, (int) (MATRIX_NODES * MATRIX_NODES * density));
         var g = new MatrixGraph<>(graph);
         System.err.printf("density: %g\n", density);
 
-        var t = Stopwatch.createStarted();
-        var sparse = g.reachability();
-        System.err.printf("sparse: %s\n", t.elapsed());
+        var storage = MatrixGraph.getStorage();
+        try {
+            MatrixGraph.setStorage(MatrixGraph.Storage.SPARSE);
+            var t = Stopwatch.createStarted();
+            var sparse = g.reachability();
+            System.err.printf("sparse: %s\n", t.elapsed());
+
+            MatrixGraph.setStorage(MatrixGraph.Storage.DENSE);
+            t = Stopwatch.createStarted();
+            var dense = g.reachability();
+            System.err.printf("dense: %s\n", t.elapsed());
+
+            MatrixGraph.setStorage(MatrixGraph.Storage.AUTO);
+            assertEquals(sparse, dense);
+            assertEquals(sparse, g.reachability());
+        } finally {
+            MatrixGraph.setStorage(storage);
+        }
+    }
 
-        t = Stopwatch.createStarted();
-        var dense = g.reachability();
-        System.err.printf("dense: %s\n", t.elapsed());
+    @ParameterizedTest
+    @ValueSource(booleans = { true, false })
+    void testParallelReachability(boolean acyclic) {
+        var graph = Graphs.copyOf(generateGraph(MATRIX_NODES, MATRIX_NODES * 2));
+        if (acyclic) {
+            Set.copyOf(graph.edges()).stream().filter(e -> e.source() > e.target()).forEach(graph::removeEdge);
+        }
+        var g = new MatrixGraph<>(graph);
 
-        assertEquals(sparse, dense);
+        var parallelism = MatrixGraph.getParallelism();
+        try {
+            MatrixGraph.setParallelism(1);
+            var sequential = g.reachability();
+            MatrixGraph.setParallelism(4);
+            assertEquals(sequential, g.reachability());
+        } finally {
+            MatrixGraph.setParallelism(parallelism);
+        }
+    }
+
+    @Test
+    void testIncrementalClosure() {
+        MutableGraph<Integer> graph = GraphBuilder.directed().build();
+        IntStream.range(0, MATRIX_NODES).forEach(n -> graph.addNode(n));
+
+        var random = new Random();
+        var addEdges = (IntConsumer) (n -> random.ints(n, 0, MATRIX_NODES).forEach(i -> {
+            var j = random.nextInt(MATRIX_NODES);
+            if (i < j) {
+                graph.putEdge(i, j);
+            }
+        }));
+
+        addEdges.accept(MATRIX_NODES);
+        var closure = new MatrixGraph<>(graph).reachability();
+
+        var edges = Set.copyOf(graph.edges());
+        addEdges.accept(MATRIX_NODES / 10);
+        graph.edges().stream().filter(e -> !edges.contains(e))
+                .forEach(e -> assertFalse(closure.putEdgeInClosure(e.source(), e.target())));
+
+        assertEquals(new MatrixGraph<>(graph, closure.getNodeMap()).reachability(), closure);
+        assertTrue(closure.putEdgeInClosure(MATRIX_NODES - 1, 0) == closure.hasEdgeConnecting(0, MATRIX_NODES - 1));
     }
 
     @Test
@@ -0,0 +1,20 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+
+import verifier.SIVerifier;
+
+/*
+ * The histories of TestVerifier, verified with one MonoSAT literal for each
+ * pair of transactions
+ */
+public class TestSISolver2 extends TestVerifier {
+	@BeforeEach
+	void useSISolver2() {
+		SIVerifier.setSolverType(SIVerifier.SolverType.MONOSAT_PAIRS);
+	}
+
+	@AfterEach
+	void useDefaultSolver() {
+		SIVerifier.setSolverType(SIVerifier.SolverType.MONOSAT);
+	}
+}
@@ -0,0 +1,108 @@
+package graph;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import util.IntList;
+
+public class TestIncrementalTopologicalOrder {
+	@Test
+	void edgeClosingCycle() {
+		var order = new IncrementalTopologicalOrder(4);
+		// each edge goes against the current order, so nodes are moved
+		assertNull(order.addEdge(3, 0));
+		assertNull(order.addEdge(2, 3));
+		assertNull(order.addEdge(1, 2));
+		assertValid(order);
+
+		var cycle = order.addEdge(0, 1);
+		assertNotNull(cycle);
+		assertArrayEquals(new int[] { 1, 2, 3, 0 }, cycle.toArray());
+	}
+
+	@Test
+	void undoCycle() {
+		var order = new IncrementalTopologicalOrder(4);
+		assertNull(order.addEdge(1, 2));
+		assertNull(order.addEdge(2, 3));
+
+		var cycle = order.addEdge(3, 1);
+		assertArrayEquals(new int[] { 1, 2, 3 }, cycle.toArray());
+
+		order.removeLastEdge(3, 1);
+		assertValid(order);
+		// 0 -> 1 -> 2 -> 3 is acyclic once 3 -> 1 is removed
+		assertNull(order.addEdge(0, 1));
+		assertValid(order);
+	}
+
+	@Test
+	void removeOutOfOrder() {
+		var order = new IncrementalTopologicalOrder(3);
+		order.addEdge(0, 1);
+		order.addEdge(1, 2);
+		assertThrows(IllegalStateException.class, () -> order.removeLastEdge(0, 1));
+	}
+
+	@Test
+	void randomEdges() {
+		var random = new Random(1);
+		for (int round = 0; round < 50; round++) {
+			var n = 2 + random.nextInt(20);
+			var order = new IncrementalTopologicalOrder(n);
+			var added = new ArrayList<int[]>();
+			for (int i = 0; i < n * 3; i++) {
+				var from = random.nextInt(n);
+				var to = random.nextInt(n);
+				var cycle = order.addEdge(from, to);
+				if (cycle == null) {
+					added.add(new int[] { from, to });
+					assertValid(order);
+					continue;
+				}
+
+				// a path from to to from, closed by the new edge
+				assertTrue(cycle.get(0) == to && cycle.get(cycle.size() - 1) == from);
+				for (int j = 0; j + 1 < cycle.size(); j++) {
+					assertTrue(contains(order.successors(cycle.get(j)), cycle.get(j + 1)));
+				}
+				order.removeLastEdge(from, to);
+				assertValid(order);
+
+				// backtrack a few edges, as a search does
+				for (int j = random.nextInt(3); j > 0 && !added.isEmpty(); j--) {
+					var e = added.remove(added.size() - 1);
+					order.removeLastEdge(e[0], e[1]);
+					assertValid(order);
+				}
+			}
+		}
+	}
+
+	private static void assertValid(IncrementalTopologicalOrder order) {
+		for (int i = 0; i < order.nodeCount(); i++) {
+			var successors = order.successors(i);
+			for (int j = 0; j < successors.size(); j++) {
+				assertTrue(order.order(i) < order.order(successors.get(j)),
+						String.format("%d -> %d against the order", i, successors.get(j)));
+			}
+		}
+	}
+
+	private static boolean contains(IntList list, int element) {
+		for (int i = 0; i < list.size(); i++) {
+			if (list.get(i) == element) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,30 @@
+package history.loaders;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import history.History;
+
+class Histories {
+	/*
+	 * Sessions in order of their ids, each with its transactions and their
+	 * events in order, for comparing histories loaded in different ways
+	 */
+	static List<String> describe(History<?, ?> history) {
+		var sessions = new ArrayList<>(history.getSessions());
+		sessions.sort(Comparator.comparingLong(s -> s.getId()));
+
+		var lines = new ArrayList<String>();
+		for (var session : sessions) {
+			lines.add(String.format("session %d", session.getId()));
+			for (var txn : session.getTransactions()) {
+				lines.add(String.format("  txn %d %s", txn.getId(), txn.getStatus()));
+				for (var ev : txn.getEvents()) {
+					lines.add(String.format("    %s %s %s", ev.getType(), ev.getKey(), ev.getValue()));
+				}
+			}
+		}
+		return lines;
+	}
+}
@@ -0,0 +1,110 @@
+package history.loaders;
+
+import static history.Event.EventType.WRITE;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import history.History;
+import history.InvalidHistoryError;
+import history.Transaction;
+import history.loaders.CobraHistoryLoader.CobraValue;
+
+public class TestCobraLoader {
+	@TempDir
+	Path dir;
+
+	@Test
+	void sameAsStreamLoader() throws IOException {
+		// more logs than are decoded at a time
+		writeLogs(new Random(1), Runtime.getRuntime().availableProcessors() + 3, 20);
+		// records are 9, 25 and 33 bytes, so most of them cross a window
+		var loader = new CobraHistoryLoader(dir, 16);
+		assertEquals(Histories.describe(loadFromStreams(loader)), Histories.describe(loader.loadHistory()));
+	}
+
+	@Test
+	void truncatedRecord() throws IOException {
+		writeLogs(new Random(2), 2, 5);
+		var log = dir.resolve("T1.log");
+		try (var channel = FileChannel.open(log, StandardOpenOption.WRITE)) {
+			channel.truncate(channel.size() - 3);
+		}
+
+		assertThrows(InvalidHistoryError.class, () -> new CobraHistoryLoader(dir).loadHistory());
+	}
+
+	/*
+	 * Sessions of transactions that write unique values and read the initial
+	 * value or an earlier write
+	 */
+	private void writeLogs(Random random, int sessions, int txns) throws IOException {
+		var writes = new HashMap<Long, long[]>();
+		var writeId = 1L;
+		for (int s = 0; s < sessions; s++) {
+			try (var out = new DataOutputStream(new FileOutputStream(dir.resolve("T" + s + ".log").toFile()))) {
+				for (int t = 0; t < txns; t++) {
+					var txnId = s * 1000L + t + 1;
+					out.writeByte('S');
+					out.writeLong(txnId);
+					for (int e = 0; e < 4; e++) {
+						var key = (long) random.nextInt(5);
+						if (random.nextBoolean()) {
+							out.writeByte('W');
+							out.writeLong(writeId);
+							out.writeLong(key);
+							out.writeLong(writeId * 7);
+							writes.put(key, new long[] { txnId, writeId });
+							writeId++;
+						} else {
+							var w = writes.get(key);
+							out.writeByte('R');
+							out.writeLong(w == null ? CobraHistoryLoader.INIT_TXN_ID : w[0]);
+							out.writeLong(w == null ? CobraHistoryLoader.INIT_WRITE_ID : w[1]);
+							out.writeLong(key);
+							out.writeLong(w == null ? 0 : w[1] * 7);
+						}
+					}
+					out.writeByte('C');
+					out.writeLong(txnId);
+				}
+			}
+		}
+	}
+
+	/*
+	 * The logs read with extractLog, as they were before they were memory-mapped
+	 */
+	private History<Long, CobraValue> loadFromStreams(CobraHistoryLoader loader) throws IOException {
+		var history = new History<Long, CobraValue>();
+		var initWrites = new HashMap<Long, CobraValue>();
+		try (var files = Files.list(dir)) {
+			var sessionId = 0;
+			for (var f : (Iterable<Path>) files.sorted()::iterator) {
+				try (var in = new DataInputStream(new FileInputStream(f.toFile()))) {
+					loader.extractLog(in, history, initWrites, history.addSession(sessionId++));
+				}
+			}
+		}
+
+		var initTxn = history.addTransaction(history.addSession(CobraHistoryLoader.INIT_TXN_ID),
+				CobraHistoryLoader.INIT_TXN_ID);
+		initWrites.forEach((k, v) -> history.addEvent(initTxn, WRITE, k, v));
+		initTxn.setStatus(Transaction.TransactionStatus.COMMIT);
+		return history;
+	}
+}
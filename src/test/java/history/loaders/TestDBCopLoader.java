@@ -0,0 +1,146 @@
+package history.loaders;
+
+import static history.Event.EventType.READ;
+import static history.Event.EventType.WRITE;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Random;
+
+import org.apache.commons.lang3.tuple.Triple;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.google.common.io.LittleEndianDataInputStream;
+import com.google.common.io.LittleEndianDataOutputStream;
+
+import history.Event;
+import history.History;
+
+@SuppressWarnings("UnstableApiUsage")
+public class TestDBCopLoader {
+	@TempDir
+	Path dir;
+
+	@Test
+	void sameAsSequentialLoader() throws IOException {
+		var path = dir.resolve("history.bincode");
+		writeHistory(path, new Random(1), 6, 10);
+
+		assertEquals(Histories.describe(loadSequentially(path)),
+				Histories.describe(new DBCopHistoryLoader(path).loadHistory()));
+	}
+
+	@Test
+	void dumpAndLoad() throws IOException {
+		var path = dir.resolve("history.bincode");
+		var loader = new DBCopHistoryLoader(path);
+		try (var out = loader.openStream()) {
+			out.startTransaction(1, 1);
+			out.write(1, 1);
+			out.commitTransaction();
+			out.startTransaction(2, 2);
+			out.read(1, 1, 1);
+			out.write(2, 2);
+			out.commitTransaction();
+		}
+
+		assertEquals(Histories.describe(loadSequentially(path)), Histories.describe(loader.loadHistory()));
+	}
+
+	/*
+	 * Sessions with aborted transactions and failed events. Keys share hash
+	 * buckets, so the order of the initial writes depends on the order the
+	 * keys are found.
+	 */
+	private static void writeHistory(Path path, Random random, int sessions, int txns) throws IOException {
+		try (var out = new LittleEndianDataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(path.toFile())))) {
+			out.writeLong(0); // id
+			out.writeLong(sessions); // nodeNum
+			out.writeLong(0); // variableNum
+			out.writeLong(sessions * txns); // transactionNum
+			out.writeLong(0); // eventNum
+			for (var str : new String[] { "info", "start", "end" }) {
+				var bytes = str.getBytes(StandardCharsets.UTF_8);
+				out.writeLong(bytes.length);
+				out.write(bytes);
+			}
+
+			var value = 1L;
+			out.writeLong(sessions);
+			for (int s = 0; s < sessions; s++) {
+				out.writeLong(txns);
+				for (int t = 0; t < txns; t++) {
+					var events = random.nextInt(5);
+					out.writeLong(events);
+					for (int e = 0; e < events; e++) {
+						out.writeBoolean(random.nextBoolean());
+						out.writeLong(random.nextInt(8) * 64L + ((long) random.nextInt(3) << 32));
+						out.writeLong(value++);
+						out.writeBoolean(random.nextInt(5) != 0);
+					}
+					out.writeBoolean(random.nextInt(4) != 0);
+				}
+			}
+		}
+	}
+
+	/*
+	 * The history read from a stream, as it was before sessions were decoded
+	 * in parallel
+	 */
+	private static History<Long, Long> loadSequentially(Path path) throws IOException {
+		var history = new History<Long, Long>();
+		var keys = new HashSet<Long>();
+		try (var in = new LittleEndianDataInputStream(
+				new BufferedInputStream(new FileInputStream(path.toFile())))) {
+			for (int i = 0; i < 5; i++) {
+				in.readLong();
+			}
+			for (int i = 0; i < 3; i++) {
+				in.skipBytes((int) in.readLong());
+			}
+
+			var sessionId = 1L;
+			var transactionId = 1L;
+			var sessions = in.readLong();
+			for (long i = 0; i < sessions; i++) {
+				var session = history.addSession(sessionId++);
+				var txns = in.readLong();
+				for (long j = 0; j < txns; j++) {
+					var events = new ArrayList<Triple<Event.EventType, Long, Long>>();
+					var length = in.readLong();
+					for (long k = 0; k < length; k++) {
+						var write = in.readBoolean();
+						var key = in.readLong();
+						var value = in.readLong();
+						if (in.readBoolean()) {
+							keys.add(key);
+							events.add(Triple.of(write ? WRITE : READ, key, value));
+						}
+					}
+
+					if (in.readBoolean()) {
+						var txn = history.addTransaction(session, transactionId++);
+						events.forEach(t -> history.addEvent(txn, t.getLeft(), t.getMiddle(), t.getRight()));
+					}
+				}
+			}
+		}
+
+		var init = history.addTransaction(history.addSession(0), 0);
+		for (var k : keys) {
+			history.addEvent(init, WRITE, k, 0L);
+		}
+		return history;
+	}
+}
@@ -0,0 +1,182 @@
+package history.loaders;
+
+import static history.Event.EventType.READ;
+import static history.Event.EventType.WRITE;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import history.History;
+
+public class TestElleLoader {
+	@TempDir
+	Path dir;
+
+	@Test
+	void skipsOperationsNotOk() throws IOException {
+		var history = load(
+				"{:type :invoke, :f :txn, :value [[:append 1 1] [:r 2 nil]], :process 0, :time 10, :index 0}",
+				"{:type :ok, :f :txn, :value [[:append 1 1] [:r 2 nil]], :process 0, :time 20, :index 1}",
+				"{:type :invoke, :f :txn, :value [[:append 2 3]], :process 1, :index 2}",
+				// the tagged :error must be skipped as one value, or :type is taken as its value
+				"{:process 1, :error #object[java.lang.Exception 0x1a2b \"boom\"], :type :fail, :f :txn, "
+						+ ":value [[:append 2 3]], :index 3}",
+				"{:type :info, :f :start-partition, :value nil, :process :nemesis, "
+						+ ":time #inst \"2022-01-01T00:00:00.000-00:00\", :index 4}",
+				"{:value [[:r 1 [1]] [:append 2 4]], :f :txn, :process 1, :type :ok, :index 5}",
+				"{:type :info, :f :txn, :value [[:append 3 5]], :process 2, "
+						+ ":error [:timeout #inst \"2022-01-01T00:00:00.000-00:00\"], :index 6}",
+				"{:type :ok, :f :txn, :error #_ :ignored nil, :value [[:r 2 [4]] #_ [:append 3 9]], :process 2, "
+						+ ":index 7}");
+
+		assertEquals(List.of(
+				"session -1",
+				"  txn -1 ONGOING",
+				"    WRITE 1 ElleAppend(null)",
+				"    WRITE 2 ElleAppend(null)",
+				"session 0",
+				"  txn 0 ONGOING",
+				"    WRITE 1 ElleAppend(1)",
+				"    READ 2 ElleList([])",
+				"session 1",
+				"  txn 1 ONGOING",
+				"    READ 1 ElleList([1])",
+				"    WRITE 2 ElleAppend(4)",
+				"session 2",
+				"  txn 2 ONGOING",
+				"    READ 2 ElleList([4])"), Histories.describe(history));
+	}
+
+	@Test
+	void sameAsLineParser() throws IOException {
+		var path = dir.resolve("history.edn");
+		var lines = randomLines(new Random(1), 2000);
+		Files.write(path, lines);
+
+		try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			assertTrue(MappedInput.splitLines(channel, 1).length > 2, "history is not split");
+		}
+		assertEquals(Histories.describe(loadByLines(lines)),
+				Histories.describe(new ElleHistoryLoader(path, 1).loadHistory()));
+	}
+
+	/*
+	 * Transactions of a few processes, each invoked and then completed, with
+	 * nemesis operations in between. Lines of different processes interleave.
+	 */
+	private static List<String> randomLines(Random random, int n) {
+		var lines = new ArrayList<String>();
+		var pending = new HashMap<Integer, String>();
+		var lists = new HashMap<Integer, List<Integer>>();
+		var value = 1;
+		for (int i = 0; lines.size() < n; i++) {
+			var process = random.nextInt(5);
+			if (random.nextInt(20) == 0) {
+				lines.add(String.format("{:type :info, :f :start-partition, :value nil, :process :nemesis, "
+						+ ":time %d, :index %d}", i, i));
+				continue;
+			}
+
+			var ops = pending.remove(process);
+			if (ops == null) {
+				var events = new ArrayList<String>();
+				for (int e = random.nextInt(4); e >= 0; e--) {
+					var key = random.nextInt(8);
+					events.add(random.nextBoolean() ? String.format("[:append %d %d]", key, value++)
+							: String.format("[:r %d nil]", key));
+				}
+				ops = String.join(" ", events);
+				pending.put(process, ops);
+				lines.add(String.format("{:type :invoke, :f :txn, :value [%s], :process %d, :time %d, :index %d}",
+						ops, process, i, i));
+				continue;
+			}
+
+			var type = random.nextInt(4) == 0 ? (random.nextBoolean() ? ":fail" : ":info") : ":ok";
+			if (type.equals(":ok")) {
+				// reads see the lists of earlier :ok appends
+				var m = Pattern.compile("\\[:(r|append) (\\d+) (nil|\\d+)\\]").matcher(ops);
+				var sb = new StringBuilder();
+				while (m.find()) {
+					var list = lists.computeIfAbsent(Integer.parseInt(m.group(2)), k -> new ArrayList<>());
+					if (m.group(1).equals("append")) {
+						list.add(Integer.parseInt(m.group(3)));
+						m.appendReplacement(sb, m.group());
+					} else {
+						m.appendReplacement(sb, String.format("[:r %s %s]", m.group(2), list.isEmpty() ? "nil"
+								: list.stream().map(String::valueOf).collect(Collectors.joining(" ", "[", "]"))));
+					}
+				}
+				ops = m.appendTail(sb).toString();
+			}
+			lines.add(String.format("{:type %s, :f :txn, :value [%s], :process %d, :time %d, :index %d}", type, ops,
+					process, i, i));
+		}
+		return lines;
+	}
+
+	/*
+	 * The history parsed line by line, as it was before the file was split into
+	 * chunks
+	 */
+	private static History<Integer, ElleHistoryLoader.ElleValue> loadByLines(List<String> lines) {
+		var history = new History<Integer, ElleHistoryLoader.ElleValue>();
+		var line = Pattern.compile("\\{:type :ok, :f :txn, :value \\[(.*)\\], :process (\\d+), .*\\}");
+		var event = Pattern.compile("\\[:(r|append) (\\d+) (nil|\\d+|\\[[\\d ]*\\])\\]");
+		for (var l : lines) {
+			var match = line.matcher(l);
+			if (!match.matches()) {
+				continue;
+			}
+
+			var process = Integer.parseInt(match.group(2));
+			var session = history.getSession(process);
+			if (session == null) {
+				session = history.addSession(process);
+			}
+			var txn = history.addTransaction(session, history.getTransactions().size());
+
+			var events = event.matcher(match.group(1));
+			while (events.find()) {
+				var key = Integer.parseInt(events.group(2));
+				if (events.group(1).equals("append")) {
+					history.addEvent(txn, WRITE, key, new ElleHistoryLoader.ElleValue(
+							Integer.parseInt(events.group(3)), null));
+					continue;
+				}
+
+				var list = events.group(3).equals("nil") ? List.<Integer>of()
+						: Arrays.stream(events.group(3).replaceAll("[\\[\\]]", "").split(" "))
+								.map(Integer::parseInt).collect(Collectors.toList());
+				history.addEvent(txn, READ, key, new ElleHistoryLoader.ElleValue(
+						list.isEmpty() ? null : list.get(list.size() - 1), list));
+			}
+		}
+
+		var initTxn = history.addTransaction(history.addSession(-1), -1);
+		history.getEvents().stream().map(e -> e.getKey()).distinct()
+				.forEach(k -> history.addEvent(initTxn, WRITE, k, new ElleHistoryLoader.ElleValue(null, null)));
+		return history;
+	}
+
+	private History<Integer, ElleHistoryLoader.ElleValue> load(String... lines) throws IOException {
+		var path = dir.resolve("history.edn");
+		Files.write(path, List.of(lines));
+		return new ElleHistoryLoader(path).loadHistory();
+	}
+}
@@ -0,0 +1,117 @@
+package history.loaders;
+
+import static history.Event.EventType.READ;
+import static history.Event.EventType.WRITE;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.apache.commons.lang3.tuple.Triple;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import history.History;
+import history.HistoryStream;
+import history.InvalidHistoryError;
+
+public class TestNativeLoader {
+	@TempDir
+	Path dir;
+
+	@Test
+	void convertAndLoad() {
+		var loader = new NativeHistoryLoader(dir.resolve("history.psi"));
+		var history = loader.convertFrom(randomHistory(new Random(1)));
+		loader.dumpHistory(history);
+
+		assertEquals(Histories.describe(history), Histories.describe(loader.loadHistory()));
+	}
+
+	@Test
+	void convertStringKeys() {
+		var history = new History<String, String>(Set.of(1L, 2L), Map.of(1L, List.of(1L), 2L, List.of(2L)),
+				Map.of(1L, List.of(Triple.of(WRITE, "x", "a")),
+						2L, List.of(Triple.of(READ, "x", "a"))));
+		var loader = new NativeHistoryLoader(dir.resolve("history.psi"));
+		var converted = loader.convertFrom(history);
+		loader.dumpHistory(converted);
+
+		assertEquals(Histories.describe(converted), Histories.describe(loader.loadHistory()));
+	}
+
+	@Test
+	void initialTransactionOfStream() throws IOException {
+		var loader = new NativeHistoryLoader(dir.resolve("history.psi"));
+		try (var out = loader.openStream()) {
+			out.startTransaction(0, 1);
+			out.write(5, 1);
+			out.commitTransaction();
+		}
+
+		var init = loader.loadHistory().getTransaction(HistoryStream.INIT_TRANSACTION);
+		assertNotNull(init);
+		assertEquals(HistoryStream.INIT_TRANSACTION, init.getSession().getId());
+		var ev = init.getEvents().get(0);
+		assertEquals(WRITE, ev.getType());
+		assertEquals(5L, ev.getKey());
+		assertEquals(0L, ev.getValue());
+	}
+
+	/*
+	 * Each byte of a valid file is replaced in turn. The file either loads or
+	 * is rejected with InvalidHistoryError.
+	 */
+	@Test
+	void corruptFile() throws IOException {
+		var path = dir.resolve("history.psi");
+		var loader = new NativeHistoryLoader(path);
+		loader.dumpHistory(loader.convertFrom(randomHistory(new Random(2))));
+		var bytes = Files.readAllBytes(path);
+
+		for (int i = 0; i < bytes.length; i++) {
+			for (var b : new byte[] { 0, (byte) 0x7f, (byte) 0xff }) {
+				var corrupt = bytes.clone();
+				corrupt[i] = b;
+				Files.write(path, corrupt);
+				try {
+					loader.loadHistory();
+				} catch (InvalidHistoryError e) {
+					// expected
+				} catch (RuntimeException e) {
+					throw new AssertionError(String.format("byte %d set to %d", i, b), e);
+				}
+			}
+		}
+	}
+
+	private static History<Long, Long> randomHistory(Random random) {
+		var history = new History<Long, Long>();
+		var value = 1L;
+		var written = new ArrayList<long[]>();
+		for (long s = 0; s < 3; s++) {
+			var session = history.addSession(s);
+			for (int t = 0; t < 5; t++) {
+				var txn = history.addTransaction(session, s * 100 + t);
+				for (int e = 0; e < 4; e++) {
+					var key = (long) random.nextInt(4) - 2;
+					if (written.isEmpty() || random.nextBoolean()) {
+						history.addEvent(txn, WRITE, key, value);
+						written.add(new long[] { key, value++ });
+					} else {
+						var w = written.get(random.nextInt(written.size()));
+						history.addEvent(txn, READ, w[0], w[1]);
+					}
+				}
+			}
+		}
+		return history;
+	}
+}
@@ -0,0 +1,109 @@
+package history.loaders;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import history.Event.EventType;
+import history.History;
+
+public class TestTextLoader {
+	@TempDir
+	Path dir;
+
+	@Test
+	void sameAsSequentialLoader() throws IOException {
+		var path = dir.resolve("history.txt");
+		Files.write(path, randomLines(new Random(1), 300));
+
+		assertEquals(Histories.describe(loadSequentially(path)),
+				Histories.describe(new TextHistoryLoader(path, 1).loadHistory()));
+	}
+
+	@Test
+	void invalidLineInLaterChunk() throws IOException {
+		var path = dir.resolve("history.txt");
+		var lines = randomLines(new Random(2), 200);
+		lines.set(149, "r(1,2,3)");
+		Files.write(path, lines);
+
+		try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			var bounds = MappedInput.splitLines(channel, 1);
+			var offset = lines.subList(0, 149).stream().mapToLong(l -> l.length() + 1).sum();
+			assertTrue(bounds.length > 2 && offset >= bounds[1], "line 150 is not in the first chunk");
+		}
+
+		var e = assertThrows(Error.class, () -> new TextHistoryLoader(path, 1).loadHistory());
+		assertEquals("Invalid format at line 150", e.getMessage());
+	}
+
+	/*
+	 * Operations of transactions in a few sessions, interleaved. Writes have
+	 * unique values.
+	 */
+	private static List<String> randomLines(Random random, int n) {
+		var lines = new ArrayList<String>();
+		var txns = new long[] { 1, 2, 3 };
+		var nextTxn = 4L;
+		for (int i = 0; i < n; i++) {
+			var session = random.nextInt(txns.length);
+			if (random.nextInt(4) == 0) {
+				txns[session] = nextTxn++;
+			}
+			var write = random.nextBoolean();
+			lines.add(String.format("%s(%d,%d,%d,%d)", write ? "w" : "r", random.nextInt(20),
+					write ? i + 1 : random.nextInt(i + 1), session, txns[session]));
+		}
+		return lines;
+	}
+
+	/*
+	 * The history read line by line, as it was before the file was split into
+	 * chunks
+	 */
+	private static History<Long, Long> loadSequentially(Path path) throws IOException {
+		var history = new History<Long, Long>();
+		var regex = Pattern.compile("(r|w)\\((\\d++),(\\d++),(\\d++),(\\d++)\\)");
+		var initTxn = history.addTransaction(history.addSession(-1), -1);
+		var keySet = new HashSet<Long>();
+
+		for (var line : Files.readAllLines(path)) {
+			var match = regex.matcher(line);
+			assertTrue(match.matches());
+
+			var key = Long.parseLong(match.group(2));
+			var value = Long.parseLong(match.group(3));
+			var session = Long.parseLong(match.group(4));
+			var txn = Long.parseLong(match.group(5));
+
+			if (history.getSession(session) == null) {
+				history.addSession(session);
+			}
+			if (history.getTransaction(txn) == null) {
+				history.addTransaction(history.getSession(session), txn);
+			}
+			if (keySet.add(key)) {
+				history.addEvent(initTxn, EventType.WRITE, key, 0L);
+			}
+
+			history.addEvent(history.getTransaction(txn),
+					match.group(1).equals("r") ? EventType.READ : EventType.WRITE, key, value);
+		}
+
+		return history;
+	}
+}
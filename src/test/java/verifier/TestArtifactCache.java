@@ -0,0 +1,99 @@
+package verifier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.google.common.graph.ValueGraph;
+
+import graph.Edge;
+import graph.KnownGraph;
+import history.Transaction;
+
+public class TestArtifactCache {
+	@TempDir
+	Path dir;
+
+	@Test
+	void storeAndLoad() {
+		var cache = new ArtifactCache(dir, Long.MAX_VALUE);
+		var random = new Random(1);
+		for (int i = 0; i < 20; i++) {
+			var history = TestDecomposition.randomHistory(random, 2);
+			var graph = new KnownGraph<>(history);
+			var constraints = SIVerifier.generateConstraintsCoalesce(history, graph);
+			var hasLoop = Pruning.pruneConstraints(graph, constraints, history);
+
+			var key = ArtifactCache.key("history " + i);
+			cache.store(key, history, new ArtifactCache.Artifacts<>(graph, constraints, hasLoop));
+			var loaded = cache.load(key, history);
+
+			assertEquals(hasLoop, loaded.isHasLoop());
+			assertEquals(describe(graph.getKnownGraphA()), describe(loaded.getGraph().getKnownGraphA()));
+			assertEquals(describe(graph.getKnownGraphB()), describe(loaded.getGraph().getKnownGraphB()));
+			assertEquals(describe(constraints), describe(loaded.getConstraints()));
+		}
+	}
+
+	@Test
+	void missingEntry() {
+		var cache = new ArtifactCache(dir, Long.MAX_VALUE);
+		var history = TestDecomposition.randomHistory(new Random(2), 1);
+		assertNull(cache.load(ArtifactCache.key("absent"), history));
+	}
+
+	@Test
+	void keyDependsOnParts() {
+		assertEquals(ArtifactCache.key("a", "b"), ArtifactCache.key("a", "b"));
+		assertNotEquals(ArtifactCache.key("a", "b"), ArtifactCache.key("ab"));
+		assertNotEquals(ArtifactCache.key("a", "b"), ArtifactCache.key("b", "a"));
+	}
+
+	private static <KeyType, ValueType> Set<String> describe(
+			ValueGraph<Transaction<KeyType, ValueType>, Collection<Edge<KeyType>>> graph) {
+		return graph.edges().stream()
+				.map(e -> String.format("%d -> %d %s", e.source().getId(), e.target().getId(),
+						graph.edgeValue(e).get().stream().map(Edge::toString).sorted()
+								.collect(Collectors.toList())))
+				.collect(Collectors.toSet());
+	}
+
+	/*
+	 * The constraints left, each with its write transactions and edges
+	 */
+	private static <KeyType, ValueType> List<String> describe(ConstraintStore<KeyType, ValueType> store) {
+		var lines = new ArrayList<String>();
+		for (int c = 0; c < store.constraintCount(); c++) {
+			if (store.isRemoved(c)) {
+				continue;
+			}
+
+			lines.add(String.format("%d %d %s %s", store.transaction(store.writeTransaction1(c)).getId(),
+					store.transaction(store.writeTransaction2(c)).getId(),
+					describeEdges(store, store.edges1Begin(c), store.edges1End(c)),
+					describeEdges(store, store.edges2Begin(c), store.edges2End(c))));
+		}
+		return lines;
+	}
+
+	private static <KeyType, ValueType> List<String> describeEdges(ConstraintStore<KeyType, ValueType> store,
+			int begin, int end) {
+		var edges = new ArrayList<String>();
+		for (int e = begin; e < end; e++) {
+			edges.add(String.format("%d -> %d (%s, %s)", store.transaction(store.from(e)).getId(),
+					store.transaction(store.to(e)).getId(), store.type(e), store.key(e)));
+		}
+		return edges;
+	}
+}
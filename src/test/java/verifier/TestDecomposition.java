@@ -0,0 +1,189 @@
+package verifier;
+
+import static history.Event.EventType.READ;
+import static history.Event.EventType.WRITE;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import graph.Edge;
+import graph.EdgeType;
+import graph.KnownGraph;
+import history.History;
+import history.Session;
+import history.Transaction;
+import util.IntList;
+
+public class TestDecomposition {
+	@Test
+	void stronglyConnectedComponents() {
+		// 0 -> 1 -> 2 -> 0, 2 -> 3, 3 <-> 4, 5 alone
+		var from = new IntList();
+		var to = new IntList();
+		int[][] edges = { { 0, 1 }, { 1, 2 }, { 2, 0 }, { 2, 3 }, { 3, 4 }, { 4, 3 } };
+		for (var e : edges) {
+			from.add(e[0]);
+			to.add(e[1]);
+		}
+
+		var component = Decomposition.stronglyConnectedComponents(6, from, to);
+		assertEquals(component[0], component[1]);
+		assertEquals(component[0], component[2]);
+		assertEquals(component[3], component[4]);
+		assertNotEquals(component[0], component[3]);
+		assertNotEquals(component[0], component[5]);
+		assertNotEquals(component[3], component[5]);
+	}
+
+	@Test
+	void split() {
+		var history = new History<String, Integer>(Set.of(0L), Map.of(0L, List.of(0L, 1L, 2L, 3L, 4L, 5L)),
+				Map.of());
+		var t = new ArrayList<Transaction<String, Integer>>();
+		for (long i = 0; i < 6; i++) {
+			t.add(history.getTransaction(i));
+		}
+
+		var graph = new KnownGraph<String, Integer>();
+		t.forEach(graph::addTransaction);
+		graph.putEdge(t.get(2), t.get(3), new Edge<>(EdgeType.SO, null));
+		// between the components of {0, 1} and {2, 3}
+		graph.putEdge(t.get(1), t.get(2), new Edge<>(EdgeType.WR, "x"));
+
+		var constraints = new ConstraintStore<String, Integer>(t);
+		var x = constraints.keyId("x");
+		// {0, 1}: either order is fine. 4 -> 1 and 1 -> 5 leave the component.
+		constraints.startConstraint(0, 1);
+		constraints.addEdge(0, 1, EdgeType.WW, x);
+		constraints.addEdge(4, 1, EdgeType.RW, x);
+		constraints.startEdges2();
+		constraints.addEdge(1, 0, EdgeType.WW, x);
+
+		constraints.startConstraint(0, 1);
+		constraints.addEdge(0, 1, EdgeType.WW, x);
+		constraints.startEdges2();
+		constraints.addEdge(1, 0, EdgeType.WW, x);
+		constraints.addEdge(1, 5, EdgeType.RW, x);
+
+		// {2, 3}: both orders make a cycle with 2 -> 3
+		constraints.startConstraint(2, 3);
+		constraints.addEdge(2, 3, EdgeType.WW, x);
+		constraints.addEdge(3, 2, EdgeType.RW, x);
+		constraints.startEdges2();
+		constraints.addEdge(3, 2, EdgeType.WW, x);
+
+		// removed, so 4 and 5 are not in a component
+		constraints.startConstraint(4, 5);
+		constraints.addEdge(4, 5, EdgeType.WW, x);
+		constraints.startEdges2();
+		constraints.addEdge(5, 4, EdgeType.WW, x);
+		constraints.remove(3);
+
+		var components = Decomposition.split(graph, constraints);
+		assertEquals(2, components.size());
+		var first = components.stream().filter(c -> c.getConstraintIds().length == 2).findAny().get();
+		var second = components.stream().filter(c -> c.getConstraintIds().length == 1).findAny().get();
+
+		assertArrayEquals(new int[] { 0, 1 }, first.getConstraintIds());
+		assertEquals(Set.of(t.get(0), t.get(1)), first.getGraph().getKnownGraphA().nodes());
+		assertTrue(first.getGraph().getKnownGraphA().edges().isEmpty());
+		var store = first.getConstraints();
+		assertEquals(1, store.edges1End(0) - store.edges1Begin(0));
+		assertEquals(1, store.edges2End(1) - store.edges2Begin(1));
+
+		assertArrayEquals(new int[] { 2 }, second.getConstraintIds());
+		assertEquals(Set.of(t.get(2), t.get(3)), second.getGraph().getKnownGraphA().nodes());
+		assertEquals(1, second.getGraph().getKnownGraphA().edges().size());
+		assertEquals(3, second.getConstraints().edgeCount());
+
+		assertFalse(new JavaSISolver<>(history, graph, constraints).solve());
+		assertTrue(new JavaSISolver<>(history, first.getGraph(), first.getConstraints()).solve());
+		var solver = new JavaSISolver<>(history, second.getGraph(), second.getConstraints());
+		assertFalse(solver.solve());
+		for (var c : solver.getConflicts().getRight()) {
+			var global = constraints.toConstraint(second.getConstraintIds()[c.getId()]);
+			assertEquals(2, global.getId());
+			assertEquals(c.getWriteTransaction1(), global.getWriteTransaction1());
+			assertEquals(c.getWriteTransaction2(), global.getWriteTransaction2());
+		}
+	}
+
+	@Test
+	void sameVerdictAsWholeProblem() {
+		var solverType = SIVerifier.getSolverType();
+		try {
+			for (var type : SIVerifier.SolverType.values()) {
+				SIVerifier.setSolverType(type);
+				var random = new Random(1);
+				for (int i = 0; i < 100; i++) {
+					var history = randomHistory(random, 1 + i % 3);
+					SIVerifier.setSplitComponents(false);
+					var whole = new SIVerifier<>(() -> history).audit();
+					SIVerifier.setSplitComponents(true);
+					var split = new SIVerifier<>(() -> history).audit();
+					assertEquals(whole, split, type + " history " + i);
+				}
+			}
+		} finally {
+			SIVerifier.setSplitComponents(false);
+			SIVerifier.setSolverType(solverType);
+		}
+	}
+
+	/*
+	 * Tenants with their own sessions and keys. Transactions run one at a
+	 * time, and a few reads return an older value, so some histories are
+	 * rejected.
+	 */
+	static History<String, Integer> randomHistory(Random random, int tenants) {
+		var history = new History<String, Integer>(Set.of(), Map.of(), Map.of());
+		var init = history.addTransaction(history.addSession(0), 0);
+		long txnId = 1;
+		for (int tenant = 0; tenant < tenants; tenant++) {
+			var keys = List.of(tenant + "x", tenant + "y", tenant + "z");
+			var written = new HashMap<String, List<Integer>>();
+			for (var k : keys) {
+				history.addEvent(init, WRITE, k, 0);
+				written.put(k, new ArrayList<>(List.of(0)));
+			}
+
+			var sessions = new ArrayList<Session<String, Integer>>();
+			for (int s = 0; s < 3; s++) {
+				sessions.add(history.addSession(tenant * 3 + s + 1));
+			}
+
+			var value = 1;
+			for (int i = 0; i < 9; i++) {
+				var txn = history.addTransaction(sessions.get(random.nextInt(sessions.size())), txnId++);
+				var own = new HashMap<String, Integer>();
+				for (int e = 0; e < 3; e++) {
+					var key = keys.get(random.nextInt(keys.size()));
+					var values = written.get(key);
+					if (random.nextBoolean()) {
+						history.addEvent(txn, WRITE, key, value);
+						own.put(key, value++);
+					} else if (own.containsKey(key)) {
+						history.addEvent(txn, READ, key, own.get(key));
+					} else if (random.nextInt(10) == 0) {
+						history.addEvent(txn, READ, key, values.get(random.nextInt(values.size())));
+					} else {
+						history.addEvent(txn, READ, key, values.get(values.size() - 1));
+					}
+				}
+				own.forEach((k, v) -> written.get(k).add(v));
+			}
+		}
+		return history;
+	}
+}
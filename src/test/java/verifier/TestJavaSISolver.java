@@ -0,0 +1,42 @@
+package verifier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class TestJavaSISolver {
+	@BeforeEach
+	void disablePruning() {
+		// so that every constraint reaches the solvers
+		Pruning.setEnablePruning(false);
+	}
+
+	@AfterEach
+	void restoreDefaults() {
+		Pruning.setEnablePruning(true);
+		SIVerifier.setSolverType(SIVerifier.SolverType.MONOSAT);
+	}
+
+	@Test
+	void sameVerdictAsSISolver() {
+		var random = new Random(2);
+		var rejected = 0;
+		for (int i = 0; i < 200; i++) {
+			var history = TestDecomposition.randomHistory(random, 1 + i % 3);
+			SIVerifier.setSolverType(SIVerifier.SolverType.MONOSAT);
+			var expected = new SIVerifier<>(() -> history).audit();
+			SIVerifier.setSolverType(SIVerifier.SolverType.JAVA);
+			assertEquals(expected, new SIVerifier<>(() -> history).audit(), "history " + i);
+
+			rejected += expected ? 0 : 1;
+		}
+
+		// both verdicts are covered
+		assertTrue(rejected > 0 && rejected < 200, "rejected " + rejected);
+	}
+}
@@ -0,0 +1,79 @@
+package verifier;
+
+import static history.Event.EventType.READ;
+import static history.Event.EventType.WRITE;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import graph.KnownGraph;
+import history.History;
+
+public class TestSISolver2Encoding {
+	@BeforeEach
+	void disablePruning() {
+		// so that every constraint reaches the solvers
+		Pruning.setEnablePruning(false);
+	}
+
+	@AfterEach
+	void restoreDefaults() {
+		Pruning.setEnablePruning(true);
+		SIVerifier.setSolverType(SIVerifier.SolverType.MONOSAT);
+	}
+
+	/*
+	 * Lost update: 1 and 2 both read x from 0 and write it. Every known edge
+	 * and constraint is needed for the cycle, so all of them are conflicts.
+	 */
+	@Test
+	void conflictsOfLostUpdate() {
+		var history = new History<String, Integer>(Set.of(0L, 1L, 2L),
+				Map.of(0L, List.of(0L), 1L, List.of(1L), 2L, List.of(2L)), Map.of());
+		var t0 = history.getTransaction(0);
+		var t1 = history.getTransaction(1);
+		var t2 = history.getTransaction(2);
+		history.addEvent(t0, WRITE, "x", 0);
+		history.addEvent(t1, READ, "x", 0);
+		history.addEvent(t1, WRITE, "x", 1);
+		history.addEvent(t2, READ, "x", 0);
+		history.addEvent(t2, WRITE, "x", 2);
+
+		var graph = new KnownGraph<>(history);
+		var constraints = SIVerifier.generateConstraintsCoalesce(history, graph);
+		assertEquals(3, constraints.size());
+
+		var solver = new SISolver2<>(history, graph, constraints);
+		assertFalse(solver.solve());
+
+		var conflicts = solver.getConflicts();
+		assertEquals(Set.of(Pair.of(0L, 1L), Pair.of(0L, 2L)), conflicts.getLeft().stream()
+				.map(e -> Pair.of(e.getLeft().source().getId(), e.getLeft().target().getId()))
+				.collect(Collectors.toSet()));
+		assertEquals(Set.of(Set.of(0L, 1L), Set.of(0L, 2L), Set.of(1L, 2L)), conflicts.getRight().stream()
+				.map(c -> Set.of(c.getWriteTransaction1().getId(), c.getWriteTransaction2().getId()))
+				.collect(Collectors.toSet()));
+	}
+
+	@Test
+	void sameVerdictAsSISolver() {
+		var random = new Random(3);
+		for (int i = 0; i < 200; i++) {
+			var history = TestDecomposition.randomHistory(random, 1 + i % 3);
+			SIVerifier.setSolverType(SIVerifier.SolverType.MONOSAT);
+			var expected = new SIVerifier<>(() -> history).audit();
+			SIVerifier.setSolverType(SIVerifier.SolverType.MONOSAT_PAIRS);
+			assertEquals(expected, new SIVerifier<>(() -> history).audit(), "history " + i);
+		}
+	}
+}
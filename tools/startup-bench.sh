@@ -0,0 +1,41 @@
+#!/bin/sh
+# Compare the startup time of the ways to launch PolySI by auditing a tiny
+# history, where verification takes a few milliseconds:
+#
+#   jarloader  java -jar with JarClassLoader, extracting MonoSAT every time
+#   cached     java -jar with MonoSAT extracted to the cache once
+#   cds        tools/polysi, with the AppCDS archive
+#
+# Run ./gradlew jar cdsArchive first. Prints the median wall time of RUNS
+# launches of each in ms.
+set -e
+
+ROOT=$(cd "$(dirname "$0")/.." && pwd)
+# the jar the archive was dumped with, written by ./gradlew cdsArchive
+JAR=$(cat "$ROOT/build/libs/PolySI.jar-path") || exit 1
+RUNS=${RUNS:-20}
+TMP=$(mktemp -d)
+trap 'rm -rf "$TMP"' EXIT
+
+java -jar "$JAR" generate --type=dbcop --sessions=2 --txns=5 "$TMP/history.bincode" 2>/dev/null
+
+median() {
+  sort -n | awk '{ t[NR] = $1 } END { print (NR % 2 ? t[(NR + 1) / 2] : (t[NR / 2] + t[NR / 2 + 1]) / 2) }'
+}
+
+bench() {
+  name=$1
+  shift
+  # the first launch fills the cache
+  "$@" audit --type=dbcop "$TMP/history.bincode" >/dev/null 2>&1
+  for i in $(seq "$RUNS"); do
+    begin=$(date +%s%N)
+    "$@" audit --type=dbcop "$TMP/history.bincode" >/dev/null 2>&1
+    end=$(date +%s%N)
+    echo $(((end - begin) / 1000000))
+  done | median | xargs printf "%-10s %sms\n" "$name"
+}
+
+bench jarloader java -Dpolysi.launcher=jarloader -jar "$JAR"
+bench cached java -jar "$JAR"
+bench cds "$ROOT/tools/polysi"